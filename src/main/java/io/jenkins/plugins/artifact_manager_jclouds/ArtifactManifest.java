@@ -0,0 +1,287 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStores;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.ListContainerOptions;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import hudson.Util;
+
+/**
+ * Lists the artifacts of a build archived in content-addressable mode.
+ * The build itself holds only this manifest, next to where its artifacts directory would be;
+ * file contents are stored once per digest and name in an area shared by all builds,
+ * so that a file identical to one archived before need not be uploaded again.
+ * Files the build stored in its artifacts directory in the usual way are still found there.
+ */
+final class ArtifactManifest {
+
+    /**
+     * Used in place of {@code job/build} for the shared area.
+     * Not a valid item name, so it cannot clash with a real job.
+     */
+    static final String CAS_KEY = "!cas";
+
+    /** Appended to the key of the artifacts directory to get the key of the manifest. */
+    static final String SUFFIX = ".manifest";
+
+    /** A file in the manifest. */
+    static final class Entry {
+        /**
+         * SHA-256 of the contents, in hex;
+         * or null for a file stored directly in the artifacts directory, as when archived without content addressing.
+         */
+        @CheckForNull
+        final String digest;
+        final long length;
+        final long lastModified;
+        Entry(@CheckForNull String digest, long length, long lastModified) {
+            this.digest = digest;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /** Keys are {@code /}-separated relative paths. */
+    private final NavigableMap<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * Name of a file in the shared area, relative to the artifacts directory of {@link #CAS_KEY}.
+     * The base name is kept so that downloads get a sensible file name and content type.
+     */
+    static String casName(@NonNull String digest, @NonNull String path) {
+        return digest + "/" + path.replaceFirst(".+/", "");
+    }
+
+    @CheckForNull
+    Entry get(@NonNull String path) {
+        return entries.get(path);
+    }
+
+    void put(@NonNull String path, @NonNull Entry entry) {
+        entries.put(path, entry);
+    }
+
+    /**
+     * Names of all files referred to, as in {@link #casName}.
+     */
+    Set<String> casNames() {
+        Set<String> names = new HashSet<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            String digest = entry.getValue().digest;
+            if (digest != null) {
+                names.add(casName(digest, entry.getKey()));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param path a relative path, or {@code ""} for the root
+     */
+    boolean isDirectory(@NonNull String path) {
+        return !files(path).isEmpty();
+    }
+
+    /**
+     * @param path a relative path, or {@code ""} for the root
+     * @return simple names of files and subdirectories directly inside
+     */
+    List<String> children(@NonNull String path) {
+        String dirSlash = path.isEmpty() ? "" : path + "/";
+        return files(path).keySet().stream().
+            map(f -> f.substring(dirSlash.length()).replaceFirst("/.+", "")).
+            distinct().
+            collect(Collectors.toList());
+    }
+
+    /** All files (recursively) inside a directory. */
+    private NavigableMap<String, Entry> files(String path) {
+        if (path.isEmpty()) {
+            return entries;
+        }
+        // '0' is the character after '/'
+        return entries.subMap(path + "/", true, path + "0", false);
+    }
+
+    /**
+     * Computes the digest of a file as used in a manifest.
+     */
+    static String digest(@NonNull File f) throws IOException {
+        try (InputStream is = Files.newInputStream(f.toPath())) {
+            return digest(is);
+        }
+    }
+
+    /**
+     * Computes the digest of the rest of a stream, without closing it.
+     */
+    static String digest(@NonNull InputStream is) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException x) {
+            throw new AssertionError(x);
+        }
+        byte[] buf = new byte[64 * 1024];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            digest.update(buf, 0, n);
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * Whether a string is in the form of a digest: 64 lowercase hex digits.
+     * Digests reported by agents must be checked before they are used in a key.
+     */
+    static boolean isDigest(@CheckForNull String digest) {
+        return digest != null && DIGEST.matcher(digest).matches();
+    }
+
+    private static final Pattern DIGEST = Pattern.compile("[0-9a-f]{64}");
+
+    /** Recently loaded manifests, by container and manifest key. */
+    private static final Map<String, ArtifactManifest> cache = new LinkedHashMap<String, ArtifactManifest>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ArtifactManifest> eldest) {
+            return size() > 32;
+        }
+    };
+
+    /**
+     * Loads the manifest of an artifacts directory, or reuses one loaded recently.
+     * Files stored directly in the directory are included too, with no {@link Entry#digest}:
+     * a build may also have archived without content addressing, or copied artifacts from a build which did,
+     * and where the same path is in both, the file stored more recently wins.
+     * @param dir the artifacts directory; the manifest is expected alongside
+     * @return the manifest, or an empty one if neither it nor any files exist
+     */
+    @NonNull
+    static ArtifactManifest load(@NonNull BlobStore blobStore, @NonNull String container, @NonNull String dir) throws IOException {
+        String key = dir + SUFFIX;
+        synchronized (cache) {
+            ArtifactManifest manifest = cache.get(container + "/" + key);
+            if (manifest != null) {
+                return manifest;
+            }
+        }
+        ArtifactManifest manifest = read(blobStore, container, key);
+        try {
+            for (StorageMetadata sm : BlobStores.listAll(blobStore, container, ListContainerOptions.Builder.prefix(dir + "/").recursive())) {
+                if (sm.getType() != StorageType.BLOB) {
+                    continue;
+                }
+                String path = sm.getName().substring(dir.length() + 1);
+                Date lastModified = sm.getLastModified();
+                Entry direct = new Entry(null, sm.getSize() != null ? sm.getSize() : 0, lastModified != null ? lastModified.getTime() : 0);
+                Entry entry = manifest.get(path);
+                if (entry == null || entry.lastModified < direct.lastModified) {
+                    manifest.put(path, direct);
+                }
+            }
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+        synchronized (cache) {
+            cache.put(container + "/" + key, manifest);
+        }
+        return manifest;
+    }
+
+    /**
+     * Loads a manifest afresh.
+     * @return the manifest, or an empty one if it does not exist
+     */
+    @NonNull
+    static ArtifactManifest read(@NonNull BlobStore blobStore, @NonNull String container, @NonNull String key) throws IOException {
+        ArtifactManifest manifest = new ArtifactManifest();
+        Blob blob;
+        try {
+            blob = blobStore.getBlob(container, key);
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+        if (blob == null) {
+            return manifest;
+        }
+        try (InputStream is = blob.getPayload().openStream();
+             BufferedReader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                // digest, length, lastModified, path
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4) {
+                    throw new IOException("Malformed line in " + key + ": " + line);
+                }
+                try {
+                    manifest.put(fields[3], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                } catch (NumberFormatException x) {
+                    throw new IOException("Malformed line in " + key + ": " + line, x);
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Stores this manifest, replacing any previous version.
+     */
+    void write(@NonNull BlobStore blobStore, @NonNull String container, @NonNull String key) throws IOException {
+        StringBuilder b = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            String path = entry.getKey();
+            if (path.indexOf('\n') != -1 || path.indexOf('\r') != -1) {
+                throw new IOException("Unsupported file name: " + path);
+            }
+            Entry e = entry.getValue();
+            if (e.digest == null) {
+                // listed from the artifacts directory, not to be recorded
+                continue;
+            }
+            b.append(e.digest).append('\t').append(e.length).append('\t').append(e.lastModified).append('\t').append(path).append('\n');
+        }
+        Blob blob = blobStore.blobBuilder(key).payload(b.toString().getBytes(StandardCharsets.UTF_8)).contentType("text/plain; charset=UTF-8").build();
+        try {
+            blobStore.putBlob(container, blob);
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+        forget(container, key);
+    }
+
+    /**
+     * Discards any cached copy of a manifest, for example because it was deleted.
+     */
+    static void forget(@NonNull String container, @NonNull String key) {
+        synchronized (cache) {
+            cache.remove(container + "/" + key);
+        }
+    }
+
+}
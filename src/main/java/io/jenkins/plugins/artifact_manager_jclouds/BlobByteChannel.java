@@ -0,0 +1,166 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import jenkins.util.SystemProperties;
+
+/**
+ * Read-only view of a blob which fetches only the bytes read, with ranged {@code GET}s.
+ * Sequential reads continue on the same response; seeking backwards, or far forwards, starts a new request.
+ * Each request asks for at least {@link #WINDOW} bytes, so that many small reads do not each cost a round trip.
+ */
+final class BlobByteChannel implements SeekableByteChannel {
+
+    /** Minimum number of bytes to request at once. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int WINDOW = SystemProperties.getInteger(BlobByteChannel.class.getName() + ".window", 1024 * 1024);
+
+    /** Seeking forwards by at most this much skips over bytes of the current response rather than making a new request. */
+    private static final long MAX_SKIP = 64 * 1024;
+
+    /** Opens part of the blob. */
+    @FunctionalInterface
+    interface Ranges {
+        /**
+         * @param offset the first byte
+         * @param length the number of bytes, at least one
+         */
+        @NonNull
+        InputStream open(long offset, long length) throws IOException;
+    }
+
+    private final Ranges ranges;
+    private final long size;
+    private long position;
+    /** Current response, if any, which is at {@link #inPosition} and ends at {@link #inEnd}. */
+    @CheckForNull
+    private InputStream in;
+    private long inPosition;
+    private long inEnd;
+    private boolean open = true;
+
+    BlobByteChannel(@NonNull Ranges ranges, long size) {
+        this.ranges = ranges;
+        this.size = size;
+    }
+
+    /**
+     * Starts with a response already covering the whole blob.
+     */
+    BlobByteChannel(@NonNull Ranges ranges, long size, @NonNull InputStream whole) {
+        this(ranges, size);
+        in = whole;
+        inEnd = size;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (in != null && position > inPosition && position < inEnd && position - inPosition <= MAX_SKIP) {
+            in.skipNBytes(position - inPosition);
+            inPosition = position;
+        }
+        if (in == null || inPosition != position || inPosition >= inEnd) {
+            closeResponse();
+            long length = Math.min(size - position, Math.max(WINDOW, dst.remaining()));
+            in = ranges.open(position, length);
+            inPosition = position;
+            inEnd = position + length;
+        }
+        int max = (int) Math.min(dst.remaining(), inEnd - inPosition);
+        int n;
+        if (dst.hasArray()) {
+            n = in.read(dst.array(), dst.arrayOffset() + dst.position(), max);
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+        } else {
+            byte[] buf = new byte[Math.min(max, 8192)];
+            n = in.read(buf);
+            if (n > 0) {
+                dst.put(buf, 0, n);
+            }
+        }
+        if (n < 0) {
+            throw new EOFException("Expected " + (inEnd - inPosition) + " more bytes at offset " + inPosition);
+        }
+        position += n;
+        inPosition += n;
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (open) {
+            open = false;
+            closeResponse();
+        }
+    }
+
+    private void closeResponse() throws IOException {
+        if (in != null) {
+            InputStream _in = in;
+            in = null;
+            _in.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
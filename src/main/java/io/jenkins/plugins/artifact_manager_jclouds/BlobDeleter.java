@@ -0,0 +1,143 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStores;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.ListContainerOptions;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+/**
+ * Deletes all blobs under a prefix.
+ * Keys are taken from the listing page by page and deleted in batches as they come,
+ * with a bounded number of batches in flight, so memory use does not grow with the number of blobs.
+ * Blobs which cannot be deleted do not stop the others from being deleted; they are reported at the end.
+ */
+final class BlobDeleter {
+
+    private static final Logger LOGGER = Logger.getLogger(BlobDeleter.class.getName());
+
+    /** Keys per request, the maximum for S3 {@code DeleteObjects}. */
+    static final int BATCH_SIZE = 1000;
+
+    /** How many batches to delete at once. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int CONCURRENCY = SystemProperties.getInteger(BlobDeleter.class.getName() + ".concurrency", 4);
+
+    /** How many failures to mention in the error. */
+    private static final int MAX_REPORTED = 10;
+
+    private final BlobStoreProvider provider;
+    private final BlobStore blobStore;
+
+    BlobDeleter(@NonNull BlobStoreProvider provider, @NonNull BlobStore blobStore) {
+        this.provider = provider;
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * Deletes everything under a prefix.
+     * @return the number of blobs deleted
+     * @throws IOException if some blobs could not be deleted, after trying all the others
+     */
+    int deleteAll(@NonNull String prefix) throws IOException, InterruptedException {
+        int concurrency = Math.max(1, CONCURRENCY);
+        Semaphore permits = new Semaphore(concurrency);
+        List<Future<?>> batches = new ArrayList<>();
+        AtomicInteger deleted = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        Map<String, String> failures = new TreeMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, new NamingThreadFactory(new DaemonThreadFactory(), BlobDeleter.class.getSimpleName()));
+        try {
+            List<String> batch = new ArrayList<>();
+            for (StorageMetadata sm : BlobStores.listAll(blobStore, provider.getContainer(), ListContainerOptions.Builder.prefix(prefix).recursive())) {
+                String path = sm.getName();
+                if (!path.startsWith(prefix)) {
+                    LOGGER.warning(() -> path + " does not start with " + prefix);
+                    continue;
+                }
+                batch.add(path);
+                if (batch.size() == BATCH_SIZE) {
+                    submit(executor, permits, batches, batch, deleted, failed, failures);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(executor, permits, batches, batch, deleted, failed, failures);
+            }
+            for (Future<?> f : batches) {
+                try {
+                    f.get();
+                } catch (ExecutionException x) {
+                    throw new IOException(x.getCause());
+                }
+            }
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failed.get() > 0) {
+            StringBuilder b = new StringBuilder("Failed to delete ").append(failed.get()).append(" of ").append(failed.get() + deleted.get()).append(" blob(s) under ").append(prefix);
+            synchronized (failures) {
+                failures.forEach((path, reason) -> b.append("\n  ").append(path).append(": ").append(reason));
+            }
+            if (failed.get() > MAX_REPORTED) {
+                b.append("\n  …");
+            }
+            throw new IOException(b.toString());
+        }
+        LOGGER.log(Level.FINE, "deleted {0} blobs under {1}", new Object[] {deleted.get(), prefix});
+        return deleted.get();
+    }
+
+    private void submit(ExecutorService executor, Semaphore permits, List<Future<?>> batches, List<String> batch, AtomicInteger deleted, AtomicInteger failed, Map<String, String> failures) throws InterruptedException {
+        // wait rather than list further ahead
+        permits.acquire();
+        batches.add(executor.submit(() -> {
+            try {
+                Map<String, String> batchFailures;
+                try {
+                    batchFailures = provider.deleteBlobs(blobStore, batch);
+                } catch (IOException | RuntimeException x) {
+                    LOGGER.log(Level.FINE, "failed to delete a batch of " + batch.size(), x);
+                    batchFailures = new TreeMap<>();
+                    for (String path : batch) {
+                        batchFailures.put(path, String.valueOf(x.getMessage()));
+                    }
+                }
+                deleted.addAndGet(batch.size() - batchFailures.size());
+                failed.addAndGet(batchFailures.size());
+                synchronized (failures) {
+                    for (Map.Entry<String, String> entry : batchFailures.entrySet()) {
+                        if (failures.size() < MAX_REPORTED) {
+                            failures.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+            } finally {
+                permits.release();
+            }
+            return null;
+        }));
+    }
+
+}
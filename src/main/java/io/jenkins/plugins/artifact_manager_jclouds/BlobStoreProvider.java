@@ -28,15 +28,21 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URL;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
 
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.options.CopyOptions;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.Beta;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.ExtensionPoint;
 import hudson.model.AbstractDescribableImpl;
@@ -68,7 +74,11 @@ public abstract class BlobStoreProvider extends AbstractDescribableImpl<BlobStor
     /** A constant to define whether we should delete stashes or leave them to be managed on the blob service side. */
     public abstract boolean isDeleteStashes();
 
-    /** Creates the jclouds handle for working with blob. */
+    /**
+     * Creates the jclouds handle for working with blob.
+     * Callers close the handle when they are done with it,
+     * so an implementation sharing one context among callers should return a view whose {@link BlobStoreContext#close} merely releases it.
+     */
     @NonNull
     public abstract BlobStoreContext getContext() throws IOException;
 
@@ -97,6 +107,172 @@ public abstract class BlobStoreProvider extends AbstractDescribableImpl<BlobStor
     @NonNull
     public abstract URL toExternalURL(@NonNull Blob blob, @NonNull HttpMethod httpMethod) throws IOException;
 
+    /**
+     * Whether {@link #initiateMultipartUpload} may be used.
+     */
+    public boolean isMultipartUploadSupported() {
+        return false;
+    }
+
+    /**
+     * Starts a multipart upload, presigning URLs for each part.
+     * Only called if {@link #isMultipartUploadSupported}.
+     * The caller must eventually call either {@link #completeMultipartUpload} or {@link #abortMultipartUpload}.
+     *
+     * @param blob
+     *            blob to upload, as for {@link #toExternalURL} with {@link HttpMethod#PUT}
+     * @param size
+     *            total size of the blob, or -1 if not yet known, in which case no URLs are presigned
+     *            and {@link #presignMultipartUploadPart} must be used instead
+     * @param partSize
+     *            size of each part but the last
+     * @return the upload
+     * @throws IOException
+     */
+    @NonNull
+    public MultipartUpload initiateMultipartUpload(@NonNull Blob blob, long size, long partSize) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Presigns a URL for one part of a multipart upload, for use when the number of parts is not known in advance.
+     *
+     * @param upload
+     *            the upload
+     * @param partNumber
+     *            the part, starting from 1
+     * @return a URL to {@code PUT} the part to
+     * @throws IOException
+     */
+    @NonNull
+    public URL presignMultipartUploadPart(@NonNull MultipartUpload upload, int partNumber) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Finishes a multipart upload once all parts have been uploaded.
+     *
+     * @param upload
+     *            the upload
+     * @param etags
+     *            entity tags returned for each part in order
+     * @throws IOException
+     */
+    public void completeMultipartUpload(@NonNull MultipartUpload upload, @NonNull List<String> etags) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Abandons a multipart upload, discarding any parts uploaded so far.
+     *
+     * @param upload
+     *            the upload
+     * @throws IOException
+     */
+    public void abortMultipartUpload(@NonNull MultipartUpload upload) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Deletes a batch of blobs, as far as possible.
+     *
+     * @param blobStore
+     *            the blob store to use
+     * @param paths
+     *            keys in {@link #getContainer}, at most 1000
+     * @return keys which could not be deleted, with the reason
+     * @throws IOException
+     *            if the batch could not be processed at all
+     */
+    @NonNull
+    public Map<String, String> deleteBlobs(@NonNull BlobStore blobStore, @NonNull List<String> paths) throws IOException {
+        try {
+            blobStore.removeBlobs(getContainer(), paths);
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Copies a blob within {@link #getContainer} on the server side, keeping its metadata.
+     *
+     * @param blobStore
+     *            the blob store to use
+     * @param from
+     *            key of the source
+     * @param to
+     *            key of the copy
+     * @param size
+     *            size of the source as listed, or -1 if unknown; implementations may copy large blobs in parts
+     * @throws IOException
+     *            if the blob could not be copied
+     */
+    public void copyBlob(@NonNull BlobStore blobStore, @NonNull String from, @NonNull String to, long size) throws IOException, InterruptedException {
+        try {
+            blobStore.copyBlob(getContainer(), from, getContainer(), to, CopyOptions.NONE);
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+    }
+
+    /**
+     * Whether uploads may be bound to a SHA-256 digest which the store checks,
+     * using {@link #toExternalURL(Blob, HttpMethod, String)}, and which {@link #getSha256} reports afterwards.
+     */
+    public boolean isChecksumSupported() {
+        return false;
+    }
+
+    /**
+     * Generate a URL valid for uploading the blob for a limited period of time,
+     * which the store is to reject unless the contents have the given digest.
+     * The uploader must send {@link #CHECKSUM_HEADER} with {@link #checksumHeaderValue}.
+     * Only called if {@link #isChecksumSupported}.
+     *
+     * @param blob
+     *            blob to generate the URL for
+     * @param httpMethod
+     *            {@link HttpMethod#PUT}
+     * @param sha256
+     *            SHA-256 digest of the contents, in hex
+     * @return the URL
+     * @throws IOException
+     */
+    @NonNull
+    public URL toExternalURL(@NonNull Blob blob, @NonNull HttpMethod httpMethod, @NonNull String sha256) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Looks up the SHA-256 digest the store checked when a blob was uploaded to a URL from {@link #toExternalURL(Blob, HttpMethod, String)},
+     * without downloading it.
+     * Only called if {@link #isChecksumSupported}.
+     *
+     * @param blobStore
+     *            the blob store to use
+     * @param path
+     *            key in {@link #getContainer}
+     * @return the digest, in hex, or null if there is no such blob or it was stored without that checksum
+     * @throws IOException
+     */
+    @CheckForNull
+    public String getSha256(@NonNull BlobStore blobStore, @NonNull String path) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Request header carrying the digest of an upload to a URL from {@link #toExternalURL(Blob, HttpMethod, String)}, as in S3. */
+    public static final String CHECKSUM_HEADER = "x-amz-checksum-sha256";
+
+    /**
+     * Value of {@link #CHECKSUM_HEADER}: the digest in Base64.
+     * @param sha256 a SHA-256 digest in hex
+     */
+    @NonNull
+    public static String checksumHeaderValue(@NonNull String sha256) {
+        return Base64.getEncoder().encodeToString(HexFormat.of().parseHex(sha256));
+    }
+
     @Override
     public BlobStoreProviderDescriptor getDescriptor() {
         return (BlobStoreProviderDescriptor) super.getDescriptor();
@@ -117,6 +293,23 @@ public abstract class BlobStoreProvider extends AbstractDescribableImpl<BlobStor
     }
 
 
+    /**
+     * Like {@link #artifactUrls(Map, Map, BlobStore, String)}, but binding each upload to the digest of the file,
+     * as in {@link #toExternalURL(Blob, HttpMethod, String)}.
+     * Only called if {@link #isChecksumSupported}.
+     * @param digests SHA-256 digests in hex, by relative path as in {@code contentTypes}
+     */
+    public Map<String, URL> artifactUrls(Map<String, String> artifacts, Map<String, String> contentTypes, Map<String, String> digests, BlobStore blobStore, String key) throws IOException {
+        Map<String, URL> artifactUrls = new HashMap<>();
+        for (Map.Entry<String, String> entry : artifacts.entrySet()) {
+            Blob blob = blobStore.blobBuilder(getBlobPath(key, "artifacts/" + entry.getKey())).build();
+            blob.getMetadata().setContainer(this.getContainer());
+            blob.getMetadata().getContentMetadata().setContentType(contentTypes.get(entry.getValue()));
+            artifactUrls.put(entry.getValue(), this.toExternalURL(blob, HttpMethod.PUT, digests.get(entry.getValue())));
+        }
+        return artifactUrls;
+    }
+
     protected String getBlobPath(String key, String path) {
         return String.format("%s%s/%s", this.getPrefix(), key, path);
     }
@@ -0,0 +1,279 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import io.jenkins.plugins.artifact_manager_jclouds.JCloudsVirtualFile.CachedMetadata;
+
+/**
+ * Metadata of all files under a directory, collected during {@link JCloudsVirtualFile#run}.
+ * Paths are kept sorted, so that those under any subdirectory form a contiguous range:
+ * directory checks take a single binary search, and listing a directory skips over the contents of its subdirectories.
+ * <p>To keep large trees small on the heap, paths are stored as UTF-8, front-coded:
+ * each path records only how many leading bytes it shares with the previous one, and the rest.
+ * Every {@link #BLOCK}th path is stored in full, as a starting point for searches.
+ * Lengths and modification times are kept in plain arrays.
+ */
+final class CacheFrame {
+
+    /** Number of paths per block of front coding. */
+    private static final int BLOCK = 16;
+
+    /** {@link JCloudsVirtualFile#key} of the root virtual file plus a trailing {@code /} */
+    final String root;
+    private final int count;
+    /** For each path: shared prefix length, suffix length (both as varints), suffix. */
+    private final byte[] paths;
+    /** Offsets in {@link #paths} of the first path of each block. */
+    private final int[] blocks;
+    private final long[] lengths;
+    private final long[] lastModified;
+    /** Length of the longest path. */
+    private final int maxPath;
+
+    /**
+     * Collects information about all known (recursive) child <em>files</em> (not directories).
+     * If the root itself happened to be a file, that information is not cached.
+     */
+    static final class Builder {
+        private final String root;
+        private final List<byte[]> paths = new ArrayList<>();
+        private long[] lengths = new long[16];
+        private long[] lastModified = new long[16];
+
+        Builder(@NonNull String root) {
+            this.root = root;
+        }
+
+        /**
+         * @param rel a {@code /}-separated path relative to the root
+         */
+        Builder add(@NonNull String rel, long length, long lastModified) {
+            int i = paths.size();
+            if (i == lengths.length) {
+                lengths = Arrays.copyOf(lengths, i * 2);
+                this.lastModified = Arrays.copyOf(this.lastModified, i * 2);
+            }
+            paths.add(rel.getBytes(StandardCharsets.UTF_8));
+            lengths[i] = length;
+            this.lastModified[i] = lastModified;
+            return this;
+        }
+
+        CacheFrame build() {
+            int count = paths.size();
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(paths::get, Arrays::compareUnsigned));
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int[] blocks = new int[(count + BLOCK - 1) / BLOCK];
+            long[] sortedLengths = new long[count];
+            long[] sortedLastModified = new long[count];
+            int maxPath = 0;
+            byte[] previous = null;
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                byte[] path = paths.get(order[i]);
+                if (previous != null && Arrays.equals(previous, path)) {
+                    // listed twice; the last one wins
+                    sortedLengths[n - 1] = lengths[order[i]];
+                    sortedLastModified[n - 1] = lastModified[order[i]];
+                    continue;
+                }
+                int shared = 0;
+                if (n % BLOCK == 0) {
+                    blocks[n / BLOCK] = data.size();
+                } else {
+                    int max = Math.min(previous.length, path.length);
+                    while (shared < max && previous[shared] == path[shared]) {
+                        shared++;
+                    }
+                }
+                writeVInt(data, shared);
+                writeVInt(data, path.length - shared);
+                data.write(path, shared, path.length - shared);
+                sortedLengths[n] = lengths[order[i]];
+                sortedLastModified[n] = lastModified[order[i]];
+                maxPath = Math.max(maxPath, path.length);
+                previous = path;
+                n++;
+            }
+            return new CacheFrame(root, n, data.toByteArray(), Arrays.copyOf(blocks, (n + BLOCK - 1) / BLOCK),
+                Arrays.copyOf(sortedLengths, n), Arrays.copyOf(sortedLastModified, n), maxPath);
+        }
+    }
+
+    private CacheFrame(String root, int count, byte[] paths, int[] blocks, long[] lengths, long[] lastModified, int maxPath) {
+        this.root = root;
+        this.count = count;
+        this.paths = paths;
+        this.blocks = blocks;
+        this.lengths = lengths;
+        this.lastModified = lastModified;
+        this.maxPath = maxPath;
+    }
+
+    private static void writeVInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Decodes paths one after another, starting from the beginning of a block. */
+    private final class Cursor {
+        final byte[] path = new byte[maxPath];
+        int length;
+        int index;
+        private int offset;
+
+        Cursor(int block) {
+            index = block * BLOCK - 1;
+            offset = blocks[block];
+        }
+
+        /** Moves to the next path in the block. */
+        void next() {
+            int shared = readVInt();
+            int suffix = readVInt();
+            System.arraycopy(paths, offset, path, shared, suffix);
+            offset += suffix;
+            length = shared + suffix;
+            index++;
+        }
+
+        boolean hasNextInBlock() {
+            return index + 1 < count && (index + 1) % BLOCK != 0;
+        }
+
+        private int readVInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = paths[offset++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        int compareTo(byte[] key) {
+            return Arrays.compareUnsigned(path, 0, length, key, 0, key.length);
+        }
+
+        boolean startsWith(byte[] prefix) {
+            return length >= prefix.length && Arrays.equals(path, 0, prefix.length, prefix, 0, prefix.length);
+        }
+    }
+
+    /**
+     * Finds the first path not less than a key.
+     * @return a cursor on that path, or null if there is none
+     */
+    @CheckForNull
+    private Cursor seek(byte[] key) {
+        if (count == 0) {
+            return null;
+        }
+        // last block whose first path is not greater than the key
+        int lo = 0;
+        int hi = blocks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            Cursor first = new Cursor(mid);
+            first.next();
+            if (first.compareTo(key) <= 0) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        Cursor cursor = new Cursor(lo);
+        cursor.next();
+        while (cursor.compareTo(key) < 0) {
+            if (cursor.hasNextInBlock()) {
+                cursor.next();
+            } else if (lo + 1 < blocks.length) {
+                // every path in this block was less; the next block starts with the answer
+                cursor = new Cursor(lo + 1);
+                cursor.next();
+                return cursor;
+            } else {
+                return null;
+            }
+        }
+        return cursor;
+    }
+
+    @CheckForNull
+    CachedMetadata get(String rel) {
+        byte[] key = rel.getBytes(StandardCharsets.UTF_8);
+        Cursor cursor = seek(key);
+        if (cursor == null || cursor.compareTo(key) != 0) {
+            return null;
+        }
+        return new CachedMetadata(lengths[cursor.index], lastModified[cursor.index]);
+    }
+
+    /**
+     * Whether there are any files in a directory.
+     * @param relSlash {@code ""} or {@code sub/dir/}
+     */
+    boolean hasDescendants(String relSlash) {
+        byte[] prefix = relSlash.getBytes(StandardCharsets.UTF_8);
+        Cursor cursor = seek(prefix);
+        return cursor != null && cursor.startsWith(prefix);
+    }
+
+    /**
+     * Simple names of the files and subdirectories directly in a directory.
+     * @param relSlash {@code ""} or {@code sub/dir/}
+     */
+    List<String> childNames(String relSlash) {
+        byte[] prefix = relSlash.getBytes(StandardCharsets.UTF_8);
+        // a name can be both a file and a directory
+        Set<String> names = new LinkedHashSet<>();
+        Cursor cursor = seek(prefix);
+        while (cursor != null && cursor.startsWith(prefix)) {
+            int slash = prefix.length;
+            while (slash < cursor.length && cursor.path[slash] != '/') {
+                slash++;
+            }
+            names.add(new String(cursor.path, prefix.length, slash - prefix.length, StandardCharsets.UTF_8));
+            if (slash == cursor.length) {
+                if (cursor.hasNextInBlock()) {
+                    cursor.next();
+                } else if (cursor.index + 1 < count) {
+                    cursor = new Cursor((cursor.index + 1) / BLOCK);
+                    cursor.next();
+                } else {
+                    cursor = null;
+                }
+            } else {
+                // '0' follows '/', so this is just past everything in the subdirectory
+                byte[] next = Arrays.copyOf(cursor.path, slash + 1);
+                next[slash] = '0';
+                cursor = seek(next);
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /** Number of files. */
+    int size() {
+        return count;
+    }
+
+}
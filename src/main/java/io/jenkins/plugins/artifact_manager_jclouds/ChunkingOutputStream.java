@@ -0,0 +1,110 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Splits what is written into chunks at boundaries chosen by content, using a gear hash as in FastCDC.
+ * An insertion or deletion in the stream thus only changes the chunks around it,
+ * and the rest can be recognized as already stored.
+ */
+final class ChunkingOutputStream extends OutputStream {
+
+    /** Receives each chunk in turn. */
+    @FunctionalInterface
+    interface Sink {
+        /**
+         * @param data the chunk, which the sink may keep
+         * @param length number of valid bytes in {@code data}
+         */
+        void chunk(byte[] data, int length) throws IOException;
+    }
+
+    static final int MIN_SIZE = 256 * 1024;
+    /** Average chunk size is about {@link #MIN_SIZE} plus 2 to the power of this. */
+    static final int MASK_BITS = 20;
+    static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    /** Must never change, or previously stored chunks would no longer be recognized. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random r = new Random(0x5ca1ab1eL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = r.nextLong();
+        }
+    }
+
+    private final Sink sink;
+    private final int minSize;
+    private final long mask;
+    private final int maxSize;
+    private byte[] buf;
+    private int count;
+    private long hash;
+    private boolean closed;
+
+    ChunkingOutputStream(Sink sink) {
+        this(sink, MIN_SIZE, MASK_BITS, MAX_SIZE);
+    }
+
+    ChunkingOutputStream(Sink sink, int minSize, int maskBits, int maxSize) {
+        this.sink = sink;
+        this.minSize = minSize;
+        // the high bits of the hash depend on the most bytes
+        mask = -1L << (64 - maskBits);
+        this.maxSize = maxSize;
+        buf = new byte[maxSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        int end = off + len;
+        while (off < end) {
+            // Skip hashing up to the minimum size; boundaries cannot fall there anyway.
+            if (count < minSize) {
+                int n = Math.min(end - off, minSize - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                continue;
+            }
+            byte x = b[off++];
+            buf[count++] = x;
+            hash = (hash << 1) + GEAR[x & 0xff];
+            if ((hash & mask) == 0 || count == maxSize) {
+                emit();
+            }
+        }
+    }
+
+    private void emit() throws IOException {
+        byte[] data = buf;
+        int length = count;
+        buf = new byte[maxSize];
+        count = 0;
+        hash = 0;
+        sink.chunk(data, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (count > 0) {
+                emit();
+            }
+            buf = null;
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.BlobStores;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.ArtifactManagerConfiguration;
+import jenkins.model.ArtifactManagerFactory;
+import jenkins.util.SystemProperties;
+
+/**
+ * Deletes files from the area shared by builds archived with {@link JCloudsArtifactManager#CONTENT_ADDRESSABLE},
+ * and chunks shared by stashes made with {@link JCloudsArtifactManager#STASH_CHUNKING}, once nothing refers to them any more.
+ * Periodically reads every manifest and stash index under the prefix to mark the files still referred to,
+ * then lists the shared area and deletes the rest, provided they were stored more than {@link #GRACE_MILLIS} ago.
+ * <p>Archiving and stashing only reuse a shared file stored less than half that long ago, uploading it again otherwise,
+ * so a file is not deleted while a build which is about to refer to it is still archiving.
+ */
+@Restricted(NoExternalUse.class)
+@Extension
+public final class ContentCollector extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(ContentCollector.class.getName());
+
+    /** How often to look for unreferenced files; 0 to never delete them. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static long RECURRENCE_PERIOD_MILLIS = SystemProperties.getLong(ContentCollector.class.getName() + ".recurrencePeriodMillis", TimeUnit.DAYS.toMillis(1));
+
+    /** How long ago an unreferenced file must have been stored to be deleted. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static long GRACE_MILLIS = SystemProperties.getLong(ContentCollector.class.getName() + ".graceMillis", TimeUnit.DAYS.toMillis(14));
+
+    public ContentCollector() {
+        super("Unreferenced artifact cleanup");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        // the period cannot be changed once scheduled
+        return RECURRENCE_PERIOD_MILLIS > 0 ? RECURRENCE_PERIOD_MILLIS : TimeUnit.DAYS.toMillis(1);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (RECURRENCE_PERIOD_MILLIS <= 0) {
+            return;
+        }
+        Set<String> done = new HashSet<>();
+        for (ArtifactManagerFactory factory : ArtifactManagerConfiguration.get().getArtifactManagerFactories()) {
+            if (factory instanceof JCloudsArtifactManagerFactory) {
+                BlobStoreProvider provider = ((JCloudsArtifactManagerFactory) factory).getProvider();
+                if (done.add(provider.getContainer() + "/" + provider.getPrefix())) {
+                    try {
+                        int deleted = collect(provider, System.currentTimeMillis() - GRACE_MILLIS);
+                        listener.getLogger().printf("Deleted %d unreferenced file(s) from %s%n", deleted, provider.toURI(provider.getContainer(), shared(provider)));
+                    } catch (IOException x) {
+                        LOGGER.log(Level.WARNING, "Failed to clean up " + provider.getContainer() + "/" + shared(provider), x);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether an existing shared file may be referred to by a build now archiving, rather than uploaded again.
+     */
+    static boolean reusable(@CheckForNull BlobMetadata metadata) {
+        if (metadata == null) {
+            return false;
+        }
+        Date lastModified = metadata.getLastModified();
+        return lastModified == null || lastModified.getTime() > System.currentTimeMillis() - GRACE_MILLIS / 2;
+    }
+
+    /** The shared area, ending in a slash. */
+    private static String shared(BlobStoreProvider provider) {
+        return provider.getPrefix() + ArtifactManifest.CAS_KEY + "/";
+    }
+
+    /**
+     * Deletes unreferenced files from the shared area.
+     * @param cutoff only files stored before this time are deleted
+     * @return the number of files deleted
+     */
+    static int collect(@NonNull BlobStoreProvider provider, long cutoff) throws IOException {
+        String container = provider.getContainer();
+        String shared = shared(provider);
+        try (BlobStoreContext context = provider.getContext()) {
+            BlobStore blobStore = context.getBlobStore();
+            if (blobStore.list(container, ListContainerOptions.Builder.prefix(shared).recursive().maxResults(1)).isEmpty()) {
+                return 0;
+            }
+            Set<String> live = new HashSet<>();
+            for (StorageMetadata sm : BlobStores.listAll(blobStore, container, ListContainerOptions.Builder.prefix(provider.getPrefix()).recursive())) {
+                String name = sm.getName();
+                if (name.startsWith(shared)) {
+                    continue;
+                }
+                if (name.endsWith("/artifacts" + ArtifactManifest.SUFFIX)) {
+                    for (String casName : ArtifactManifest.read(blobStore, container, name).casNames()) {
+                        live.add(shared + "artifacts/" + casName);
+                    }
+                } else if (name.contains("/stashes/") && name.endsWith(StashIndex.SUFFIX)) {
+                    StashIndex index = StashIndex.read(blobStore, container, name);
+                    if (index != null) {
+                        for (StashIndex.Chunk chunk : index.chunks) {
+                            live.add(shared + StashIndex.chunkName(chunk.digest, index.codec));
+                        }
+                    }
+                }
+            }
+            LOGGER.fine(() -> live.size() + " shared files referred to under " + container + "/" + provider.getPrefix());
+            int deleted = 0;
+            List<String> batch = new ArrayList<>();
+            for (StorageMetadata sm : BlobStores.listAll(blobStore, container, ListContainerOptions.Builder.prefix(shared).recursive())) {
+                if (!live.contains(sm.getName()) && isBefore(sm.getLastModified(), cutoff)) {
+                    batch.add(sm.getName());
+                    if (batch.size() == BlobDeleter.BATCH_SIZE) {
+                        deleted += delete(provider, blobStore, batch, cutoff);
+                        batch.clear();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                deleted += delete(provider, blobStore, batch, cutoff);
+            }
+            return deleted;
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+    }
+
+    private static boolean isBefore(@CheckForNull Date lastModified, long cutoff) {
+        return lastModified != null && lastModified.getTime() < cutoff;
+    }
+
+    /**
+     * Deletes files which are still as old as when they were listed,
+     * since a build may have uploaded one again in the meantime to refer to it.
+     */
+    private static int delete(BlobStoreProvider provider, BlobStore blobStore, List<String> candidates, long cutoff) throws IOException {
+        List<String> paths = new ArrayList<>();
+        for (String path : candidates) {
+            BlobMetadata metadata = blobStore.blobMetadata(provider.getContainer(), path);
+            if (metadata != null && isBefore(metadata.getLastModified(), cutoff)) {
+                paths.add(path);
+            }
+        }
+        if (paths.isEmpty()) {
+            return 0;
+        }
+        Map<String, String> failures = provider.deleteBlobs(blobStore, paths);
+        failures.forEach((path, reason) -> LOGGER.fine(() -> "could not delete " + path + ": " + reason));
+        return paths.size() - failures.size();
+    }
+
+}
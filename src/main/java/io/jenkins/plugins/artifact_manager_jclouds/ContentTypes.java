@@ -0,0 +1,125 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import static io.jenkins.plugins.artifact_manager_jclouds.TikaUtil.detectByTika;
+
+/**
+ * Determines the content type of files to be archived.
+ * Common build outputs are recognized by name alone;
+ * otherwise the platform is consulted, and finally Tika, which needs to read the file.
+ * Results other than those by name are remembered for as long as the file is unmodified,
+ * since the same files tend to be archived over and over by an agent.
+ */
+final class ContentTypes {
+
+    private static final Map<String, String> BY_EXTENSION = new HashMap<>();
+
+    static {
+        register("application/java-archive", "jar", "war", "ear", "hpi", "jpi");
+        register("application/java-vm", "class");
+        register("application/zip", "zip", "aar", "nupkg", "whl");
+        register("application/gzip", "gz", "tgz");
+        register("application/x-tar", "tar");
+        register("application/x-bzip2", "bz2");
+        register("application/x-xz", "xz");
+        register("application/x-7z-compressed", "7z");
+        register("application/vnd.debian.binary-package", "deb");
+        register("application/x-rpm", "rpm");
+        register("application/vnd.android.package-archive", "apk");
+        register("application/x-msdownload", "exe", "dll");
+        register("application/x-sharedlib", "so");
+        register("application/pdf", "pdf");
+        register("application/json", "json");
+        register("application/xml", "xml", "pom");
+        register("application/javascript", "js");
+        register("text/plain", "txt", "log", "properties", "md");
+        register("text/html", "html", "htm");
+        register("text/css", "css");
+        register("text/csv", "csv");
+        register("application/x-yaml", "yaml", "yml");
+        register("application/x-sh", "sh");
+        register("image/png", "png");
+        register("image/jpeg", "jpg", "jpeg");
+        register("image/gif", "gif");
+        register("image/svg+xml", "svg");
+    }
+
+    private static void register(String contentType, String... extensions) {
+        for (String extension : extensions) {
+            BY_EXTENSION.put(extension, contentType);
+        }
+    }
+
+    private static final int MEMO_SIZE = 10_000;
+
+    /** Memoized results by file, size and modification time. */
+    private static final Map<List<Object>, String> memo = new LinkedHashMap<List<Object>, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, String> eldest) {
+            return size() > MEMO_SIZE;
+        }
+    };
+
+    private ContentTypes() {}
+
+    /**
+     * Looks up a content type by file extension only.
+     * @return a content type, or null if the extension is not a well-known one
+     */
+    @CheckForNull
+    static String byName(@NonNull String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot == -1 || dot < name.lastIndexOf('/')) {
+            return null;
+        }
+        return BY_EXTENSION.get(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Determines the content type of a file.
+     * @param sniff whether to fall back to reading the file
+     * @return a content type, or null if it could not be determined without sniffing
+     */
+    @CheckForNull
+    static String detect(@NonNull File f, boolean sniff) throws IOException {
+        String contentType = byName(f.getName());
+        if (contentType != null) {
+            return contentType;
+        }
+        List<Object> key = Arrays.asList(f.getAbsolutePath(), f.length(), f.lastModified());
+        synchronized (memo) {
+            contentType = memo.get(key);
+        }
+        if (contentType != null) {
+            return contentType;
+        }
+        contentType = Files.probeContentType(f.toPath());
+        if (contentType == null) {
+            contentType = URLConnection.guessContentTypeFromName(f.getName());
+        }
+        if (contentType == null) {
+            if (!sniff) {
+                return null;
+            }
+            contentType = detectByTika(f);
+        }
+        synchronized (memo) {
+            memo.put(key, contentType);
+        }
+        return contentType;
+    }
+
+}
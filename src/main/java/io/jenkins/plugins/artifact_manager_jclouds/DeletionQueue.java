@@ -0,0 +1,401 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import hudson.BulkChange;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.ManagementLink;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Deletes the blobs of deleted builds in the background, when {@link JCloudsArtifactManager#ASYNC_DELETION} is enabled.
+ * Pending prefixes are saved on the controller along with how far their listing got,
+ * so that deletion resumes where it left off after a restart.
+ * A few worker threads drain the queue, together deleting no more than {@link #RATE} blobs per second.
+ * <p>Builds of one job discarded together, as by log rotation, are coalesced into a single task
+ * which lists the job prefix once, from the first discarded build to the last, rather than once per build.
+ * Administrators can follow progress under <em>Manage Jenkins</em>.
+ */
+@Restricted(NoExternalUse.class)
+@Extension
+public final class DeletionQueue extends ManagementLink implements Saveable {
+
+    private static final Logger LOGGER = Logger.getLogger(DeletionQueue.class.getName());
+
+    /** How many prefixes to delete at once. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int THREADS = SystemProperties.getInteger(DeletionQueue.class.getName() + ".threads", 2);
+
+    /** Maximum number of blobs to delete per second, across all threads. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int RATE = SystemProperties.getInteger(DeletionQueue.class.getName() + ".rate", 3000);
+
+    /** How long to wait after a build is queued for more builds of the same job before listing. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static long COALESCE_DELAY_MILLIS = SystemProperties.getLong(DeletionQueue.class.getName() + ".coalesceDelayMillis", 2000L);
+
+    /** How long to wait before trying a prefix again after a failure. */
+    private static final long RETRY_DELAY_MINUTES = 5;
+
+    /** How often to save the progress of a task while it runs; it is also saved when it finishes or fails. */
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 10_000;
+
+    /** Some builds under a job prefix to delete. */
+    public static final class Task {
+        final BlobStoreProvider provider;
+        final String prefix;
+        /** Prefixes of builds under {@link #prefix} to delete. */
+        final TreeSet<String> builds = new TreeSet<>();
+        /** Last key listed and deleted so far, if any. */
+        @CheckForNull
+        String marker;
+        int deleted;
+        int failed;
+        transient boolean active;
+        transient long retryAfter;
+
+        Task(BlobStoreProvider provider, String prefix) {
+            this.provider = provider;
+            this.prefix = prefix;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        /** Number of builds to delete. */
+        public int getBuildCount() {
+            return builds.size();
+        }
+
+        /** Whether a key is to be deleted. */
+        boolean matches(String key) {
+            if (!key.startsWith(prefix)) {
+                return false;
+            }
+            String build = builds.floor(key);
+            return build != null && key.startsWith(build);
+        }
+
+        /** Whether no key after this one can match. */
+        boolean isPast(String key) {
+            return key.compareTo(builds.last()) > 0 && !key.startsWith(builds.last());
+        }
+
+        /** Where to start listing. */
+        String start() {
+            // just before the first build prefix, which ends in a slash
+            String first = builds.first();
+            return first.substring(0, first.length() - 1);
+        }
+
+        public String getMarker() {
+            return marker;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+    }
+
+    private final List<Task> tasks = new ArrayList<>();
+    private transient int workers;
+    private transient long deletedTotal;
+    private transient long failedTotal;
+    /** Times and counts of recent deletions, to compute throughput. */
+    private transient Deque<long[]> recent = new ArrayDeque<>();
+    private transient long nextPermit;
+    private transient ExecutorService executor;
+
+    static DeletionQueue get() {
+        return ExtensionList.lookupSingleton(DeletionQueue.class);
+    }
+
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void resume() throws IOException {
+        DeletionQueue queue = get();
+        queue.load();
+        queue.kick();
+    }
+
+    /**
+     * Schedules a build for deletion, along with other builds of the same job not yet being deleted.
+     * @param jobPrefix the prefix of all builds of the job, ending in a slash
+     * @param buildPrefix the prefix of the build, under {@code jobPrefix} and ending in a slash
+     */
+    void enqueue(@NonNull BlobStoreProvider provider, @NonNull String jobPrefix, @NonNull String buildPrefix) throws IOException {
+        if (!buildPrefix.startsWith(jobPrefix) || !buildPrefix.endsWith("/")) {
+            throw new IllegalArgumentException(buildPrefix + " is not under " + jobPrefix);
+        }
+        synchronized (this) {
+            Task task = null;
+            for (Task t : tasks) {
+                // once listing has begun, keys before the marker would be missed
+                if (!t.active && t.marker == null && t.prefix.equals(jobPrefix) && t.provider.getContainer().equals(provider.getContainer())) {
+                    task = t;
+                    break;
+                }
+            }
+            if (task == null) {
+                task = new Task(provider, jobPrefix);
+                tasks.add(task);
+            }
+            task.builds.add(buildPrefix);
+            task.retryAfter = System.currentTimeMillis() + COALESCE_DELAY_MILLIS;
+        }
+        save();
+        if (COALESCE_DELAY_MILLIS > 0) {
+            Timer.get().schedule(this::kick, COALESCE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            kick();
+        }
+    }
+
+    /** Starts workers as needed. */
+    private synchronized void kick() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), DeletionQueue.class.getSimpleName()));
+        }
+        long now = System.currentTimeMillis();
+        long ready = tasks.stream().filter(t -> !t.active && t.retryAfter <= now).count();
+        while (workers < Math.max(1, THREADS) && ready-- > 0) {
+            workers++;
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Task task;
+            while ((task = claim()) != null) {
+                try {
+                    process(task);
+                    synchronized (this) {
+                        tasks.remove(task);
+                    }
+                    LOGGER.log(task.failed > 0 ? Level.WARNING : Level.FINE, "Deleted {0} blobs under {1}; {2} could not be deleted", new Object[] {task.deleted, task.prefix, task.failed});
+                } catch (IOException | RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "Failed to delete blobs under " + task.prefix + "; will retry", x);
+                    synchronized (this) {
+                        task.retryAfter = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(RETRY_DELAY_MINUTES);
+                    }
+                    Timer.get().schedule(this::kick, RETRY_DELAY_MINUTES, TimeUnit.MINUTES);
+                } catch (InterruptedException x) {
+                    LOGGER.log(Level.FINE, "interrupted", x);
+                    return;
+                } finally {
+                    synchronized (this) {
+                        task.active = false;
+                    }
+                    try {
+                        save();
+                    } catch (IOException x) {
+                        LOGGER.log(Level.WARNING, null, x);
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                workers--;
+            }
+        }
+    }
+
+    @CheckForNull
+    private synchronized Task claim() {
+        long now = System.currentTimeMillis();
+        for (Task task : tasks) {
+            if (!task.active && task.retryAfter <= now) {
+                task.active = true;
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists and deletes one page at a time, recording progress after each
+     * and saving it every {@link #CHECKPOINT_INTERVAL_MILLIS}, so that a restart repeats little work.
+     */
+    private void process(Task task) throws IOException, InterruptedException {
+        try (BlobStoreContext context = task.provider.getContext()) {
+            BlobStore blobStore = context.getBlobStore();
+            String marker;
+            synchronized (this) {
+                marker = task.marker != null ? task.marker : task.start();
+            }
+            boolean past = false;
+            long lastCheckpoint = System.currentTimeMillis();
+            do {
+                ListContainerOptions options = ListContainerOptions.Builder.prefix(task.prefix).recursive().maxResults(BlobDeleter.BATCH_SIZE);
+                if (marker != null) {
+                    options.afterMarker(marker);
+                }
+                PageSet<? extends StorageMetadata> page = blobStore.list(task.provider.getContainer(), options);
+                List<String> paths = new ArrayList<>();
+                for (StorageMetadata sm : page) {
+                    if (task.isPast(sm.getName())) {
+                        past = true;
+                        break;
+                    }
+                    if (task.matches(sm.getName())) {
+                        paths.add(sm.getName());
+                    }
+                }
+                int failed = 0;
+                if (!paths.isEmpty()) {
+                    throttle(paths.size());
+                    Map<String, String> failures = task.provider.deleteBlobs(blobStore, paths);
+                    failures.forEach((path, reason) -> LOGGER.fine(() -> "could not delete " + path + ": " + reason));
+                    failed = failures.size();
+                }
+                marker = past ? null : page.getNextMarker();
+                synchronized (this) {
+                    task.marker = marker;
+                    task.deleted += paths.size() - failed;
+                    task.failed += failed;
+                    deletedTotal += paths.size() - failed;
+                    failedTotal += failed;
+                    recent.add(new long[] {System.currentTimeMillis(), paths.size() - failed});
+                }
+                if (marker != null && System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+                    save();
+                    lastCheckpoint = System.currentTimeMillis();
+                }
+            } while (marker != null);
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+    }
+
+    /** Waits until {@code count} more blobs may be deleted without exceeding {@link #RATE}. */
+    private void throttle(int count) throws InterruptedException {
+        if (RATE <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextPermit);
+            nextPermit = start + TimeUnit.SECONDS.toNanos(count) / RATE;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), DeletionQueue.class.getName() + ".xml"));
+    }
+
+    private synchronized void load() throws IOException {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            file.unmarshal(this);
+        }
+    }
+
+    private Object readResolve() {
+        recent = new ArrayDeque<>();
+        return this;
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        if (BulkChange.contains(this)) {
+            return;
+        }
+        getConfigFile().write(this);
+        SaveableListener.fireOnChange(this, getConfigFile());
+    }
+
+    public synchronized List<Task> getTasks() {
+        return new ArrayList<>(tasks);
+    }
+
+    public synchronized long getDeletedTotal() {
+        return deletedTotal;
+    }
+
+    public synchronized long getFailedTotal() {
+        return failedTotal;
+    }
+
+    /** Blobs deleted in the last minute. */
+    public synchronized long getRecentlyDeleted() {
+        long since = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1);
+        while (!recent.isEmpty() && recent.peek()[0] < since) {
+            recent.remove();
+        }
+        return recent.stream().mapToLong(r -> r[1]).sum();
+    }
+
+    @Override
+    public String getIconFileName() {
+        return JCloudsArtifactManager.ASYNC_DELETION || !getTasks().isEmpty() ? "symbol-trash" : null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Artifact Deletion Queue";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Progress deleting the artifacts and stashes of deleted builds from cloud storage.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "artifact-deletion-queue";
+    }
+
+    @NonNull
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+}
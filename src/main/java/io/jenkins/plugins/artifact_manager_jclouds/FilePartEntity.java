@@ -0,0 +1,68 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Request body consisting of a byte range of a file, for uploading one part of a {@link MultipartUpload}.
+ * Repeatable, so the request may be retried.
+ */
+final class FilePartEntity extends AbstractHttpEntity {
+
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    FilePartEntity(File file, long offset, long length) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+        } catch (IOException x) {
+            channel.close();
+            throw x;
+        }
+        return ByteStreams.limit(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        try (InputStream is = getContent()) {
+            long copied = is.transferTo(outStream);
+            if (copied != length) {
+                throw new IOException("Expected " + length + " bytes at offset " + offset + " of " + file + " but found only " + copied);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+}
@@ -33,47 +33,88 @@ import hudson.model.BuildListener;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.remoting.VirtualChannel;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
 import hudson.slaves.WorkspaceList;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.DirScanner;
+import hudson.util.NamingThreadFactory;
 import hudson.util.io.ArchiverFactory;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Functions;
 import io.jenkins.plugins.artifact_manager_jclouds.BlobStoreProvider.HttpMethod;
 import io.jenkins.plugins.httpclient.RobustHTTPClient;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.URI;
+import java.io.Serializable;
 import java.net.URL;
-import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import jenkins.MasterToSlaveFileCallable;
 import jenkins.model.ArtifactManager;
+import jenkins.util.SystemProperties;
 import jenkins.util.VirtualFile;
+import org.apache.http.Header;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.FileEntity;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.BlobStores;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
 import org.jclouds.blobstore.domain.StorageMetadata;
-import org.jclouds.blobstore.options.CopyOptions;
 import org.jclouds.blobstore.options.ListContainerOptions;
 import org.jenkinsci.plugins.workflow.flow.StashManager;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
-import static io.jenkins.plugins.artifact_manager_jclouds.TikaUtil.detectByTika;
-
 /**
  * Jenkins artifact/stash implementation using any blob store supported by Apache jclouds.
  * To offer a new backend, implement {@link BlobStoreProvider}.
@@ -85,8 +126,171 @@ public final class JCloudsArtifactManager extends ArtifactManager implements Sta
 
     static RobustHTTPClient client = new RobustHTTPClient();
 
+    /**
+     * How many files an agent uploads at once when archiving.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int UPLOAD_CONCURRENCY = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".uploadConcurrency", 1);
+
+    /**
+     * How many presigned URLs are sent to an agent at once when archiving.
+     * The next batch is signed while the agent uploads the current one.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int UPLOAD_BATCH_SIZE = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".uploadBatchSize", 1000);
+
+    /**
+     * Files (or stashes) at least this large are uploaded in parts, if the provider supports that.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static long MULTIPART_THRESHOLD = SystemProperties.getLong(JCloudsArtifactManager.class.getName() + ".multipartThreshold", 64L * 1024 * 1024);
+
+    /**
+     * Size of each part of a multipart upload, unless the file is so large that it would need too many parts.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static long MULTIPART_PART_SIZE = SystemProperties.getLong(JCloudsArtifactManager.class.getName() + ".multipartPartSize", 16L * 1024 * 1024);
+
+    /**
+     * How many parts an agent uploads at once.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int MULTIPART_CONCURRENCY = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".multipartConcurrency", 4);
+
+    /**
+     * How many files an agent examines at once to determine their content types, where the name does not suffice.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int CONTENT_TYPE_CONCURRENCY = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".contentTypeConcurrency", 4);
+
+    /**
+     * If set, files whose content type cannot be determined from their names are examined
+     * batch by batch while the previous batch is being uploaded, rather than all before uploading starts.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static boolean DETECT_CONTENT_TYPES_WHILE_UPLOADING = SystemProperties.getBoolean(JCloudsArtifactManager.class.getName() + ".detectContentTypesWhileUploading");
+
+    /**
+     * If set, artifacts are stored by content in an area shared by all builds, so identical files are uploaded only once.
+     * Each build then gets a manifest rather than its own copies.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static boolean CONTENT_ADDRESSABLE = SystemProperties.getBoolean(JCloudsArtifactManager.class.getName() + ".contentAddressable");
+
+    /**
+     * How many threads an agent uses to compress a stash; 0 to use all its processors, 1 for plain single-threaded compression.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int STASH_COMPRESSION_THREADS = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".stashCompressionThreads", 0);
+
+    /**
+     * How stashes are compressed: {@code gzip}, {@code lz4}, {@code none}, or {@code auto} to skip compression when the files are mostly compressed already.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static String STASH_CODEC = SystemProperties.getString(JCloudsArtifactManager.class.getName() + ".stashCodec", "gzip");
+
+    /**
+     * Compression level for stashes, from 1 (fastest) to 9 (smallest).
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int STASH_COMPRESSION_LEVEL = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".stashCompressionLevel", Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * How many ranges of a stash an agent downloads at once; 1 to download it with a single request.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int UNSTASH_CONCURRENCY = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".unstashConcurrency", 4);
+
+    /**
+     * Size of each range of a stash downloaded concurrently.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int UNSTASH_CHUNK_SIZE = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".unstashChunkSize", 8 * 1024 * 1024);
+
+    /**
+     * Maximum total size of stashes each agent keeps so that it can unstash them again without downloading them; 0 to disable.
+     * Off by default, since it costs agents disk space and a copy of every stash they make.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static long STASH_CACHE_SIZE = SystemProperties.getLong(JCloudsArtifactManager.class.getName() + ".stashCacheSize", 0);
+
+    /**
+     * Whether to store stashes as chunks shared by all builds, uploading only those not stored before.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static boolean STASH_CHUNKING = SystemProperties.getBoolean(JCloudsArtifactManager.class.getName() + ".stashChunking");
+
+    /**
+     * Whether to delete the blobs of deleted builds in the background, via {@link DeletionQueue}, rather than while the build is being deleted.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static boolean ASYNC_DELETION = SystemProperties.getBoolean(JCloudsArtifactManager.class.getName() + ".asyncDeletion");
+
+    /**
+     * How many blobs to copy at once when a build is restarted or replayed.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int COPY_CONCURRENCY = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".copyConcurrency", 16);
+
+    /**
+     * How many threads, shared by all builds, run uploads, copies and lookups in each JVM;
+     * each of those operations also uses no more than its own concurrency setting.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int POOL_SIZE = SystemProperties.getInteger(JCloudsArtifactManager.class.getName() + ".poolSize", 64);
+
+    private static ExecutorService pool;
+
+    /**
+     * Whether a restarted or replayed build should refer to the artifacts and stashes of the original build
+     * rather than receive copies of them.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static boolean REFERENCE_COPIES = SystemProperties.getBoolean(JCloudsArtifactManager.class.getName() + ".referenceCopies");
+
+    /** Directory under a build prefix holding one empty blob per build referring to it. */
+    private static final String REFS = "refs/";
+
+    /** Blob under a build prefix marking a build deleted while still referred to. */
+    private static final String TOMBSTONE = "deleted";
+
+    /** Blob under a build prefix marking the stashes of a build cleared while still referred to. */
+    private static final String STASHES_TOMBSTONE = "stashes-deleted";
+
+    /** How often to report progress copying. */
+    private static final long COPY_PROGRESS_INTERVAL_MILLIS = 10_000;
+
+    /** Maximum number of parts in an upload, as in S3. */
+    private static final long MAX_PARTS = 10_000;
+
+    /**
+     * Maximum size of an upload in a single request, as in S3.
+     * Only such uploads can be bound to a checksum of the whole file, so larger artifacts are not shared in {@link #CONTENT_ADDRESSABLE} mode.
+     */
+    private static final long MAX_SINGLE_UPLOAD = 5L << 30;
+
+    /** How many existence checks to run at once in {@link #CONTENT_ADDRESSABLE} mode. */
+    private static final int LOOKUP_CONCURRENCY = 8;
+
     private final BlobStoreProvider provider;
 
+    /** Whether artifacts were archived in {@link #CONTENT_ADDRESSABLE} mode. */
+    private boolean contentAddressed;
+
+    /** Key of a build whose artifacts are used in place of those of this build, if any; see {@link #REFERENCE_COPIES}. */
+    @CheckForNull
+    private String artifactsFrom;
+
+    /** Key of a build whose stashes are used when this build has no stash of the requested name, if any. */
+    @CheckForNull
+    private String stashesFrom;
+
+    /** Whether another build may refer to the blobs of this build, so they must not be deleted along with it. */
+    private boolean referenced;
+
+    /** Whether {@link #delete} was called, after which no build may start referring to this one. */
+    private transient boolean deleted;
+
     private transient String key; // e.g. myorg/myrepo/master/123
 
     JCloudsArtifactManager(@NonNull  Run<?, ?> build, BlobStoreProvider provider) {
@@ -121,74 +325,567 @@ public final class JCloudsArtifactManager extends ArtifactManager implements Sta
     public void archive(FilePath workspace, Launcher launcher, BuildListener listener, Map<String, String> artifacts)
             throws IOException, InterruptedException {
         LOGGER.log(Level.FINE, "Archiving from {0}: {1}", new Object[] { workspace, artifacts });
-        Map<String, String> contentTypes = workspace.act(new ContentTypeGuesser(new ArrayList<>(artifacts.values()), listener));
+        if (artifactsFrom != null) {
+            // copy on write, so that the artifacts of this build are all in one place
+            String origin = artifactsFrom;
+            try (BlobStoreContext context = getContext()) {
+                BlobStore blobStore = context.getBlobStore();
+                int count = copyBlobs(blobStore, Map.of(getBlobPath(origin, "artifacts"), getBlobPath("artifacts")), listener);
+                listener.getLogger().printf("Copied %d artifact(s) from %s%n", count, provider.toURI(provider.getContainer(), getBlobPath(origin, "artifacts/")));
+                artifactsFrom = null;
+                save();
+                if (!origin.equals(stashesFrom)) {
+                    release(blobStore, origin);
+                }
+            }
+        }
+        boolean contentAddressable = CONTENT_ADDRESSABLE;
+        if (contentAddressable && !provider.isChecksumSupported()) {
+            // nothing would stop an agent from storing other contents under a digest
+            listener.getLogger().println("Storage does not check upload checksums, so archiving without content addressing");
+            contentAddressable = false;
+        }
+        // when hashing, the agent reads every file anyway
+        boolean detectLater = DETECT_CONTENT_TYPES_WHILE_UPLOADING && !contentAddressable;
+        FileDetails details = workspace.act(new ContentTypeGuesser(new ArrayList<>(artifacts.values()), !detectLater, contentAddressable, listener));
+        Map<String, String> contentTypes = details.contentTypes;
         LOGGER.fine(() -> "guessing content types: " + contentTypes);
-        BlobStore blobStore = getContext().getBlobStore();
-        Map<String, URL> artifactUrls = provider.artifactUrls(artifacts, contentTypes, blobStore, key);
-        workspace.act(new UploadToBlobStorage(artifactUrls, contentTypes, listener));
-        listener.getLogger().printf("Uploaded %s artifact(s) to %s%n", artifactUrls.size(), provider.toURI(provider.getContainer(), getBlobPath("artifacts/")));
+        if (!contentAddressable) {
+            upload(workspace, listener, details, contentTypes, artifacts, key, detectLater, null);
+            // the manifest view also lists the artifacts directory
+            ArtifactManifest.forget(provider.getContainer(), getBlobPath("artifacts" + ArtifactManifest.SUFFIX));
+            listener.getLogger().printf("Uploaded %s artifact(s) to %s%n", artifacts.size(), provider.toURI(provider.getContainer(), getBlobPath("artifacts/")));
+            return;
+        }
+        Map<String, String> shareable = new HashMap<>();
+        Map<String, String> large = new HashMap<>();
+        for (Map.Entry<String, String> entry : artifacts.entrySet()) {
+            Long size = details.sizes.get(entry.getValue());
+            (size != null && size > MAX_SINGLE_UPLOAD ? large : shareable).put(entry.getKey(), entry.getValue());
+        }
+        Map<String, Long> lengths = new ConcurrentHashMap<>(); // name in the shared area → length
+        Map<String, String> toUpload = newContents(shareable, details, lengths); // name in the shared area → relative path
+        upload(workspace, listener, details, contentTypes, toUpload, ArtifactManifest.CAS_KEY, false, details.digests);
+        Map<String, String> expected = new HashMap<>();
+        for (Map.Entry<String, String> entry : toUpload.entrySet()) {
+            expected.put(getBlobPath(ArtifactManifest.CAS_KEY, "artifacts/" + entry.getKey()), details.digests.get(entry.getValue()));
+            // the checksum binds the contents, so a wrong length could only mislead this build
+            lengths.put(entry.getKey(), details.sizes.get(entry.getValue()));
+        }
+        verifyChecksums(expected);
+        if (!large.isEmpty()) {
+            // stored with the build, where the manifest view also finds them
+            upload(workspace, listener, details, contentTypes, large, key, false, null);
+        }
+        writeManifest(shareable, details, lengths);
+        listener.getLogger().printf("Uploaded %s new file(s) of %s artifact(s) to %s%n", toUpload.size(), shareable.size(), provider.toURI(provider.getContainer(), getBlobPath(ArtifactManifest.CAS_KEY, "artifacts/")));
+        if (!large.isEmpty()) {
+            listener.getLogger().printf("Uploaded %s artifact(s) too large to share to %s%n", large.size(), provider.toURI(provider.getContainer(), getBlobPath("artifacts/")));
+        }
+    }
+
+    /**
+     * Uploads files as artifacts, in parts where large, otherwise to URLs presigned in batches.
+     * @param toUpload relative paths of files to upload, by name under the artifacts directory of {@code uploadKey}
+     * @param digests if not null, digests by relative path, to which each upload is bound; such files are never uploaded in parts
+     */
+    private void upload(FilePath workspace, TaskListener listener, FileDetails details, Map<String, String> contentTypes, Map<String, String> toUpload, String uploadKey, boolean detectLater, @CheckForNull Map<String, String> digests) throws IOException, InterruptedException {
+        Map<String, String> singleArtifacts = new HashMap<>();
+        Map<String, String> multipartArtifacts = new HashMap<>();
+        Map<String, String> checksums = new HashMap<>();
+        for (Map.Entry<String, String> entry : toUpload.entrySet()) {
+            if (digests != null) {
+                singleArtifacts.put(entry.getKey(), entry.getValue());
+                checksums.put(entry.getValue(), BlobStoreProvider.checksumHeaderValue(digests.get(entry.getValue())));
+            } else {
+                (isMultipart(details.sizes.get(entry.getValue())) ? multipartArtifacts : singleArtifacts).put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (detectLater) {
+            detectContentTypes(workspace, multipartArtifacts.values(), contentTypes, listener);
+        }
+        Map<String, Blob> multipartBlobs = new HashMap<>();
+        if (!multipartArtifacts.isEmpty()) {
+            try (BlobStoreContext context = getContext()) {
+                for (Map.Entry<String, String> entry : multipartArtifacts.entrySet()) {
+                    Blob blob = context.getBlobStore().blobBuilder(getBlobPath(uploadKey, "artifacts/" + entry.getKey())).build();
+                    blob.getMetadata().setContainer(provider.getContainer());
+                    blob.getMetadata().getContentMetadata().setContentType(contentTypes.get(entry.getValue()));
+                    multipartBlobs.put(entry.getValue(), blob);
+                }
+            }
+        }
+        Iterator<Map.Entry<String, String>> remaining = singleArtifacts.entrySet().iterator();
+        String _uploadKey = uploadKey;
+        upload(workspace, () -> {
+            if (!remaining.hasNext()) {
+                return null;
+            }
+            Map<String, String> batch = new HashMap<>();
+            while (remaining.hasNext() && batch.size() < Math.max(1, UPLOAD_BATCH_SIZE)) {
+                Map.Entry<String, String> entry = remaining.next();
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            if (detectLater) {
+                // runs while the agent is still uploading the previous batch
+                detectContentTypes(workspace, batch.values(), contentTypes, listener);
+            }
+            try (BlobStoreContext context = getContext()) {
+                if (digests != null) {
+                    return provider.artifactUrls(batch, contentTypes, digests, context.getBlobStore(), _uploadKey);
+                }
+                return provider.artifactUrls(batch, contentTypes, context.getBlobStore(), _uploadKey);
+            }
+        }, contentTypes, checksums, multipartBlobs, details.sizes, listener);
     }
 
-    private static class ContentTypeGuesser extends MasterToSlaveFileCallable<Map<String, String>> {
+    /**
+     * Finds files whose contents are not yet in the shared area.
+     * @param artifacts relative paths by name under the artifacts directory
+     * @param lengths filled in with the lengths of those which are, by name in the shared area
+     * @return relative paths of files to upload, by name in the shared area
+     */
+    private Map<String, String> newContents(Map<String, String> artifacts, FileDetails details, Map<String, Long> lengths) throws IOException, InterruptedException {
+        Map<String, String> candidates = new HashMap<>();
+        for (Map.Entry<String, String> entry : artifacts.entrySet()) {
+            String digest = details.digests.get(entry.getValue());
+            if (!ArtifactManifest.isDigest(digest)) {
+                throw new AbortException("Invalid digest " + digest + " reported for " + entry.getValue());
+            }
+            candidates.putIfAbsent(ArtifactManifest.casName(digest, entry.getKey()), entry.getValue());
+        }
+        Map<String, String> missing = new ConcurrentHashMap<>();
+        try (BlobStoreContext context = getContext()) {
+            BlobStore blobStore = context.getBlobStore();
+            List<Task> lookups = new ArrayList<>();
+            for (Map.Entry<String, String> entry : candidates.entrySet()) {
+                lookups.add(new Task(0, () -> {
+                    BlobMetadata metadata = blobStore.blobMetadata(provider.getContainer(), getBlobPath(ArtifactManifest.CAS_KEY, "artifacts/" + entry.getKey()));
+                    Long length = metadata != null ? metadata.getContentMetadata().getContentLength() : null;
+                    // an older one may be about to be collected, so store it again
+                    if (length != null && ContentCollector.reusable(metadata)) {
+                        lengths.put(entry.getKey(), length);
+                    } else {
+                        missing.put(entry.getKey(), entry.getValue());
+                    }
+                }));
+            }
+            run(lookups, LOOKUP_CONCURRENCY, "ContentLookup");
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+        LOGGER.fine(() -> missing.size() + " of " + candidates.size() + " distinct files need to be uploaded");
+        return missing;
+    }
+
+    /**
+     * Adds newly archived files to the manifest of this build.
+     * @param lengths lengths as stored, by name in the shared area
+     */
+    private synchronized void writeManifest(Map<String, String> artifacts, FileDetails details, Map<String, Long> lengths) throws IOException {
+        String manifestKey = getBlobPath("artifacts" + ArtifactManifest.SUFFIX);
+        try (BlobStoreContext context = getContext()) {
+            ArtifactManifest manifest = ArtifactManifest.read(context.getBlobStore(), provider.getContainer(), manifestKey);
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, String> entry : artifacts.entrySet()) {
+                String digest = details.digests.get(entry.getValue());
+                manifest.put(entry.getKey(), new ArtifactManifest.Entry(digest, lengths.get(ArtifactManifest.casName(digest, entry.getKey())), now));
+            }
+            manifest.write(context.getBlobStore(), provider.getContainer(), manifestKey);
+        }
+        contentAddressed = true;
+    }
+
+    /**
+     * Checks that what the agent uploaded to the shared area has the digests it was uploaded under,
+     * by reading the checksums the store verified rather than the contents.
+     * The store should already have rejected anything else, but if not, the blob is deleted
+     * rather than left for other builds to refer to.
+     * Otherwise an agent could store arbitrary bytes under the digest of a file some other job will archive later.
+     * @param digests expected digests by blob path
+     */
+    private void verifyChecksums(Map<String, String> digests) throws IOException, InterruptedException {
+        if (digests.isEmpty()) {
+            return;
+        }
+        try (BlobStoreContext context = getContext()) {
+            BlobStore blobStore = context.getBlobStore();
+            List<Task> checks = new ArrayList<>();
+            for (Map.Entry<String, String> entry : digests.entrySet()) {
+                checks.add(new Task(0, () -> {
+                    String actual = provider.getSha256(blobStore, entry.getKey());
+                    if (!entry.getValue().equals(actual)) {
+                        blobStore.removeBlob(provider.getContainer(), entry.getKey());
+                        throw new AbortException(String.format("%s was stored with checksum %s rather than %s", entry.getKey(), actual, entry.getValue()));
+                    }
+                }));
+            }
+            run(checks, LOOKUP_CONCURRENCY, "ChecksumCheck");
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+    }
+
+    /**
+     * Fills in content types not yet determined.
+     */
+    private static void detectContentTypes(FilePath dir, Collection<String> relPaths, Map<String, String> contentTypes, TaskListener listener) throws IOException, InterruptedException {
+        List<String> unknown = new ArrayList<>();
+        for (String relPath : relPaths) {
+            if (contentTypes.get(relPath) == null) {
+                unknown.add(relPath);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            contentTypes.putAll(dir.act(new ContentTypeGuesser(unknown, true, false, listener)).contentTypes);
+        }
+    }
+
+    private boolean isMultipart(Long size) {
+        return size != null && size >= MULTIPART_THRESHOLD && provider.isMultipartUploadSupported();
+    }
+
+    private static long partSize(long size) {
+        return Math.max(MULTIPART_PART_SIZE, (size + MAX_PARTS - 1) / MAX_PARTS);
+    }
+
+    /**
+     * Supplies presigned URLs in batches, so that they need not all be held in memory or sent to the agent at once.
+     */
+    @FunctionalInterface
+    private interface UrlBatches {
+        /**
+         * Signs the next batch.
+         * @return presigned URLs by relative path, or null when there are no more
+         */
+        @CheckForNull
+        Map<String, URL> next() throws IOException;
+    }
+
+    /**
+     * Uploads files from an agent directory, either to presigned URLs or as multipart uploads.
+     * URLs are signed a batch at a time, overlapping with the agent uploading the previous batch.
+     * Multipart uploads are started here and completed once the agent is done, or aborted if anything fails.
+     * @param dir the directory
+     * @param batches presigned URLs by relative path
+     * @param contentTypes content types by relative path
+     * @param checksums values of {@link BlobStoreProvider#CHECKSUM_HEADER} by relative path, for URLs bound to a digest
+     * @param multipartBlobs blobs to upload in parts, by relative path
+     * @param sizes sizes of at least the files in {@code multipartBlobs}, by relative path
+     */
+    private void upload(FilePath dir, UrlBatches batches, Map<String, String> contentTypes, Map<String, String> checksums, Map<String, Blob> multipartBlobs, Map<String, Long> sizes, TaskListener listener) throws IOException, InterruptedException {
+        Map<String, MultipartUpload> multipartUploads = new HashMap<>();
+        Future<Map<String, List<String>>> pending = null;
+        try {
+            for (Map.Entry<String, Blob> entry : multipartBlobs.entrySet()) {
+                long size = sizes.get(entry.getKey());
+                MultipartUpload upload = provider.initiateMultipartUpload(entry.getValue(), size, partSize(size));
+                LOGGER.fine(() -> "started multipart upload " + upload + " of " + entry.getKey());
+                multipartUploads.put(entry.getKey(), upload);
+            }
+            Map<String, List<String>> etags = new HashMap<>();
+            // Parts of multipart uploads go along with the first batch.
+            Map<String, MultipartUpload> parts = new HashMap<>(multipartUploads);
+            Map<String, URL> urls = batches.next();
+            while (urls != null || !parts.isEmpty()) {
+                Map<String, URL> batch = urls != null ? urls : Collections.emptyMap();
+                Map<String, String> batchContentTypes = new HashMap<>();
+                Map<String, String> batchChecksums = new HashMap<>();
+                for (String relPath : batch.keySet()) {
+                    batchContentTypes.put(relPath, contentTypes.get(relPath));
+                    if (checksums.containsKey(relPath)) {
+                        batchChecksums.put(relPath, checksums.get(relPath));
+                    }
+                }
+                pending = dir.actAsync(new UploadToBlobStorage(batch, batchContentTypes, batchChecksums, parts, listener));
+                parts = Collections.emptyMap();
+                urls = batches.next();
+                etags.putAll(get(pending));
+                pending = null;
+            }
+            for (Iterator<Map.Entry<String, MultipartUpload>> it = multipartUploads.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, MultipartUpload> entry = it.next();
+                provider.completeMultipartUpload(entry.getValue(), etags.get(entry.getKey()));
+                it.remove();
+            }
+        } finally {
+            if (pending != null) {
+                pending.cancel(true);
+            }
+            for (MultipartUpload upload : multipartUploads.values()) {
+                try {
+                    provider.abortMultipartUpload(upload);
+                } catch (IOException | RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "Failed to abort " + upload, x);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a result, rethrowing any failure as is.
+     */
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /** What the agent found out about files to be archived. */
+    private static final class FileDetails implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final Map<String, String> contentTypes = new HashMap<>(); // e.g. "target/x.zip", "application/zip"
+        final Map<String, Long> sizes = new HashMap<>(); // e.g. "target/x.zip", 123456
+        final Map<String, String> digests = new HashMap<>(); // e.g. "target/x.zip", "9f86d08…", if requested
+    }
+
+    private static class ContentTypeGuesser extends MasterToSlaveFileCallable<FileDetails> {
         private static final long serialVersionUID = 1L;
 
         private final Collection<String> relPaths;
+        private final boolean sniff;
+        private final boolean digest;
         private final TaskListener listener;
+        private final int concurrency = CONTENT_TYPE_CONCURRENCY;
 
-        ContentTypeGuesser(Collection<String> relPaths, TaskListener listener) {
+        /**
+         * @param sniff whether to read files whose content types cannot otherwise be determined; if not, they are omitted
+         * @param digest whether to also compute {@link ArtifactManifest#digest}s
+         */
+        ContentTypeGuesser(Collection<String> relPaths, boolean sniff, boolean digest, TaskListener listener) {
             this.relPaths = relPaths;
+            this.sniff = sniff;
+            this.digest = digest;
             this.listener = listener;
         }
 
         @Override
-        public Map<String, String> invoke(File f, VirtualChannel channel) {
-            Map<String, String> contentTypes = new HashMap<>();
+        public FileDetails invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            FileDetails details = new FileDetails();
+            List<Task> detections = new ArrayList<>();
             for (String relPath : relPaths) {
                 File theFile = new File(f, relPath);
-                try {
-                    String contentType = Files.probeContentType(theFile.toPath());
-                    if (contentType == null) {
-                        contentType = URLConnection.guessContentTypeFromName(theFile.getName());
-                    }
-                    if (contentType == null) {
-                        contentType = detectByTika(theFile);
+                long size = theFile.length();
+                details.sizes.put(relPath, size);
+                String byName = ContentTypes.byName(relPath);
+                if (byName != null) {
+                    details.contentTypes.put(relPath, byName);
+                    if (!digest) {
+                        continue;
                     }
-                    contentTypes.put(relPath, contentType);
-                } catch (IOException e) {
-                    Functions.printStackTrace(e, listener.error("Unable to determine content type for file: " + theFile));
-                    // A content type must be specified; otherwise, the metadata signature will be computed from data that includes "Content-Type:", but no such HTTP header will be sent, and AWS will reject the request.
-                    contentTypes.put(relPath, "application/octet-stream");
                 }
+                detections.add(new Task(size, () -> {
+                    if (digest) {
+                        String d = ArtifactManifest.digest(theFile);
+                        synchronized (details) {
+                            details.digests.put(relPath, d);
+                        }
+                    }
+                    if (byName != null) {
+                        return;
+                    }
+                    String contentType;
+                    try {
+                        contentType = ContentTypes.detect(theFile, sniff);
+                    } catch (IOException e) {
+                        Functions.printStackTrace(e, listener.error("Unable to determine content type for file: " + theFile));
+                        // A content type must be specified; otherwise, the metadata signature will be computed from data that includes "Content-Type:", but no such HTTP header will be sent, and AWS will reject the request.
+                        contentType = "application/octet-stream";
+                    }
+                    if (contentType != null) {
+                        synchronized (details) {
+                            details.contentTypes.put(relPath, contentType);
+                        }
+                    }
+                }));
             }
-            return contentTypes;
+            run(detections, concurrency, ContentTypeGuesser.class.getSimpleName());
+            return details;
         }
     }
 
-    private static class UploadToBlobStorage extends MasterToSlaveFileCallable<Void> {
+    /**
+     * Uploads files, returning the entity tags of each part of any multipart uploads.
+     */
+    private static class UploadToBlobStorage extends MasterToSlaveFileCallable<Map<String, List<String>>> {
         private static final long serialVersionUID = 1L;
 
         private final Map<String, URL> artifactUrls; // e.g. "target/x.war", "http://..."
         private final Map<String, String> contentTypes; // e.g. "target/x.zip, "application/zip"
+        private final Map<String, String> checksums; // e.g. "target/x.zip", "n4bQgYh…", if the URL is bound to one
+        private final Map<String, MultipartUpload> multipartUploads; // e.g. "target/x.iso", upload with part URLs
         private final TaskListener listener;
         // Bind when constructed on the master side; on the agent side, deserialize the same configuration.
         private final RobustHTTPClient client = JCloudsArtifactManager.client;
+        private final int concurrency = UPLOAD_CONCURRENCY;
+        private final int partConcurrency = MULTIPART_CONCURRENCY;
 
-        UploadToBlobStorage(Map<String, URL> artifactUrls, Map<String, String> contentTypes, TaskListener listener) {
+        UploadToBlobStorage(Map<String, URL> artifactUrls, Map<String, String> contentTypes, Map<String, String> checksums, Map<String, MultipartUpload> multipartUploads, TaskListener listener) {
             this.artifactUrls = artifactUrls;
             this.contentTypes = contentTypes;
+            this.checksums = checksums;
+            this.multipartUploads = multipartUploads;
             this.listener = listener;
         }
 
         @Override
-        public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        public Map<String, List<String>> invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
             try {
+                List<Task> uploads = new ArrayList<>();
                 for (Map.Entry<String, URL> entry : artifactUrls.entrySet()) {
-                    client.uploadFile(new File(f, entry.getKey()), contentTypes.get(entry.getKey()), entry.getValue(), listener);
+                    File file = new File(f, entry.getKey());
+                    String contentType = contentTypes.get(entry.getKey());
+                    String checksum = checksums.get(entry.getKey());
+                    uploads.add(new Task(file.length(), checksum == null
+                            ? () -> client.uploadFile(file, contentType, entry.getValue(), listener)
+                            : () -> uploadFile(file, contentType, checksum, entry.getValue())));
+                }
+                Map<String, List<String>> etags = new HashMap<>();
+                for (Map.Entry<String, MultipartUpload> entry : multipartUploads.entrySet()) {
+                    etags.put(entry.getKey(), addParts(new File(f, entry.getKey()), entry.getValue(), uploads));
                 }
+                run(uploads, multipartUploads.isEmpty() ? concurrency : Math.max(concurrency, partConcurrency), UploadToBlobStorage.class.getSimpleName());
+                return etags;
             } finally {
                 listener.getLogger().flush();
             }
-            return null;
+        }
+
+        /**
+         * Like {@link RobustHTTPClient#uploadFile}, but sending a checksum for the store to verify.
+         */
+        private void uploadFile(File file, String contentType, String checksum, URL url) throws IOException, InterruptedException {
+            client.connect("upload", "upload " + file + " to " + RobustHTTPClient.sanitize(url), c -> {
+                HttpPut put = new HttpPut(url.toString());
+                put.setHeader(BlobStoreProvider.CHECKSUM_HEADER, checksum);
+                FileEntity entity = new FileEntity(file);
+                entity.setContentType(contentType);
+                put.setEntity(entity);
+                return c.execute(put);
+            }, response -> {}, listener);
+        }
+
+        /**
+         * Schedules uploads of each part of a file.
+         * @return a list of entity tags to be filled in as parts are uploaded
+         */
+        private List<String> addParts(File file, MultipartUpload upload, List<Task> uploads) throws IOException {
+            long size = file.length();
+            List<URL> partUrls = upload.getPartUrls();
+            long partSize = upload.getPartSize();
+            if (size <= (partUrls.size() - 1) * partSize || size > partUrls.size() * partSize) {
+                throw new AbortException(file + " changed size while being archived");
+            }
+            String[] etags = new String[partUrls.size()];
+            for (int i = 0; i < partUrls.size(); i++) {
+                int part = i;
+                long offset = i * partSize;
+                long length = Math.min(partSize, size - offset);
+                uploads.add(new Task(length, () -> etags[part] = uploadPart(file, offset, length, partUrls.get(part), part + 1, partUrls.size())));
+            }
+            return Arrays.asList(etags);
+        }
+
+        private String uploadPart(File file, long offset, long length, URL url, int part, int parts) throws IOException, InterruptedException {
+            String[] etag = new String[1];
+            client.connect("upload", "upload part " + part + "/" + parts + " of " + file + " to " + RobustHTTPClient.sanitize(url), c -> {
+                HttpPut put = new HttpPut(url.toString());
+                put.setEntity(new FilePartEntity(file, offset, length));
+                return c.execute(put);
+            }, response -> {
+                Header header = response.getFirstHeader("ETag");
+                if (header == null) {
+                    throw new IOException("No ETag returned for part " + part + " of " + file);
+                }
+                etag[0] = header.getValue();
+            }, listener);
+            return etag[0];
+        }
+    }
+
+    /**
+     * Runs tasks either in order or, if allowed, several at a time, largest first,
+     * so that we do not end up waiting on one big file at the end.
+     * As many workers as allowed take tasks in turn, on threads from {@link #pool()}.
+     * The first task to fail cancels the rest.
+     */
+    private static void run(List<Task> tasks, int threads, String name) throws IOException, InterruptedException {
+        if (threads <= 1 || tasks.size() <= 1) {
+            for (Task task : tasks) {
+                task.work.run();
+            }
+            return;
+        }
+        tasks.sort(Comparator.comparingLong((Task task) -> task.size).reversed());
+        Queue<Task> queue = new ConcurrentLinkedQueue<>(tasks);
+        CompletionService<Void> completion = new ExecutorCompletionService<>(pool());
+        List<Future<Void>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(threads, tasks.size()); i++) {
+                workers.add(completion.submit(() -> {
+                    Thread thread = Thread.currentThread();
+                    String threadName = thread.getName();
+                    thread.setName(threadName + ": " + name);
+                    try {
+                        Task task;
+                        while ((task = queue.poll()) != null) {
+                            task.work.run();
+                        }
+                    } finally {
+                        thread.setName(threadName);
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < workers.size(); i++) {
+                get(completion.take());
+            }
+        } finally {
+            queue.clear();
+            for (Future<Void> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Threads shared by all calls to {@link #run}, rather than a pool started and stopped by each.
+     */
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), JCloudsArtifactManager.class.getSimpleName()));
+            executor.allowCoreThreadTimeOut(true);
+            pool = executor;
+        }
+        return pool;
+    }
+
+    @FunctionalInterface
+    private interface Work {
+        void run() throws IOException, InterruptedException;
+    }
+
+    /** Some work on a file, or part of a file, of a given size. */
+    private static final class Task {
+        final long size;
+        final Work work;
+        Task(long size, Work work) {
+            this.size = size;
+            this.work = work;
         }
     }
 
@@ -199,124 +896,836 @@ public final class JCloudsArtifactManager extends ArtifactManager implements Sta
             LOGGER.log(Level.FINE, "Ignoring blob deletion: {0}", blobPath);
             return false;
         }
-        return JCloudsVirtualFile.delete(provider, getContext().getBlobStore(), blobPath);
+        try (BlobStoreContext context = getContext()) {
+            BlobStore blobStore = context.getBlobStore();
+            for (String origin : origins()) {
+                release(blobStore, origin);
+            }
+            boolean wasReferenced;
+            synchronized (this) {
+                // see addReference
+                deleted = true;
+                wasReferenced = referenced;
+            }
+            if (wasReferenced && isReferenced(blobStore, key)) {
+                // the last build referring to this one deletes it, unless it released this one meanwhile
+                LOGGER.log(Level.FINE, "Deferring deletion of {0}, which is referred to by other builds", blobPath);
+                try {
+                    blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder(getBlobPath(TOMBSTONE)).payload(new byte[0]).build());
+                } catch (RuntimeException x) {
+                    throw new IOException(x);
+                }
+                if (isReferenced(blobStore, key)) {
+                    return true;
+                }
+            }
+            if (contentAddressed) {
+                // the shared contents are left alone, as other builds may refer to them
+                ArtifactManifest.forget(provider.getContainer(), getBlobPath("artifacts" + ArtifactManifest.SUFFIX));
+            }
+            return deleteBuild(blobStore, key);
+        }
+    }
+
+    /**
+     * Deletes everything under the prefix of a build.
+     */
+    private boolean deleteBuild(BlobStore blobStore, String key) throws IOException, InterruptedException {
+        String blobPath = getBlobPath(key, "");
+        if (ASYNC_DELETION) {
+            // builds of the same job discarded together are deleted with one listing
+            DeletionQueue.get().enqueue(provider, getBlobPath(key.substring(0, key.lastIndexOf('/')), ""), blobPath);
+            return true;
+        }
+        return JCloudsVirtualFile.delete(provider, blobStore, blobPath);
+    }
+
+    /** Keys of builds this build refers to. */
+    private Set<String> origins() {
+        Set<String> origins = new LinkedHashSet<>();
+        if (artifactsFrom != null) {
+            origins.add(artifactsFrom);
+        }
+        if (stashesFrom != null) {
+            origins.add(stashesFrom);
+        }
+        return origins;
+    }
+
+    private String referencePath(String origin) {
+        return getBlobPath(origin, REFS + URLEncoder.encode(key, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Records that this build refers to another, and marks the other build so that it checks for references when deleted.
+     * <p>Each side of a race writes before it reads what the other side wrote,
+     * relying on the strong read-after-write consistency of the blob store:
+     * a reference is written before the other build is marked, whereas {@link #delete} notes the deletion before reading the mark,
+     * so either this sees the deletion and fails, or the deletion sees the reference;
+     * likewise a tombstone is written before looking for references, whereas {@link #release} removes the reference before looking for a tombstone,
+     * so either the deletion or the release sees that the build is no longer referred to, or both do and both delete it.
+     */
+    private void addReference(BlobStore blobStore, String origin) throws IOException {
+        try {
+            blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder(referencePath(origin)).payload(new byte[0]).build());
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+        Run<?, ?> run = run(origin);
+        if (run != null && run.getArtifactManager() instanceof JCloudsArtifactManager originManager) {
+            boolean mark;
+            synchronized (originManager) {
+                if (originManager.deleted) {
+                    throw new AbortException("Cannot refer to " + run + " while it is being deleted");
+                }
+                mark = !originManager.referenced;
+                originManager.referenced = true;
+            }
+            if (mark) {
+                run.save();
+            }
+        }
+    }
+
+    /**
+     * Looks up a build by its key.
+     */
+    @CheckForNull
+    private static Run<?, ?> run(String key) {
+        int slash = key.lastIndexOf('/');
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            return Run.fromExternalizableId(key.substring(0, slash) + '#' + key.substring(slash + 1));
+        }
+    }
+
+    /**
+     * Saves this build, after changing which builds it refers to.
+     */
+    private void save() throws IOException {
+        Run<?, ?> run = run(key);
+        if (run != null) {
+            run.save();
+        }
+    }
+
+    /**
+     * Drops the reference from this build to another, deleting the other build, or just its stashes,
+     * if they were deleted in the meantime and this was the last reference to them.
+     */
+    private void release(BlobStore blobStore, String origin) throws IOException, InterruptedException {
+        String container = provider.getContainer();
+        try {
+            blobStore.removeBlob(container, referencePath(origin));
+            if (blobStore.blobExists(container, getBlobPath(origin, TOMBSTONE))) {
+                if (!isReferenced(blobStore, origin)) {
+                    LOGGER.log(Level.FINE, "Deleting {0}, no longer referred to", origin);
+                    deleteBuild(blobStore, origin);
+                }
+            } else if (blobStore.blobExists(container, getBlobPath(origin, STASHES_TOMBSTONE))) {
+                if (!isReferenced(blobStore, origin)) {
+                    LOGGER.log(Level.FINE, "Deleting stashes of {0}, no longer referred to", origin);
+                    new BlobDeleter(provider, blobStore).deleteAll(getBlobPath(origin, "stashes/"));
+                    blobStore.removeBlob(container, getBlobPath(origin, STASHES_TOMBSTONE));
+                }
+            }
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+    }
+
+    private boolean isReferenced(BlobStore blobStore, String key) throws IOException {
+        String refs = getBlobPath(key, REFS);
+        try {
+            for (StorageMetadata sm : blobStore.list(provider.getContainer(), ListContainerOptions.Builder.prefix(refs).recursive().maxResults(1))) {
+                if (sm.getName().startsWith(refs)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
     }
 
     @Override
     public VirtualFile root() {
-        return new JCloudsVirtualFile(provider, provider.getContainer(), getBlobPath("artifacts"));
+        String artifactsKey = artifactsFrom != null ? artifactsFrom : key;
+        if (contentAddressed) {
+            return JCloudsVirtualFile.withManifest(provider, provider.getContainer(), getBlobPath(artifactsKey, "artifacts"));
+        }
+        return new JCloudsVirtualFile(provider, provider.getContainer(), getBlobPath(artifactsKey, "artifacts"));
     }
 
     @Override
     public void stash(String name, FilePath workspace, Launcher launcher, EnvVars env, TaskListener listener, String includes, String excludes, boolean useDefaultExcludes, boolean allowEmpty) throws IOException, InterruptedException {
-        BlobStore blobStore = getContext().getBlobStore();
-
-        // Map stash to url for upload
         String path = getBlobPath("stashes/" + name + ".tgz");
-        Blob blob = blobStore.blobBuilder(path).build();
+        Blob blob;
+        try (BlobStoreContext context = getContext()) {
+            blob = context.getBlobStore().blobBuilder(path).build();
+        }
         blob.getMetadata().setContainer(provider.getContainer());
-        // We don't care about content-type when stashing files
-        blob.getMetadata().getContentMetadata().setContentType(null);
+        // The content type tells unstash how to decompress.
+        StashCodec codec = "auto".equalsIgnoreCase(STASH_CODEC) ? workspace.act(new ChooseStashCodec(includes, excludes, useDefaultExcludes)) : StashCodec.forName(STASH_CODEC);
+        if (STASH_CHUNKING) {
+            if (provider.isChecksumSupported()) {
+                stashChunks(name, workspace, listener, includes, excludes, useDefaultExcludes, allowEmpty, codec);
+                return;
+            }
+            // nothing would stop an agent from storing other contents under a digest
+            listener.getLogger().println("Storage does not check upload checksums, so stashing without chunks");
+        }
+        blob.getMetadata().getContentMetadata().setContentType(codec.contentType);
+        // Map stash to url for upload
         URL url = provider.toExternalURL(blob, HttpMethod.PUT);
-        FilePath tempDir = WorkspaceList.tempDir(workspace);
-        if (tempDir == null) {
-            throw new AbortException("Could not make temporary directory in " + workspace);
+        int count;
+        if (provider.isMultipartUploadSupported()) {
+            StashPartUrls partUrls = new StashPartUrls(provider, blob);
+            try {
+                StashResult result = workspace.act(new Stash(includes, excludes, useDefaultExcludes, allowEmpty, codec, url, workspace.getChannel().export(MultipartUpload.PartUrls.class, partUrls), listener));
+                String etag = null;
+                try {
+                    partUrls.complete(result.etags);
+                    if (result.cached != null) {
+                        try (BlobStoreContext context = getContext()) {
+                            BlobMetadata metadata = context.getBlobStore().blobMetadata(provider.getContainer(), path);
+                            etag = metadata != null ? metadata.getETag() : null;
+                        }
+                    }
+                } finally {
+                    if (result.cached != null) {
+                        try {
+                            workspace.act(new CacheStash(provider.toURI(provider.getContainer(), path).toString(), etag, result.cached));
+                        } catch (IOException x) {
+                            LOGGER.log(Level.FINE, "could not cache " + path, x);
+                        }
+                    }
+                }
+                count = result.count;
+            } finally {
+                partUrls.abortIfPending();
+            }
+        } else {
+            FilePath tempDir = WorkspaceList.tempDir(workspace);
+            if (tempDir == null) {
+                throw new AbortException("Could not make temporary directory in " + workspace);
+            }
+            StashFile stashFile = workspace.act(new StashToFile(includes, excludes, useDefaultExcludes, allowEmpty, codec, tempDir.getRemote()));
+            try {
+                Iterator<Map<String, URL>> urls = Collections.singleton(Collections.singletonMap(stashFile.name, url)).iterator();
+                upload(tempDir, () -> urls.hasNext() ? urls.next() : null, Collections.singletonMap(stashFile.name, codec.contentType), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), listener);
+            } finally {
+                tempDir.child(stashFile.name).delete();
+            }
+            count = stashFile.count;
+        }
+        listener.getLogger().printf("Stashed %d file(s) to %s%n", count, provider.toURI(provider.getContainer(), path));
+    }
+
+    /**
+     * Stashes in {@link #STASH_CHUNKING} mode.
+     */
+    private void stashChunks(String name, FilePath workspace, TaskListener listener, String includes, String excludes, boolean useDefaultExcludes, boolean allowEmpty, StashCodec codec) throws IOException, InterruptedException {
+        String path = getBlobPath("stashes/" + name + StashIndex.SUFFIX);
+        StashChunkUrls chunkUrls = new StashChunkUrls(codec);
+        StashIndex index = workspace.act(new ChunkedStash(includes, excludes, useDefaultExcludes, allowEmpty, codec, workspace.getChannel().export(StashIndex.ChunkUrls.class, chunkUrls), listener));
+        for (StashIndex.Chunk chunk : index.chunks) {
+            // every chunk must have been looked up, and so either be stored already or be checked below
+            if (!chunkUrls.seen.contains(chunk.digest)) {
+                throw new AbortException("Stash index refers to unknown chunk " + chunk.digest);
+            }
+        }
+        Map<String, String> expected = new HashMap<>();
+        for (String digest : chunkUrls.uploaded) {
+            expected.put(getBlobPath(ArtifactManifest.CAS_KEY, StashIndex.chunkName(digest, codec)), digest);
+        }
+        verifyChecksums(expected);
+        try (BlobStoreContext context = getContext()) {
+            BlobStore blobStore = context.getBlobStore();
+            index.write(blobStore, provider.getContainer(), path);
+            // otherwise an earlier plain stash of the same name would be unstashed instead
+            blobStore.removeBlob(provider.getContainer(), getBlobPath("stashes/" + name + ".tgz"));
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+        listener.getLogger().printf("Stashed %d file(s) to %s, uploading %d of %d chunk(s)%n", index.count, provider.toURI(provider.getContainer(), path), chunkUrls.uploaded.size(), index.chunks.size());
+    }
+
+    /**
+     * Hands out upload URLs for chunks not yet stored, each bound to the digest of the chunk,
+     * to be checked by {@link #verifyChecksums} once the agent is done.
+     * Called back from the agent, so each call takes its own lease on the context
+     * rather than relying on one which might be released or retired in the meantime.
+     */
+    private final class StashChunkUrls implements StashIndex.ChunkUrls {
+        private final StashCodec codec;
+        /** Chunks already requested during this stash. */
+        final Set<String> seen = ConcurrentHashMap.newKeySet();
+        /** Chunks handed out URLs for. */
+        final Set<String> uploaded = ConcurrentHashMap.newKeySet();
+
+        StashChunkUrls(StashCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public URL chunkUrl(String digest) throws IOException {
+            if (!ArtifactManifest.isDigest(digest)) {
+                throw new AbortException("Invalid chunk digest " + digest);
+            }
+            if (!seen.add(digest)) {
+                return null;
+            }
+            try (BlobStoreContext context = getContext()) {
+                BlobStore blobStore = context.getBlobStore();
+                // an older one may be about to be collected, so store it again
+                if (ContentCollector.reusable(blobStore.blobMetadata(provider.getContainer(), getBlobPath(ArtifactManifest.CAS_KEY, StashIndex.chunkName(digest, codec))))) {
+                    return null;
+                }
+                Blob blob = blobStore.blobBuilder(getBlobPath(ArtifactManifest.CAS_KEY, StashIndex.chunkName(digest, codec))).build();
+                blob.getMetadata().setContainer(provider.getContainer());
+                blob.getMetadata().getContentMetadata().setContentType(codec.contentType);
+                uploaded.add(digest);
+                return provider.toExternalURL(blob, HttpMethod.PUT, digest);
+            } catch (RuntimeException x) {
+                throw new IOException(x);
+            }
+        }
+    }
+
+    private static DirScanner scanner(String includes, String excludes, boolean useDefaultExcludes) {
+        return new DirScanner.Glob(Util.fixEmpty(includes) == null ? "**" : includes, excludes, useDefaultExcludes);
+    }
+
+    /**
+     * Packs files as a stash.
+     * @return the number of files
+     */
+    private static int archive(File f, OutputStream os, String includes, String excludes, boolean useDefaultExcludes, boolean allowEmpty, StashCodec codec, int compressionThreads, int compressionLevel) throws IOException, InterruptedException {
+        // (we prefer not to upload individual files for stashes, so as to preserve symlinks & file permissions, as StashManager’s default does)
+        int threads = compressionThreads > 0 ? compressionThreads : Runtime.getRuntime().availableProcessors();
+        int count;
+        try {
+            count = new FilePath(f).archive(ArchiverFactory.TAR, codec.encode(os, threads, compressionLevel), scanner(includes, excludes, useDefaultExcludes));
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        }
+        if (count == 0 && !allowEmpty) {
+            throw new AbortException("No files included in stash");
+        }
+        return count;
+    }
+
+    /**
+     * Starts a multipart upload of a stash once the agent finds it does not fit in one part.
+     * Called back from the agent; each call goes through the provider, which obtains its clients as needed,
+     * so nothing here depends on a context lease outliving the remote call.
+     */
+    private static final class StashPartUrls implements MultipartUpload.PartUrls {
+        private final BlobStoreProvider provider;
+        private final Blob blob;
+        private MultipartUpload upload;
+
+        StashPartUrls(BlobStoreProvider provider, Blob blob) {
+            this.provider = provider;
+            this.blob = blob;
+        }
+
+        @Override
+        public synchronized URL partUrl(int partNumber) throws IOException {
+            if (upload == null) {
+                upload = provider.initiateMultipartUpload(blob, -1, MULTIPART_PART_SIZE);
+                LOGGER.fine(() -> "started multipart upload " + upload);
+            }
+            return provider.presignMultipartUploadPart(upload, partNumber);
+        }
+
+        /**
+         * @param etags as in {@link MultipartOutputStream#getEtags}
+         */
+        synchronized void complete(@CheckForNull List<String> etags) throws IOException {
+            if (etags != null) {
+                if (upload == null) {
+                    throw new IllegalStateException("No multipart upload was started");
+                }
+                provider.completeMultipartUpload(upload, etags);
+                upload = null;
+            }
+        }
+
+        synchronized void abortIfPending() {
+            if (upload != null) {
+                try {
+                    provider.abortMultipartUpload(upload);
+                } catch (IOException | RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "Failed to abort " + upload, x);
+                }
+                upload = null;
+            }
         }
-        workspace.act(new Stash(url, provider.toURI(provider.getContainer(), path), includes, excludes, useDefaultExcludes, allowEmpty, tempDir.getRemote(), listener));
     }
 
-    private static final class Stash extends MasterToSlaveFileCallable<Void> {
+    private static final class ChooseStashCodec extends MasterToSlaveFileCallable<StashCodec> {
+        private static final long serialVersionUID = 1L;
+        private final String includes, excludes;
+        private final boolean useDefaultExcludes;
+
+        ChooseStashCodec(String includes, String excludes, boolean useDefaultExcludes) {
+            this.includes = includes;
+            this.excludes = excludes;
+            this.useDefaultExcludes = useDefaultExcludes;
+        }
+
+        @Override
+        public StashCodec invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            try {
+                return StashCodec.choose(f, scanner(includes, excludes, useDefaultExcludes));
+            } catch (InvalidPathException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static final class StashResult implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final int count;
+        @CheckForNull
+        final List<String> etags;
+        /** Copy of the stash in the {@link StashCache}, if any. */
+        @CheckForNull
+        final String cached;
+        StashResult(int count, List<String> etags, String cached) {
+            this.count = count;
+            this.etags = etags;
+            this.cached = cached;
+        }
+    }
+
+    /**
+     * Packs a stash and uploads it while it is being packed.
+     */
+    private static final class Stash extends MasterToSlaveFileCallable<StashResult> {
         private static final long serialVersionUID = 1L;
-        private final URL url;
-        private final URI uri;
         private final String includes, excludes;
         private final boolean useDefaultExcludes;
         private final boolean allowEmpty;
-        private final String tempDir;
+        private final StashCodec codec;
+        private final URL url;
+        @SuppressFBWarnings(value = "SE_BAD_FIELD", justification = "Exported proxy when remote; not serialized when local.")
+        private final MultipartUpload.PartUrls partUrls;
         private final TaskListener listener;
         private final RobustHTTPClient client = JCloudsArtifactManager.client;
+        private final int partSize = (int) Math.min(MULTIPART_PART_SIZE, MultipartOutputStream.MAX_PART_SIZE);
+        private final int concurrency = MULTIPART_CONCURRENCY;
+        private final int compressionThreads = STASH_COMPRESSION_THREADS;
+        private final int compressionLevel = STASH_COMPRESSION_LEVEL;
+        private final long cacheSize = STASH_CACHE_SIZE;
 
-        Stash(URL url, URI uri, String includes, String excludes, boolean useDefaultExcludes, boolean allowEmpty, String tempDir, TaskListener listener) throws IOException {
-            /** Actual destination as a presigned URL. */
-            this.url = url;
-            /** Logical location for display purposes only. */
-            this.uri = uri;
+        Stash(String includes, String excludes, boolean useDefaultExcludes, boolean allowEmpty, StashCodec codec, URL url, MultipartUpload.PartUrls partUrls, TaskListener listener) {
             this.includes = includes;
             this.excludes = excludes;
             this.useDefaultExcludes = useDefaultExcludes;
             this.allowEmpty = allowEmpty;
-            this.tempDir = tempDir;
+            this.codec = codec;
+            this.url = url;
+            this.partUrls = partUrls;
             this.listener = listener;
         }
 
+        @Override
+        public StashResult invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            MultipartOutputStream os = new MultipartOutputStream(client, url, codec.contentType, partUrls, partSize, concurrency, "stash of " + f, listener);
+            // Keep a copy in case the stash is unstashed on this agent.
+            StashCache.Capture capture = cacheSize > 0 ? StashCache.get(cacheSize).capture(os) : null;
+            boolean ok = false;
+            try {
+                int count = archive(f, capture != null ? capture : os, includes, excludes, useDefaultExcludes, allowEmpty, codec, compressionThreads, compressionLevel);
+                os.finish();
+                ok = true;
+                File cached = capture != null ? capture.getFile() : null;
+                return new StashResult(count, os.getEtags(), cached != null ? cached.getAbsolutePath() : null);
+            } finally {
+                if (!ok) {
+                    os.abort();
+                    if (capture != null) {
+                        capture.discard();
+                    }
+                }
+                listener.getLogger().flush();
+            }
+        }
+    }
+
+    /**
+     * Adds a copy of a stash just uploaded to the {@link StashCache} of the agent.
+     */
+    private static final class CacheStash extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final String etag;
+        private final String file;
+        private final long cacheSize = STASH_CACHE_SIZE;
+
+        /**
+         * @param etag null if the upload failed
+         */
+        CacheStash(String name, @CheckForNull String etag, String file) {
+            this.name = name;
+            this.etag = etag;
+            this.file = file;
+        }
+
         @Override
         public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
-            // TODO use streaming upload rather than a temp file; is it necessary to set the content length in advance?
-            // (we prefer not to upload individual files for stashes, so as to preserve symlinks & file permissions, as StashManager’s default does)
+            StashCache.get(cacheSize).adopt(name, etag, new File(file));
+            return null;
+        }
+    }
+
+    /**
+     * Packs a stash, cuts it into chunks and uploads those which are new, each compressed separately.
+     */
+    private static final class ChunkedStash extends MasterToSlaveFileCallable<StashIndex> {
+        private static final long serialVersionUID = 1L;
+        private final String includes, excludes;
+        private final boolean useDefaultExcludes;
+        private final boolean allowEmpty;
+        private final StashCodec codec;
+        @SuppressFBWarnings(value = "SE_BAD_FIELD", justification = "Exported proxy when remote; not serialized when local.")
+        private final StashIndex.ChunkUrls chunkUrls;
+        private final TaskListener listener;
+        private final RobustHTTPClient client = JCloudsArtifactManager.client;
+        private final int concurrency = MULTIPART_CONCURRENCY;
+        private final int compressionLevel = STASH_COMPRESSION_LEVEL;
+
+        ChunkedStash(String includes, String excludes, boolean useDefaultExcludes, boolean allowEmpty, StashCodec codec, StashIndex.ChunkUrls chunkUrls, TaskListener listener) {
+            this.includes = includes;
+            this.excludes = excludes;
+            this.useDefaultExcludes = useDefaultExcludes;
+            this.allowEmpty = allowEmpty;
+            this.codec = codec;
+            this.chunkUrls = chunkUrls;
+            this.listener = listener;
+        }
+
+        @Override
+        public StashIndex invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            StashIndex index = new StashIndex(codec);
+            // at most this many chunks in memory besides the one being filled
+            Semaphore permits = new Semaphore(Math.max(1, concurrency));
+            List<Future<StashIndex.Chunk>> uploads = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency), new NamingThreadFactory(new DaemonThreadFactory(), "ChunkedStash"));
+            try {
+                ChunkingOutputStream os = new ChunkingOutputStream((data, length) -> {
+                    try {
+                        for (Future<StashIndex.Chunk> upload : uploads) {
+                            if (upload.isDone()) {
+                                get(upload); // fail fast
+                            }
+                        }
+                        permits.acquire();
+                    } catch (InterruptedException x) {
+                        throw (IOException) new InterruptedIOException().initCause(x);
+                    }
+                    uploads.add(executor.submit(() -> {
+                        try {
+                            return uploadChunk(data, length);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                });
+                // each chunk is compressed by itself, so that it does not depend on what precedes it
+                index.count = archive(f, os, includes, excludes, useDefaultExcludes, allowEmpty, StashCodec.NONE, 1, compressionLevel);
+                for (Future<StashIndex.Chunk> upload : uploads) {
+                    index.chunks.add(get(upload));
+                }
+                return index;
+            } finally {
+                executor.shutdownNow();
+                listener.getLogger().flush();
+            }
+        }
+
+        /**
+         * Compresses a chunk and uploads it unless already stored.
+         * Chunks are named by the digest of their compressed form, which the store checks on upload,
+         * so the same data compressed the same way is stored only once.
+         */
+        private StashIndex.Chunk uploadChunk(byte[] data, int length) throws IOException, InterruptedException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(length / 2 + 64);
+            try (OutputStream os = codec.encode(baos, 1, compressionLevel)) {
+                os.write(data, 0, length);
+            }
+            byte[] compressed = baos.toByteArray();
+            String digest = digest(compressed, compressed.length);
+            StashIndex.Chunk chunk = new StashIndex.Chunk(digest, length);
+            URL url = chunkUrls.chunkUrl(digest);
+            if (url == null) {
+                return chunk;
+            }
+            client.connect("upload", "upload chunk " + digest + " to " + RobustHTTPClient.sanitize(url), c -> {
+                HttpPut put = new HttpPut(url.toString());
+                put.setHeader(BlobStoreProvider.CHECKSUM_HEADER, BlobStoreProvider.checksumHeaderValue(digest));
+                ByteArrayEntity entity = new ByteArrayEntity(compressed);
+                entity.setContentType(codec.contentType);
+                put.setEntity(entity);
+                return c.execute(put);
+            }, response -> {}, listener);
+            return chunk;
+        }
+    }
+
+    static String digest(byte[] data, int length) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException x) {
+            throw new AssertionError(x);
+        }
+        digest.update(data, 0, length);
+        return Util.toHexString(digest.digest());
+    }
+
+    /** A stash packed into a temporary file on the agent. */
+    private static final class StashFile implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final String name;
+        final int count;
+        StashFile(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Packs a stash into a temporary file, for providers unable to upload it while packing.
+     */
+    private static final class StashToFile extends MasterToSlaveFileCallable<StashFile> {
+        private static final long serialVersionUID = 1L;
+        private final String includes, excludes;
+        private final boolean useDefaultExcludes;
+        private final boolean allowEmpty;
+        private final StashCodec codec;
+        private final String tempDir;
+        private final int compressionThreads = STASH_COMPRESSION_THREADS;
+        private final int compressionLevel = STASH_COMPRESSION_LEVEL;
+
+        StashToFile(String includes, String excludes, boolean useDefaultExcludes, boolean allowEmpty, StashCodec codec, String tempDir) {
+            this.includes = includes;
+            this.excludes = excludes;
+            this.useDefaultExcludes = useDefaultExcludes;
+            this.allowEmpty = allowEmpty;
+            this.codec = codec;
+            this.tempDir = tempDir;
+        }
+
+        @Override
+        public StashFile invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
             Path tempDirP = Paths.get(tempDir);
             Files.createDirectories(tempDirP);
-            Path tmp = Files.createTempFile(tempDirP, "stash", ".tgz");
+            Path tmp = Files.createTempFile(tempDirP, "stash", ".tmp");
+            boolean ok = false;
             try {
                 int count;
                 try (OutputStream os = Files.newOutputStream(tmp)) {
-                    count = new FilePath(f).archive(ArchiverFactory.TARGZ, os, new DirScanner.Glob(Util.fixEmpty(includes) == null ? "**" : includes, excludes, useDefaultExcludes));
-                } catch (InvalidPathException e) {
-                    throw new IOException(e);
+                    count = archive(f, os, includes, excludes, useDefaultExcludes, allowEmpty, codec, compressionThreads, compressionLevel);
                 }
-                if (count == 0 && !allowEmpty) {
-                    throw new AbortException("No files included in stash");
-                }
-                client.uploadFile(tmp.toFile(), url, listener);
-                listener.getLogger().printf("Stashed %d file(s) to %s%n", count, uri);
-                return null;
+                ok = true;
+                return new StashFile(tmp.getFileName().toString(), count);
             } finally {
-                listener.getLogger().flush();
-                Files.delete(tmp);
+                if (!ok) {
+                    Files.delete(tmp);
+                }
             }
         }
     }
 
     @Override
     public void unstash(String name, FilePath workspace, Launcher launcher, EnvVars env, TaskListener listener) throws IOException, InterruptedException {
-        BlobStore blobStore = getContext().getBlobStore();
-
         // Map stash to url for download
         String blobPath = getBlobPath("stashes/" + name + ".tgz");
-        Blob blob = blobStore.getBlob(provider.getContainer(), blobPath);
-        if (blob == null) {
+        BlobMetadata metadata = null;
+        Blob blob = null;
+        try (BlobStoreContext context = getContext()) {
+            // stashes of this build shadow those of a build it refers to
+            for (String stashKey : stashesFrom != null ? List.of(key, stashesFrom) : List.of(key)) {
+                String path = getBlobPath(stashKey, "stashes/" + name + ".tgz");
+                // HEAD, as the agent downloads the contents
+                try {
+                    metadata = context.getBlobStore().blobMetadata(provider.getContainer(), path);
+                } catch (RuntimeException x) {
+                    throw new IOException(x);
+                }
+                if (metadata != null) {
+                    blobPath = path;
+                    blob = context.getBlobStore().blobBuilder(path).build();
+                    blob.getMetadata().setContainer(provider.getContainer());
+                    break;
+                }
+                String indexPath = getBlobPath(stashKey, "stashes/" + name + StashIndex.SUFFIX);
+                StashIndex index = StashIndex.read(context.getBlobStore(), provider.getContainer(), indexPath);
+                if (index != null) {
+                    unstashChunks(index, context.getBlobStore(), workspace, listener);
+                    listener.getLogger().printf("Unstashed %d file(s) from %s%n", index.count, provider.toURI(provider.getContainer(), indexPath));
+                    return;
+                }
+            }
+        }
+        if (metadata == null) {
             throw new AbortException(
                     String.format("No such saved stash ‘%s’ found at %s/%s", name, provider.getContainer(), blobPath));
         }
         URL url = provider.toExternalURL(blob, HttpMethod.GET);
-        workspace.act(new Unstash(url, listener));
+        StashCodec codec = StashCodec.forContentType(metadata.getContentMetadata().getContentType());
+        Long length = metadata.getContentMetadata().getContentLength();
+        workspace.act(new Unstash(url, length != null ? length : -1, codec, provider.toURI(provider.getContainer(), blobPath).toString(), metadata.getETag(), listener));
         listener.getLogger().printf("Unstashed file(s) from %s%n", provider.toURI(provider.getContainer(), blobPath));
     }
 
+    /**
+     * Unstashes in {@link #STASH_CHUNKING} mode.
+     */
+    private void unstashChunks(StashIndex index, BlobStore blobStore, FilePath workspace, TaskListener listener) throws IOException, InterruptedException {
+        List<String> digests = new ArrayList<>();
+        List<URL> urls = new ArrayList<>();
+        for (StashIndex.Chunk chunk : index.chunks) {
+            Blob blob = blobStore.blobBuilder(getBlobPath(ArtifactManifest.CAS_KEY, StashIndex.chunkName(chunk.digest, index.codec))).build();
+            blob.getMetadata().setContainer(provider.getContainer());
+            digests.add(chunk.digest);
+            urls.add(provider.toExternalURL(blob, HttpMethod.GET));
+        }
+        workspace.act(new ChunkedUnstash(digests, urls, index.codec, listener));
+    }
+
+    /**
+     * Downloads the chunks of a stash in parallel and unpacks them in order.
+     */
+    private static final class ChunkedUnstash extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+        private final List<String> digests;
+        private final List<URL> urls;
+        private final StashCodec codec;
+        private final TaskListener listener;
+        private final RobustHTTPClient client = JCloudsArtifactManager.client;
+        private final int concurrency = UNSTASH_CONCURRENCY;
+
+        ChunkedUnstash(List<String> digests, List<URL> urls, StashCodec codec, TaskListener listener) {
+            this.digests = digests;
+            this.urls = urls;
+            this.codec = codec;
+            this.listener = listener;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            Iterator<String> digestIt = digests.iterator();
+            Iterator<URL> urlIt = urls.iterator();
+            Iterator<Callable<byte[]>> chunks = new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return urlIt.hasNext();
+                }
+
+                @Override
+                public Callable<byte[]> next() {
+                    String digest = digestIt.next();
+                    URL url = urlIt.next();
+                    return () -> fetch(digest, url);
+                }
+            };
+            try (InputStream is = new PrefetchInputStream(chunks, concurrency, "ChunkedUnstash")) {
+                new FilePath(f).untarFrom(is, FilePath.TarCompression.NONE);
+            } finally {
+                listener.getLogger().flush();
+            }
+            return null;
+        }
+
+        private byte[] fetch(String digest, URL url) throws IOException, InterruptedException {
+            byte[][] data = new byte[1][];
+            client.connect("download", "download chunk " + digest + " from " + RobustHTTPClient.sanitize(url), c -> c.execute(new HttpGet(url.toString())), response -> {
+                byte[] compressed;
+                try (InputStream is = response.getEntity().getContent()) {
+                    compressed = is.readAllBytes();
+                }
+                if (!digest(compressed, compressed.length).equals(digest)) {
+                    throw new IOException("Chunk " + digest + " is corrupt");
+                }
+                try (InputStream is = codec.decode(new ByteArrayInputStream(compressed))) {
+                    data[0] = is.readAllBytes();
+                }
+            }, listener);
+            return data[0];
+        }
+    }
+
     private static final class Unstash extends MasterToSlaveFileCallable<Void> {
         private static final long serialVersionUID = 1L;
         private final URL url;
+        private final long length;
+        private final StashCodec codec;
+        private final String name;
+        private final String etag;
         private final TaskListener listener;
         private final RobustHTTPClient client = JCloudsArtifactManager.client;
+        private final int concurrency = UNSTASH_CONCURRENCY;
+        private final int chunkSize = UNSTASH_CHUNK_SIZE;
+        private final long cacheSize = STASH_CACHE_SIZE;
 
-        Unstash(URL url, TaskListener listener) throws IOException {
+        /**
+         * @param length size of the stash, or -1 if unknown
+         * @param name location of the stash, to look it up in the {@link StashCache}
+         * @param etag entity tag of the stash, or null if unknown
+         */
+        Unstash(URL url, long length, StashCodec codec, String name, @CheckForNull String etag, TaskListener listener) throws IOException {
             this.url = url;
+            this.length = length;
+            this.codec = codec;
+            this.name = name;
+            this.etag = etag;
             this.listener = listener;
         }
 
         @Override
         public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
             try {
-                client.connect("download", "download " + RobustHTTPClient.sanitize(url) + " into " + f, c -> c.execute(new HttpGet(url.toString())), response -> {
-                    try (InputStream is = response.getEntity().getContent()) {
-                        new FilePath(f).untarFrom(is, FilePath.TarCompression.GZIP);
-                        // Note that this API currently offers no count of files in the tarball we could report.
+                if (cacheSize > 0 && etag != null && length >= 0 && length <= cacheSize) {
+                    try (StashCache.Lease lease = StashCache.get(cacheSize).acquire(name, etag, file -> download(file.toString(), is -> Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING)));
+                         InputStream is = Files.newInputStream(lease.getFile().toPath())) {
+                        new FilePath(f).untarFrom(codec.decode(is), FilePath.TarCompression.NONE);
                     }
-                }, listener);
+                } else {
+                    download(f.toString(), is -> new FilePath(f).untarFrom(codec.decode(is), FilePath.TarCompression.NONE));
+                    // Note that this API currently offers no count of files in the tarball we could report.
+                }
             } finally {
                 listener.getLogger().flush();
             }
             return null;
         }
+
+        /**
+         * Downloads the stash, with concurrent range requests if it is large.
+         * @param user may be called again if the download is retried
+         */
+        private void download(String destination, StreamUser user) throws IOException, InterruptedException {
+            if (concurrency > 1 && chunkSize > 0 && length > chunkSize) {
+                try (InputStream is = new RangedInputStream(client, url, length, chunkSize, concurrency, "stash", listener)) {
+                    user.use(is);
+                }
+                return;
+            }
+            client.connect("download", "download " + RobustHTTPClient.sanitize(url) + " into " + destination, c -> c.execute(new HttpGet(url.toString())), response -> {
+                try (InputStream is = response.getEntity().getContent()) {
+                    user.use(is);
+                }
+            }, listener);
+        }
+
+        @FunctionalInterface
+        private interface StreamUser {
+            void use(InputStream is) throws IOException, InterruptedException;
+        }
     }
 
     @Override
@@ -328,18 +1737,33 @@ public final class JCloudsArtifactManager extends ArtifactManager implements Sta
             return;
         }
 
-        BlobStore blobStore = getContext().getBlobStore();
-        int count = 0;
-        try {
-            for (StorageMetadata sm : BlobStores.listAll(blobStore, provider.getContainer(), ListContainerOptions.Builder.prefix(stashPrefix).recursive())) {
-                String path = sm.getName();
-                assert path.startsWith(stashPrefix);
-                LOGGER.fine("deleting " + path);
-                blobStore.removeBlob(provider.getContainer(), path);
-                count++;
+        int count;
+        try (BlobStoreContext context = getContext()) {
+            BlobStore blobStore = context.getBlobStore();
+            count = 0;
+            if (referenced && isReferenced(blobStore, key)) {
+                // left for the last build referring to this one to delete, unless it released this one meanwhile
+                LOGGER.log(Level.FINE, "Deferring deletion of stashes under {0}, which are referred to by other builds", stashPrefix);
+                try {
+                    blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder(getBlobPath(STASHES_TOMBSTONE)).payload(new byte[0]).build());
+                    if (!isReferenced(blobStore, key)) {
+                        count = new BlobDeleter(provider, blobStore).deleteAll(stashPrefix);
+                        blobStore.removeBlob(provider.getContainer(), getBlobPath(STASHES_TOMBSTONE));
+                    }
+                } catch (RuntimeException x) {
+                    throw new IOException(x);
+                }
+            } else {
+                count = new BlobDeleter(provider, blobStore).deleteAll(stashPrefix);
+            }
+            if (stashesFrom != null) {
+                String origin = stashesFrom;
+                stashesFrom = null;
+                save();
+                if (!origin.equals(artifactsFrom)) {
+                    release(blobStore, origin);
+                }
             }
-        } catch (RuntimeException x) {
-            throw new IOException(x);
         }
         listener.getLogger().printf("Deleted %d stash(es) from %s%n", count, provider.toURI(provider.getContainer(), stashPrefix));
     }
@@ -351,22 +1775,99 @@ public final class JCloudsArtifactManager extends ArtifactManager implements Sta
             throw new AbortException("Cannot copy artifacts and stashes to " + to + " using " + am.getClass().getName());
         }
         JCloudsArtifactManager dest = (JCloudsArtifactManager) am;
+        if (contentAddressed) {
+            // the manifest is copied along with everything else
+            dest.contentAddressed = true;
+        }
         String allPrefix = getBlobPath("");
-        BlobStore blobStore = getContext().getBlobStore();
-        int count = 0;
+        try (BlobStoreContext context = getContext()) {
+            BlobStore blobStore = context.getBlobStore();
+            if (REFERENCE_COPIES) {
+                // refer to where the artifacts and stashes of this build really are
+                dest.artifactsFrom = artifactsFrom != null ? artifactsFrom : key;
+                if (stashesFrom == null) {
+                    dest.stashesFrom = key;
+                } else {
+                    // own stashes shadow those referred to, and only one build can be referred to for stashes
+                    copyBlobs(blobStore, Map.of(getBlobPath("stashes/"), dest.getBlobPath("stashes/")), listener);
+                    dest.stashesFrom = stashesFrom;
+                }
+                try {
+                    for (String origin : dest.origins()) {
+                        dest.addReference(blobStore, origin);
+                    }
+                } catch (IOException x) {
+                    for (String origin : dest.origins()) {
+                        dest.release(blobStore, origin);
+                    }
+                    dest.artifactsFrom = null;
+                    dest.stashesFrom = null;
+                    throw x;
+                }
+                to.save();
+                listener.getLogger().printf("Referred to artifact(s)/stash(es) at %s from %s%n", provider.toURI(provider.getContainer(), getBlobPath(dest.artifactsFrom, "")), provider.toURI(provider.getContainer(), dest.getBlobPath("")));
+                return;
+            }
+            Map<String, String> prefixes = new LinkedHashMap<>();
+            prefixes.put(allPrefix, dest.getBlobPath(""));
+            if (artifactsFrom != null) {
+                prefixes.put(getBlobPath(artifactsFrom, "artifacts"), dest.getBlobPath("artifacts"));
+            }
+            if (stashesFrom != null) {
+                prefixes.put(getBlobPath(stashesFrom, "stashes/"), dest.getBlobPath("stashes/"));
+            }
+            int count = copyBlobs(blobStore, prefixes, listener);
+            listener.getLogger().printf("Copied %d artifact(s)/stash(es) from %s to %s%n", count, provider.toURI(provider.getContainer(), allPrefix), provider.toURI(provider.getContainer(), dest.getBlobPath("")));
+        }
+    }
+
+    /**
+     * Copies blobs on the server side, in parallel, largest first.
+     * @param prefixes prefixes to copy from, mapped to the corresponding destination prefixes;
+     *                 a blob is not copied to a destination already copied to from an earlier prefix
+     * @return the number of blobs copied
+     */
+    private int copyBlobs(BlobStore blobStore, Map<String, String> prefixes, TaskListener listener) throws IOException, InterruptedException {
+        List<Task> tasks = new ArrayList<>();
+        Set<String> destPaths = new HashSet<>();
+        AtomicInteger copied = new AtomicInteger();
+        long[] lastReport = {System.currentTimeMillis()};
         try {
-            for (StorageMetadata sm : BlobStores.listAll(blobStore, provider.getContainer(), ListContainerOptions.Builder.prefix(allPrefix).recursive())) {
-                String path = sm.getName();
-                assert path.startsWith(allPrefix);
-                String destPath = getBlobPath(dest.key, path.substring(allPrefix.length()));
-                LOGGER.fine("copying " + path + " to " + destPath);
-                blobStore.copyBlob(provider.getContainer(), path, provider.getContainer(), destPath, CopyOptions.NONE);
-                count++;
+            for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+                String fromPrefix = entry.getKey();
+                for (StorageMetadata sm : BlobStores.listAll(blobStore, provider.getContainer(), ListContainerOptions.Builder.prefix(fromPrefix).recursive())) {
+                    String path = sm.getName();
+                    assert path.startsWith(fromPrefix);
+                    String relative = path.substring(fromPrefix.length());
+                    if (relative.startsWith(REFS) || relative.equals(TOMBSTONE) || relative.equals(STASHES_TOMBSTONE)) {
+                        // bookkeeping of the source build
+                        continue;
+                    }
+                    String destPath = entry.getValue() + relative;
+                    if (!destPaths.add(destPath)) {
+                        continue;
+                    }
+                    long size = sm.getSize() != null ? sm.getSize() : -1;
+                    tasks.add(new Task(size, () -> {
+                        LOGGER.fine("copying " + path + " to " + destPath);
+                        provider.copyBlob(blobStore, path, destPath, size);
+                        int n = copied.incrementAndGet();
+                        synchronized (lastReport) {
+                            long now = System.currentTimeMillis();
+                            if (now - lastReport[0] >= COPY_PROGRESS_INTERVAL_MILLIS) {
+                                lastReport[0] = now;
+                                listener.getLogger().printf("Copied %d of %d artifact(s)/stash(es)%n", n, tasks.size());
+                            }
+                        }
+                    }));
+                }
             }
+            // server-side copies take little bandwidth here, so many may run at once
+            run(tasks, COPY_CONCURRENCY, "JCloudsArtifactManager.copy");
         } catch (RuntimeException x) {
             throw new IOException(x);
         }
-        listener.getLogger().printf("Copied %d artifact(s)/stash(es) from %s to %s%n", count, provider.toURI(provider.getContainer(), allPrefix), provider.toURI(provider.getContainer(), dest.getBlobPath("")));
+        return copied.get();
     }
 
     private BlobStoreContext getContext() throws IOException {
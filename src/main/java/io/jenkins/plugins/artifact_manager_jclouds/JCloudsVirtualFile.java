@@ -27,10 +27,13 @@ package io.jenkins.plugins.artifact_manager_jclouds;
 import static org.jclouds.blobstore.options.ListContainerOptions.Builder.*;
 
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -47,8 +50,10 @@ import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.BlobStores;
 import org.jclouds.blobstore.domain.Blob;
-import org.jclouds.blobstore.domain.MutableBlobMetadata;
+import org.jclouds.blobstore.domain.BlobMetadata;
 import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.GetOptions;
 import org.jclouds.blobstore.options.ListContainerOptions;
 import org.jclouds.rest.AuthorizationException;
 import org.kohsuke.accmod.Restricted;
@@ -56,7 +61,6 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import hudson.AbortException;
 import hudson.remoting.Callable;
@@ -79,37 +83,51 @@ public class JCloudsVirtualFile extends VirtualFile {
     private final String container;
     @NonNull
     private final String key;
+    /** Size and modification time, if known; {@link #NOT_FOUND} if known not to be a file. */
     @CheckForNull
-    private transient Blob blob;
-
-    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED",
-            justification = "This field is expected to be loaded by a provider instead of deserialization.")
+    private transient CachedMetadata metadata;
+    /** Whether this is known to be a directory, from a listing of its parent. */
+    private transient boolean knownDirectory;
+    /** {@link #key} of the root of an {@link ArtifactManifest}, if files are to be looked up there rather than listed directly */
+    @CheckForNull
+    private final String manifestRoot;
     @CheckForNull
-    private transient BlobStoreContext context;
+    private transient ArtifactManifest manifest;
 
     public JCloudsVirtualFile(@NonNull BlobStoreProvider provider, @NonNull String container, @NonNull String key) {
+        this(provider, container, key, null);
+    }
+
+    private JCloudsVirtualFile(@NonNull BlobStoreProvider provider, @NonNull String container, @NonNull String key, @CheckForNull String manifestRoot) {
         this.provider = provider;
         this.container = container;
         this.key = key;
+        this.manifestRoot = manifestRoot;
         assert !key.isEmpty();
         assert !key.startsWith("/");
         assert !key.endsWith("/");
     }
 
     private JCloudsVirtualFile(@NonNull JCloudsVirtualFile related, @NonNull String key) {
-        this(related.provider, related.container, key);
-        context = related.context;
+        this(related.provider, related.container, key, related.manifestRoot);
+        manifest = related.manifest;
+    }
+
+    /**
+     * Creates the root of artifacts archived in content-addressable mode.
+     * @param key the artifacts directory; the manifest is expected alongside, but files directly inside are also found
+     */
+    static JCloudsVirtualFile withManifest(@NonNull BlobStoreProvider provider, @NonNull String container, @NonNull String key) {
+        return new JCloudsVirtualFile(provider, container, key, key);
     }
 
     /**
-     * Build jclouds blob context that is the base for all operations
+     * Build jclouds blob context that is the base for all operations.
+     * The caller should close it when done.
      */
     @Restricted(NoExternalUse.class) // testing only
     BlobStoreContext getContext() throws IOException {
-        if (context == null) {
-            context = provider.getContext();
-        }
-        return context;
+        return provider.getContext();
     }
 
     private String getContainer() {
@@ -131,16 +149,63 @@ public class JCloudsVirtualFile extends VirtualFile {
         return key.replaceFirst(".+/", "");
     }
 
-    private Blob getBlob() throws IOException {
-        if (blob == null) {
-            LOGGER.log(Level.FINE, "checking for existence of blob {0} / {1}", new Object[] {container, key});
-            blob = getContext().getBlobStore().getBlob(getContainer(), getKey());
-            if (blob == null) {
-                blob = getContext().getBlobStore().blobBuilder(getKey()).build();
-                blob.getMetadata().setContainer(getContainer());
+    /**
+     * Path of this file relative to {@link #manifestRoot}, or {@code ""} for the root itself.
+     * @return null unless using a manifest
+     */
+    @CheckForNull
+    private String manifestPath() {
+        if (manifestRoot == null) {
+            return null;
+        }
+        return key.equals(manifestRoot) ? "" : key.substring(manifestRoot.length() + 1);
+    }
+
+    private ArtifactManifest getManifest() throws IOException {
+        if (manifest == null) {
+            LOGGER.log(Level.FINE, "loading manifest of {0} / {1}", new Object[] {container, manifestRoot});
+            try (BlobStoreContext context = getContext()) {
+                manifest = ArtifactManifest.load(context.getBlobStore(), getContainer(), manifestRoot);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * The key where the contents of this file are actually stored.
+     */
+    private String getStorageKey() throws IOException {
+        String path = manifestPath();
+        if (path != null) {
+            ArtifactManifest.Entry entry = getManifest().get(path);
+            if (entry != null && entry.digest != null) {
+                return String.format("%s%s/artifacts/%s", provider.getPrefix(), ArtifactManifest.CAS_KEY, ArtifactManifest.casName(entry.digest, path));
             }
         }
-        return blob;
+        return key;
+    }
+
+    /**
+     * Looks up the size and modification time with a {@code HEAD} request, unless already known.
+     */
+    private CachedMetadata getMetadata() throws IOException {
+        if (metadata == null) {
+            String storageKey = getStorageKey();
+            LOGGER.log(Level.FINE, "checking for existence of blob {0} / {1}", new Object[] {container, storageKey});
+            BlobMetadata blobMetadata;
+            try (BlobStoreContext context = getContext()) {
+                blobMetadata = context.getBlobStore().blobMetadata(getContainer(), storageKey);
+            } catch (RuntimeException x) {
+                throw new IOException(x);
+            }
+            if (blobMetadata == null || blobMetadata.getSize() == null) {
+                metadata = NOT_FOUND;
+            } else {
+                Date lastModified = blobMetadata.getLastModified();
+                metadata = new CachedMetadata(blobMetadata.getSize(), lastModified != null ? lastModified.getTime() : 0);
+            }
+        }
+        return metadata;
     }
 
     @Override
@@ -150,7 +215,13 @@ public class JCloudsVirtualFile extends VirtualFile {
 
     @Override
     public URL toExternalURL() throws IOException {
-        return provider.toExternalURL(getBlob(), HttpMethod.GET);
+        // signing needs no request
+        Blob blob;
+        try (BlobStoreContext context = getContext()) {
+            blob = context.getBlobStore().blobBuilder(getStorageKey()).build();
+        }
+        blob.getMetadata().setContainer(getContainer());
+        return provider.toExternalURL(blob, HttpMethod.GET);
     }
 
     @Override
@@ -161,28 +232,39 @@ public class JCloudsVirtualFile extends VirtualFile {
 
     @Override
     public boolean isDirectory() throws IOException {
+        String path = manifestPath();
+        if (path != null) {
+            return getManifest().isDirectory(path);
+        }
         String keyS = key + "/";
         CacheFrame frame = findCacheFrame(keyS);
         if (frame != null) {
             LOGGER.log(Level.FINER, "cache hit on directory status of {0} / {1}", new Object[] {container, key});
-            String relSlash = keyS.substring(frame.root.length()); // "" or "sub/dir/"
-            return frame.children.keySet().stream().anyMatch(f -> f.startsWith(relSlash));
+            return frame.hasDescendants(keyS.substring(frame.root.length()));
+        }
+        if (knownDirectory) {
+            return true;
         }
         LOGGER.log(Level.FINE, "checking directory status {0} / {1}", new Object[] {container, key});
-        return !getContext().getBlobStore().list(getContainer(), prefix(key + "/")).isEmpty();
+        try (BlobStoreContext context = getContext()) {
+            return !context.getBlobStore().list(getContainer(), prefix(key + "/")).isEmpty();
+        }
     }
 
     @Override
     public boolean isFile() throws IOException {
+        String path = manifestPath();
+        if (path != null) {
+            return getManifest().get(path) != null;
+        }
         CacheFrame frame = findCacheFrame(key);
         if (frame != null) {
             String rel = key.substring(frame.root.length());
-            CachedMetadata metadata = frame.children.get(rel);
+            CachedMetadata metadata = frame.get(rel);
             LOGGER.log(Level.FINER, "cache hit on file status of {0} / {1}", new Object[] {container, key});
             return metadata != null;
         }
-        LOGGER.log(Level.FINE, "checking file status {0} / {1}", new Object[] {container, key});
-        return getBlob().getMetadata().getSize() != null;
+        return getMetadata() != NOT_FOUND;
     }
 
     @Override
@@ -196,32 +278,34 @@ public class JCloudsVirtualFile extends VirtualFile {
      * @return some blobs
      * @throws RuntimeException either now or when the stream is processed; wrap in {@link IOException} if desired
      */
-    private Iterable<StorageMetadata> listStorageMetadata(boolean recursive) throws IOException {
+    private Iterable<StorageMetadata> listStorageMetadata(BlobStore blobStore, boolean recursive) {
         ListContainerOptions options = prefix(key + "/");
         if (recursive) {
             options.recursive();
         }
-        return BlobStores.listAll(getContext().getBlobStore(), getContainer(), options);
+        return BlobStores.listAll(blobStore, getContainer(), options);
     }
 
     @Override
     public VirtualFile[] list() throws IOException {
         String keyS = key + "/";
+        String path = manifestPath();
+        if (path != null) {
+            return getManifest().children(path).stream().
+                map(simple -> new JCloudsVirtualFile(this, keyS + simple)).
+                toArray(VirtualFile[]::new);
+        }
         CacheFrame frame = findCacheFrame(keyS);
         if (frame != null) {
             LOGGER.log(Level.FINER, "cache hit on listing of {0} / {1}", new Object[] {container, key});
-            String relSlash = keyS.substring(frame.root.length()); // "" or "sub/dir/"
-            return frame.children.keySet().stream(). // filenames relative to frame root
-                filter(f -> f.startsWith(relSlash)). // those inside this dir
-                map(f -> f.substring(relSlash.length()).replaceFirst("/.+", "")). // just the file simple name, or direct subdir name
-                distinct(). // ignore duplicates if have multiple files under one direct subdir
-                map(simple -> new JCloudsVirtualFile(this, keyS + simple)). // direct children
+            return frame.childNames(keyS.substring(frame.root.length())).stream().
+                map(simple -> new JCloudsVirtualFile(this, keyS + simple)).
                 toArray(VirtualFile[]::new);
         }
         VirtualFile[] list;
-        try {
-            list = StreamSupport.stream(listStorageMetadata(false).spliterator(), false)
-                .map(meta -> new JCloudsVirtualFile(this, meta.getName().replaceFirst("/$", "")))
+        try (BlobStoreContext context = getContext()) {
+            list = StreamSupport.stream(listStorageMetadata(context.getBlobStore(), false).spliterator(), false)
+                .map(this::child)
                 .toArray(VirtualFile[]::new);
         } catch (RuntimeException x) {
             throw new IOException(x);
@@ -231,6 +315,20 @@ public class JCloudsVirtualFile extends VirtualFile {
         return list;
     }
 
+    /**
+     * Creates a child from a listing entry, keeping what the listing says about it.
+     */
+    private JCloudsVirtualFile child(StorageMetadata sm) {
+        JCloudsVirtualFile child = new JCloudsVirtualFile(this, sm.getName().replaceFirst("/$", ""));
+        if (sm.getType() == StorageType.RELATIVE_PATH) {
+            child.knownDirectory = true;
+        } else if (sm.getSize() != null) {
+            Date lastModified = sm.getLastModified();
+            child.metadata = new CachedMetadata(sm.getSize(), lastModified != null ? lastModified.getTime() : 0);
+        }
+        return child;
+    }
+
     @Override
     public VirtualFile child(String name) {
         return new JCloudsVirtualFile(this, key + "/" + name);
@@ -238,31 +336,38 @@ public class JCloudsVirtualFile extends VirtualFile {
 
     @Override
     public long length() throws IOException {
+        String path = manifestPath();
+        if (path != null) {
+            ArtifactManifest.Entry entry = getManifest().get(path);
+            return entry != null ? entry.length : 0;
+        }
         CacheFrame frame = findCacheFrame(key);
         if (frame != null) {
             String rel = key.substring(frame.root.length());
-            CachedMetadata metadata = frame.children.get(rel);
+            CachedMetadata metadata = frame.get(rel);
             LOGGER.log(Level.FINER, "cache hit on length of {0} / {1}", new Object[] {container, key});
             return metadata != null ? metadata.length : 0;
         }
-        LOGGER.log(Level.FINE, "checking length {0} / {1}", new Object[] {container, key});
-        MutableBlobMetadata metadata = getBlob().getMetadata();
-        Long size = metadata == null ? Long.valueOf(0) : metadata.getSize();
-        return size == null ? 0 : size;
+        CachedMetadata metadata = getMetadata();
+        return metadata != NOT_FOUND ? metadata.length : 0;
     }
 
     @Override
     public long lastModified() throws IOException {
+        String path = manifestPath();
+        if (path != null) {
+            ArtifactManifest.Entry entry = getManifest().get(path);
+            return entry != null ? entry.lastModified : 0;
+        }
         CacheFrame frame = findCacheFrame(key);
         if (frame != null) {
             String rel = key.substring(frame.root.length());
-            CachedMetadata metadata = frame.children.get(rel);
+            CachedMetadata metadata = frame.get(rel);
             LOGGER.log(Level.FINER, "cache hit on lastModified of {0} / {1}", new Object[] {container, key});
             return metadata != null ? metadata.lastModified : 0;
         }
-        LOGGER.log(Level.FINE, "checking modification time {0} / {1}", new Object[] {container, key});
-        MutableBlobMetadata metadata = getBlob().getMetadata();
-        return metadata == null || metadata.getLastModified() == null ? 0 : metadata.getLastModified().getTime();
+        CachedMetadata metadata = getMetadata();
+        return metadata != NOT_FOUND ? metadata.lastModified : 0;
     }
 
     @Override
@@ -273,15 +378,111 @@ public class JCloudsVirtualFile extends VirtualFile {
     @Override
     public InputStream open() throws IOException {
         LOGGER.log(Level.FINE, "reading {0} / {1}", new Object[] {container, key});
+        if (metadata != NOT_FOUND) {
+            // a single GET; only if that finds nothing is it worth finding out why
+            InputStream is = openLeased(null);
+            if (is != null) {
+                return is;
+            }
+        }
         if (isDirectory()) {
             // That is what java.io.FileInputStream.open throws
             throw new FileNotFoundException(String.format("%s/%s (Is a directory)", getContainer(), getKey()));
         }
+        throw new FileNotFoundException(
+                String.format("%s/%s (No such file or directory)", getContainer(), getKey()));
+    }
+
+    /**
+     * Fetches this file, holding a lease on the context until the stream is closed,
+     * since a context which is retired meanwhile would otherwise be closed along with its connections.
+     * @param options to fetch a range, or null for the whole file
+     * @return null if there is no such file
+     */
+    @CheckForNull
+    private InputStream openLeased(@CheckForNull GetOptions options) throws IOException {
+        BlobStoreContext context = getContext();
+        try {
+            Blob blob = options != null ?
+                context.getBlobStore().getBlob(getContainer(), getStorageKey(), options) :
+                context.getBlobStore().getBlob(getContainer(), getStorageKey());
+            if (blob == null) {
+                context.close();
+                return null;
+            }
+            InputStream is = new LeasedInputStream(blob.getPayload().openStream(), context);
+            Long length = blob.getMetadata().getContentMetadata().getContentLength();
+            if (options != null || length == null) {
+                return is;
+            }
+            // so that skipping, as when serving a Range request, fetches only what follows
+            return Channels.newInputStream(new BlobByteChannel(this::open, length, is));
+        } catch (RuntimeException x) {
+            context.close();
+            throw new IOException(x);
+        } catch (IOException | Error x) {
+            context.close();
+            throw x;
+        }
+    }
+
+    /** Releases a lease on a context once the stream read from it is closed. */
+    private static final class LeasedInputStream extends FilterInputStream {
+        private final BlobStoreContext context;
+        private boolean closed;
+
+        LeasedInputStream(InputStream in, BlobStoreContext context) {
+            super(in);
+            this.context = context;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    /**
+     * Reads part of this file with a ranged {@code GET}.
+     * @param offset the first byte to read
+     * @param length the number of bytes to read, or -1 for the rest of the file
+     * @throws FileNotFoundException if this is not a file
+     */
+    public InputStream open(long offset, long length) throws IOException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset " + offset);
+        }
+        if (length == 0) {
+            return InputStream.nullInputStream();
+        }
+        LOGGER.log(Level.FINE, "reading {0} / {1} from {2} for {3}", new Object[] {container, key, offset, length});
+        GetOptions options = length < 0 ? GetOptions.Builder.startAt(offset) : GetOptions.Builder.range(offset, offset + length - 1);
+        InputStream is = openLeased(options);
+        if (is == null) {
+            throw new FileNotFoundException(
+                    String.format("%s/%s (No such file or directory)", getContainer(), getKey()));
+        }
+        return is;
+    }
+
+    /**
+     * Opens this file for random access; only the parts read are fetched.
+     * @throws FileNotFoundException if this is not a file
+     */
+    public SeekableByteChannel openChannel() throws IOException {
         if (!isFile()) {
             throw new FileNotFoundException(
                     String.format("%s/%s (No such file or directory)", getContainer(), getKey()));
         }
-        return getBlob().getPayload().openStream();
+        return new BlobByteChannel(this::open, length());
     }
 
     /**
@@ -291,25 +492,13 @@ public class JCloudsVirtualFile extends VirtualFile {
      */
     private static final ThreadLocal<Map<String, Deque<CacheFrame>>> cache = ThreadLocal.withInitial(HashMap::new);
 
-    private static final class CacheFrame {
-        /** {@link #key} of the root virtual file plus a trailing {@code /} */
-        final String root;
-        /**
-         * Information about all known (recursive) child <em>files</em> (not directories).
-         * Keys are {@code /}-separated relative paths.
-         * If the root itself happened to be a file, that information is not cached.
-         */
-        final Map<String, CachedMetadata> children;
-        CacheFrame(String root, Map<String, CachedMetadata> children) {
-            this.root = root;
-            this.children = children;
-        }
-    }
+    /** Marks a key known not to be a file. */
+    private static final CachedMetadata NOT_FOUND = new CachedMetadata(-1, 0);
 
     /**
      * Record that a given file exists.
      */
-    private static final class CachedMetadata {
+    static final class CachedMetadata {
         final long length, lastModified;
         CachedMetadata(long length, long lastModified) {
             this.length = length;
@@ -319,16 +508,21 @@ public class JCloudsVirtualFile extends VirtualFile {
 
     @Override
     public <V> V run(Callable<V, IOException> callable) throws IOException {
+        if (manifestRoot != null) {
+            // the manifest already serves as a cache
+            getManifest();
+            return callable.call();
+        }
         LOGGER.log(Level.FINE, "enter cache {0} / {1}", new Object[] {container, key});
         Deque<CacheFrame> stack = cacheFrames();
-        Map<String, CachedMetadata> saved = new HashMap<>();
+        CacheFrame.Builder saved = new CacheFrame.Builder(key + "/");
         int prefixLength = key.length() + /* / */1;
-        try {
-            for (StorageMetadata sm : listStorageMetadata(true)) {
+        try (BlobStoreContext context = getContext()) {
+            for (StorageMetadata sm : listStorageMetadata(context.getBlobStore(), true)) {
                 Long length = sm.getSize();
                 if (length != null) {
                     Date lastModified = sm.getLastModified();
-                    saved.put(sm.getName().substring(prefixLength), new CachedMetadata(length, lastModified != null ? lastModified.getTime() : 0));
+                    saved.add(sm.getName().substring(prefixLength), length, lastModified != null ? lastModified.getTime() : 0);
                 }
             }
         } catch (AuthorizationException e) {
@@ -337,9 +531,10 @@ public class JCloudsVirtualFile extends VirtualFile {
         } catch (RuntimeException x) {
             throw new IOException(x);
         }
-        stack.push(new CacheFrame(key + "/", saved));
+        CacheFrame frame = saved.build();
+        stack.push(frame);
         try {
-            LOGGER.log(Level.FINE, "using cache {0} / {1}: {2} file entries", new Object[] {container, key, saved.size()});
+            LOGGER.log(Level.FINE, "using cache {0} / {1}: {2} file entries", new Object[] {container, key, frame.size()});
             return callable.call();
         } finally {
             LOGGER.log(Level.FINE, "exit cache {0} / {1}", new Object[] {container, key});
@@ -358,29 +553,16 @@ public class JCloudsVirtualFile extends VirtualFile {
 
     /**
      * Delete all blobs starting with a given prefix.
+     * @return whether there was anything to delete
+     * @throws IOException if some blobs could not be deleted, after deleting all the others
      */
     public static boolean delete(BlobStoreProvider provider, BlobStore blobStore, String prefix) throws IOException, InterruptedException {
-        try {
-            List<String> paths = new ArrayList<>();
-            for (StorageMetadata sm : BlobStores.listAll(blobStore, provider.getContainer(), ListContainerOptions.Builder.prefix(prefix).recursive())) {
-                String path = sm.getName();
-                if (!path.startsWith(prefix)) {
-                    LOGGER.warning(() -> path + " does not start with " + prefix);
-                    continue;
-                }
-                paths.add(path);
-            }
-            if (paths.isEmpty()) {
-                LOGGER.log(Level.FINE, "nothing to delete under {0}", prefix);
-                return false;
-            } else {
-                LOGGER.log(Level.FINE, "deleting {0} blobs under {1}", new Object[] {paths.size(), prefix});
-                blobStore.removeBlobs(provider.getContainer(), paths);
-                return true;
-            }
-        } catch (RuntimeException x) {
-            throw new IOException(x);
+        int count = new BlobDeleter(provider, blobStore).deleteAll(prefix);
+        if (count == 0) {
+            LOGGER.log(Level.FINE, "nothing to delete under {0}", prefix);
+            return false;
         }
+        return true;
     }
 
 }
@@ -0,0 +1,250 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.httpclient.RobustHTTPClient;
+
+/**
+ * Uploads whatever is written to it, without knowing the length in advance.
+ * Content fitting into a single part is uploaded with a plain {@code PUT} when finished.
+ * Otherwise it is uploaded part by part as a {@link MultipartUpload} while more is written,
+ * with a bounded number of parts in memory; each part is retried separately.
+ * Since the length is not known in advance, the part size doubles every {@value #PARTS_PER_SIZE} parts,
+ * so that content much larger than {@value #MAX_PARTS} times the initial part size still fits.
+ */
+final class MultipartOutputStream extends OutputStream {
+
+    /** Maximum number of parts in an upload. */
+    static final int MAX_PARTS = 10_000;
+
+    /** Largest part this can hold in memory. */
+    static final int MAX_PART_SIZE = Integer.MAX_VALUE - 8;
+
+    /** How many parts are uploaded before the part size doubles. */
+    private static final int PARTS_PER_SIZE = 1_000;
+
+    private final RobustHTTPClient client;
+    private final URL url;
+    private final String contentType;
+    private final MultipartUpload.PartUrls partUrls;
+    private final String description;
+    private final TaskListener listener;
+    private final Semaphore permits;
+    private byte[] buf;
+    private int count;
+    private final List<Future<String>> parts = new ArrayList<>();
+    private ExecutorService executor;
+    private boolean closed;
+
+    /**
+     * @param url where to upload content fitting in a single part
+     * @param contentType content type {@code url} was signed with, if any
+     * @param partUrls where to upload each part otherwise
+     * @param partSize size of the first parts, doubled every {@value #PARTS_PER_SIZE} parts
+     * @param concurrency how many parts may be uploaded at once
+     * @param description what is being uploaded, for messages
+     */
+    MultipartOutputStream(RobustHTTPClient client, URL url, @CheckForNull String contentType, MultipartUpload.PartUrls partUrls, int partSize, int concurrency, String description, TaskListener listener) {
+        this.client = client;
+        this.url = url;
+        this.contentType = contentType;
+        this.partUrls = partUrls;
+        this.description = description;
+        this.listener = listener;
+        permits = new Semaphore(Math.max(1, concurrency));
+        buf = new byte[partSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        if (count == buf.length) {
+            flushPart();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        while (len > 0) {
+            if (count == buf.length) {
+                flushPart();
+            }
+            int n = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Starts uploading the buffer as the next part, waiting if too many parts are already in flight.
+     */
+    private void flushPart() throws IOException {
+        checkFailures();
+        int part = parts.size() + 1;
+        if (part > MAX_PARTS) {
+            throw new IOException("Cannot upload " + description + " in more than " + MAX_PARTS + " parts");
+        }
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), MultipartOutputStream.class.getSimpleName()));
+        }
+        URL partUrl = partUrls.partUrl(part);
+        try {
+            permits.acquire();
+        } catch (InterruptedException x) {
+            throw (IOException) new InterruptedIOException().initCause(x);
+        }
+        byte[] data = buf;
+        int length = count;
+        parts.add(executor.submit(() -> {
+            try {
+                return uploadPart(data, length, partUrl, part);
+            } finally {
+                permits.release();
+            }
+        }));
+        buf = new byte[part % PARTS_PER_SIZE == 0 ? (int) Math.min(2L * data.length, MAX_PART_SIZE) : data.length];
+        count = 0;
+    }
+
+    private String uploadPart(byte[] data, int length, URL partUrl, int part) throws IOException, InterruptedException {
+        String[] etag = new String[1];
+        client.connect("upload", "upload part " + part + " of " + description + " to " + RobustHTTPClient.sanitize(partUrl), c -> {
+            HttpPut put = new HttpPut(partUrl.toString());
+            put.setEntity(new ByteArrayEntity(data, 0, length));
+            return c.execute(put);
+        }, response -> {
+            Header header = response.getFirstHeader("ETag");
+            if (header == null) {
+                throw new IOException("No ETag returned for part " + part + " of " + description);
+            }
+            etag[0] = header.getValue();
+        }, listener);
+        return etag[0];
+    }
+
+    /** Fails fast if some part could not be uploaded. */
+    private void checkFailures() throws IOException {
+        for (Future<String> part : parts) {
+            if (part.isDone()) {
+                get(part);
+            }
+        }
+    }
+
+    private static String get(Future<String> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException x) {
+            throw (IOException) new InterruptedIOException().initCause(x);
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (IOException) new InterruptedIOException().initCause(cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Merely prevents further writes; use {@link #finish} or {@link #abort}.
+     * (Archivers close the stream even when they fail.)
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Uploads whatever remains and waits for all parts.
+     */
+    void finish() throws IOException {
+        try {
+            if (parts.isEmpty()) {
+                byte[] data = buf;
+                int length = count;
+                client.connect("upload", "upload " + description + " to " + RobustHTTPClient.sanitize(url), c -> {
+                    HttpPut put = new HttpPut(url.toString());
+                    ByteArrayEntity entity = new ByteArrayEntity(data, 0, length);
+                    if (contentType != null) {
+                        entity.setContentType(contentType);
+                    }
+                    put.setEntity(entity);
+                    return c.execute(put);
+                }, response -> {}, listener);
+            } else {
+                if (count > 0) {
+                    flushPart();
+                }
+                for (Future<String> part : parts) {
+                    get(part);
+                }
+            }
+        } catch (InterruptedException x) {
+            throw (IOException) new InterruptedIOException().initCause(x);
+        } finally {
+            abort();
+        }
+    }
+
+    /**
+     * Stops any uploads in progress and releases memory.
+     */
+    void abort() {
+        closed = true;
+        buf = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Once {@linkplain #finish finished}, the entity tags of each part.
+     * @return null if uploaded as a single part to the plain URL
+     */
+    @CheckForNull
+    List<String> getEtags() throws IOException {
+        if (parts.isEmpty()) {
+            return null;
+        }
+        List<String> etags = new ArrayList<>(parts.size());
+        for (Future<String> part : parts) {
+            etags.add(get(part));
+        }
+        return etags;
+    }
+
+}
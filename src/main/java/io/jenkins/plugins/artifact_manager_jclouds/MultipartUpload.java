@@ -0,0 +1,84 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.Beta;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * A multipart upload started by {@link BlobStoreProvider#initiateMultipartUpload}.
+ * Each part is uploaded with a {@code PUT} to its presigned URL, yielding an entity tag;
+ * the upload is then finished by {@link BlobStoreProvider#completeMultipartUpload} with those tags in order.
+ */
+@Restricted(Beta.class)
+public final class MultipartUpload implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Supplies part URLs on demand, for an upload whose length is not known in advance.
+     * Typically implemented on the controller and exported to an agent.
+     */
+    public interface PartUrls {
+        /**
+         * @param partNumber the part, starting from 1
+         * @return a URL to {@code PUT} the part to
+         */
+        @NonNull
+        URL partUrl(int partNumber) throws IOException;
+    }
+
+    private final String container;
+    private final String key;
+    private final String uploadId;
+    private final long partSize;
+    private final List<URL> partUrls;
+
+    public MultipartUpload(@NonNull String container, @NonNull String key, @NonNull String uploadId, long partSize, @NonNull List<URL> partUrls) {
+        this.container = container;
+        this.key = key;
+        this.uploadId = uploadId;
+        this.partSize = partSize;
+        this.partUrls = new ArrayList<>(partUrls);
+    }
+
+    @NonNull
+    public String getContainer() {
+        return container;
+    }
+
+    @NonNull
+    public String getKey() {
+        return key;
+    }
+
+    /** Provider-specific identifier of the upload. */
+    @NonNull
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /** Size of each part but the last, which may be smaller. */
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /** Presigned URLs for each part in order. */
+    @NonNull
+    public List<URL> getPartUrls() {
+        return Collections.unmodifiableList(partUrls);
+    }
+
+    @Override
+    public String toString() {
+        return container + "/" + key + "#" + uploadId;
+    }
+
+}
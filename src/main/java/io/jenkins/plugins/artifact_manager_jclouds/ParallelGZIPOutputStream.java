@@ -0,0 +1,169 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Writes a standard gzip stream, compressing blocks of input on several threads, in the manner of {@code pigz}.
+ * Each block is deflated independently, primed with the end of the previous block as a dictionary,
+ * and ends on a byte boundary so the results can simply be concatenated into a single gzip member.
+ * At most two blocks per thread are held in memory.
+ */
+final class ParallelGZIPOutputStream extends FilterOutputStream {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final int level;
+    private final int blockSize;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private long size;
+    private byte[] buf;
+    private int count;
+    private byte[] dictionary;
+    private boolean closed;
+
+    /**
+     * @param level compression level, as for {@link Deflater#setLevel}
+     */
+    ParallelGZIPOutputStream(OutputStream out, int threads, int level) throws IOException {
+        this(out, threads, level, BLOCK_SIZE);
+    }
+
+    ParallelGZIPOutputStream(OutputStream out, int threads, int level, int blockSize) throws IOException {
+        super(out);
+        this.level = level;
+        this.blockSize = blockSize;
+        maxPending = 2 * threads;
+        executor = Executors.newFixedThreadPool(threads, new NamingThreadFactory(new DaemonThreadFactory(), ParallelGZIPOutputStream.class.getSimpleName()));
+        buf = new byte[blockSize];
+        // magic, deflate, no flags, no mtime, no extra flags, unknown OS
+        out.write(new byte[] {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            if (count == blockSize) {
+                submit(false);
+            }
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Hands off the current block for compression, first writing out finished blocks if too many are pending.
+     */
+    private void submit(boolean last) throws IOException {
+        byte[] data = buf;
+        int length = count;
+        byte[] dict = dictionary;
+        crc.update(data, 0, length);
+        size += length;
+        while (pending.size() >= maxPending) {
+            writeNext();
+        }
+        pending.add(executor.submit(() -> deflate(data, length, dict, last, level)));
+        dictionary = length >= DICTIONARY_SIZE ? Arrays.copyOfRange(data, length - DICTIONARY_SIZE, length) : null;
+        buf = last ? null : new byte[blockSize];
+        count = 0;
+    }
+
+    private static byte[] deflate(byte[] data, int length, byte[] dictionary, boolean last, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data, 0, length);
+            if (last) {
+                deflater.finish();
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] out = new byte[64 * 1024];
+            while (true) {
+                int n = deflater.deflate(out, 0, out.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                baos.write(out, 0, n);
+                if (last ? deflater.finished() : n < out.length) {
+                    break;
+                }
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<byte[]> next = pending.remove();
+        try {
+            out.write(next.get());
+        } catch (InterruptedException x) {
+            throw (IOException) new InterruptedIOException().initCause(x);
+        } catch (ExecutionException x) {
+            throw new IOException(x.getCause());
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Cannot usefully flush partial blocks, but pass on completed ones.
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            long crcValue = crc.getValue();
+            out.write(new byte[] {
+                (byte) crcValue, (byte) (crcValue >> 8), (byte) (crcValue >> 16), (byte) (crcValue >> 24),
+                (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)
+            });
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Reads a sequence of blocks which are fetched concurrently, returning their bytes in order.
+ * Blocks are fetched ahead of the reader, with at most {@code concurrency} blocks in flight or waiting to be read.
+ */
+class PrefetchInputStream extends InputStream {
+
+    private final Iterator<Callable<byte[]>> blocks;
+    private final int concurrency;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] buf = new byte[0];
+    private int pos;
+    private boolean closed;
+
+    /**
+     * @param blocks how to fetch each block, in order
+     * @param concurrency how many blocks may be fetched at once
+     * @param name to name threads
+     */
+    PrefetchInputStream(Iterator<Callable<byte[]>> blocks, int concurrency, String name) {
+        this.blocks = blocks;
+        this.concurrency = Math.max(1, concurrency);
+        executor = Executors.newFixedThreadPool(this.concurrency, new NamingThreadFactory(new DaemonThreadFactory(), name));
+        fill();
+    }
+
+    /** Starts fetching further blocks until enough are in flight. */
+    private void fill() {
+        while (pending.size() < concurrency && blocks.hasNext()) {
+            pending.add(executor.submit(blocks.next()));
+        }
+    }
+
+    /**
+     * Makes sure some bytes are available in {@link #buf}.
+     * @return false at the end of the last block
+     */
+    private boolean advance() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (pos == buf.length) {
+            if (pending.isEmpty()) {
+                return false;
+            }
+            try {
+                buf = pending.remove().get();
+            } catch (InterruptedException x) {
+                throw (IOException) new InterruptedIOException().initCause(x);
+            } catch (ExecutionException x) {
+                Throwable cause = x.getCause();
+                if (cause instanceof IOException) {
+                    throw new IOException(cause.getMessage(), cause);
+                } else if (cause instanceof InterruptedException) {
+                    throw (IOException) new InterruptedIOException().initCause(cause);
+                } else {
+                    throw new IOException(cause);
+                }
+            }
+            pos = 0;
+            fill();
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!advance()) {
+            return -1;
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!advance()) {
+            return -1;
+        }
+        int n = Math.min(len, buf.length - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return closed ? 0 : buf.length - pos;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            buf = null;
+            pending.forEach(f -> f.cancel(true));
+            pending.clear();
+            executor.shutdownNow();
+        }
+    }
+
+}
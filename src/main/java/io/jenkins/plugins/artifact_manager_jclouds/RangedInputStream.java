@@ -0,0 +1,73 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+
+import org.apache.http.client.methods.HttpGet;
+
+import hudson.model.TaskListener;
+import io.jenkins.plugins.httpclient.RobustHTTPClient;
+
+/**
+ * Downloads an object of known length with several concurrent {@code Range} requests,
+ * returning the bytes in order.
+ * Each range is retried separately.
+ */
+final class RangedInputStream extends PrefetchInputStream {
+
+    /**
+     * @param length the size of the object
+     * @param chunkSize how many bytes to request at once
+     * @param concurrency how many ranges may be downloaded at once
+     * @param description what is being downloaded, for messages
+     */
+    RangedInputStream(RobustHTTPClient client, URL url, long length, int chunkSize, int concurrency, String description, TaskListener listener) {
+        super(new Iterator<Callable<byte[]>>() {
+            /** Offset of the next range to request. */
+            long next;
+
+            @Override
+            public boolean hasNext() {
+                return next < length;
+            }
+
+            @Override
+            public Callable<byte[]> next() {
+                long start = next;
+                int size = (int) Math.min(chunkSize, length - start);
+                next += size;
+                return () -> fetch(client, url, length, start, size, description, listener);
+            }
+        }, concurrency, RangedInputStream.class.getSimpleName());
+    }
+
+    private static byte[] fetch(RobustHTTPClient client, URL url, long length, long start, int size, String description, TaskListener listener) throws IOException, InterruptedException {
+        byte[] data = new byte[size];
+        long end = start + size - 1;
+        client.connect("download", "download bytes " + start + "-" + end + " of " + description + " from " + RobustHTTPClient.sanitize(url), c -> {
+            HttpGet get = new HttpGet(url.toString());
+            get.setHeader("Range", "bytes=" + start + "-" + end);
+            return c.execute(get);
+        }, response -> {
+            if (response.getStatusLine().getStatusCode() != 206 && size != length) {
+                throw new IOException("Server ignored range request for " + description);
+            }
+            // A dropped connection surfaces here and the range alone is retried.
+            try (InputStream is = response.getEntity().getContent()) {
+                int off = 0;
+                while (off < size) {
+                    int n = is.read(data, off, size - off);
+                    if (n == -1) {
+                        throw new IOException("Expected " + size + " bytes at offset " + start + " of " + description + " but got " + off);
+                    }
+                    off += n;
+                }
+            }
+        }, listener);
+        return data;
+    }
+
+}
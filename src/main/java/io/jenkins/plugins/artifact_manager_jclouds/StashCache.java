@@ -0,0 +1,342 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import hudson.Util;
+
+/**
+ * Copies of stashes kept on an agent, so that unstashing the same stash again there needs no download.
+ * Entries are identified by the location of the stash and validated by its entity tag.
+ * The least recently used entries are deleted once the total size exceeds the capacity,
+ * except while they are being read.
+ * Concurrent requests for the same stash share one download.
+ */
+final class StashCache {
+
+    private static final Logger LOGGER = Logger.getLogger(StashCache.class.getName());
+
+    private static StashCache instance;
+
+    /**
+     * The cache of this JVM, in a temporary directory deleted on exit.
+     * @param capacity maximum total size in bytes, as configured on the controller
+     */
+    static synchronized StashCache get(long capacity) throws IOException {
+        if (instance == null) {
+            File dir = Files.createTempDirectory("stash-cache").toFile();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Util.deleteRecursive(dir);
+                } catch (IOException x) {
+                    LOGGER.log(Level.FINE, null, x);
+                }
+            }, "delete " + dir));
+            instance = new StashCache(dir, capacity);
+        }
+        synchronized (instance) {
+            instance.capacity = capacity;
+        }
+        return instance;
+    }
+
+    /** Downloads a stash into a file. */
+    @FunctionalInterface
+    interface Download {
+        void to(File file) throws IOException, InterruptedException;
+    }
+
+    private static final class Entry {
+        final String name;
+        final String etag;
+        final File file;
+        final long length;
+        int users;
+        boolean evicted;
+
+        Entry(String name, String etag, File file) {
+            this.name = name;
+            this.etag = etag;
+            this.file = file;
+            length = file.length();
+        }
+    }
+
+    private final File dir;
+    private long capacity;
+    private long size;
+    /** By stash location, in access order. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Entry>> downloads = new HashMap<>();
+
+    StashCache(File dir, long capacity) {
+        this.dir = dir;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets a cached copy of a stash, downloading it first unless it is already cached
+     * or being downloaded by another thread.
+     * @param name location of the stash
+     * @param etag current entity tag of the stash
+     * @return a lease on the file, which must be closed after reading it
+     */
+    @NonNull
+    Lease acquire(@NonNull String name, @NonNull String etag, @NonNull Download download) throws IOException, InterruptedException {
+        String id = name + '\n' + etag;
+        while (true) {
+            CompletableFuture<Entry> future;
+            boolean mine = false;
+            synchronized (this) {
+                Entry e = entries.get(name);
+                if (e != null && e.etag.equals(etag)) {
+                    LOGGER.fine(() -> "using cached " + name);
+                    e.users++;
+                    return new Lease(e);
+                }
+                future = downloads.get(id);
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                    downloads.put(id, future);
+                    mine = true;
+                }
+            }
+            if (mine) {
+                File file = newFile();
+                try {
+                    download.to(file);
+                    Entry e;
+                    synchronized (this) {
+                        e = add(name, etag, file, 1);
+                    }
+                    future.complete(e);
+                    return new Lease(e);
+                } catch (IOException | InterruptedException | RuntimeException x) {
+                    Files.deleteIfExists(file.toPath());
+                    future.completeExceptionally(x);
+                    throw x;
+                } finally {
+                    synchronized (this) {
+                        downloads.remove(id);
+                    }
+                }
+            }
+            Entry e;
+            try {
+                e = future.get();
+            } catch (ExecutionException x) {
+                Throwable cause = x.getCause();
+                throw cause instanceof InterruptedException ? (IOException) new InterruptedIOException().initCause(cause) : new IOException(cause);
+            }
+            synchronized (this) {
+                if (!e.evicted) {
+                    e.users++;
+                    return new Lease(e);
+                }
+            }
+            // Evicted before we got to it; try again.
+        }
+    }
+
+    /**
+     * Wraps a stream so that what is written is also copied into a new file in this cache,
+     * to be {@linkplain #adopt adopted} once the stash has been uploaded.
+     */
+    @NonNull
+    Capture capture(@NonNull OutputStream out) throws IOException {
+        long limit;
+        synchronized (this) {
+            limit = capacity;
+        }
+        return new Capture(out, newFile(), limit);
+    }
+
+    /**
+     * Adds a file previously {@linkplain #capture captured}.
+     * @param etag entity tag of the uploaded stash, or null to just delete the file
+     */
+    void adopt(@NonNull String name, @CheckForNull String etag, @NonNull File file) throws IOException {
+        if (!file.getParentFile().equals(dir)) {
+            throw new IOException(file + " is not in " + dir);
+        }
+        if (etag == null) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        synchronized (this) {
+            add(name, etag, file, 0);
+        }
+    }
+
+    private File newFile() throws IOException {
+        return Files.createTempFile(dir.toPath(), "stash", ".tmp").toFile();
+    }
+
+    private Entry add(String name, String etag, File file, int users) throws IOException {
+        assert Thread.holdsLock(this);
+        Entry old = entries.remove(name);
+        if (old != null) {
+            remove(old);
+        }
+        Entry e = new Entry(name, etag, file);
+        e.users = users;
+        entries.put(name, e);
+        size += e.length;
+        for (Iterator<Entry> it = entries.values().iterator(); size > capacity && it.hasNext();) {
+            Entry lru = it.next();
+            if (lru.users == 0 && lru != e) {
+                it.remove();
+                remove(lru);
+            }
+        }
+        if (size > capacity && e.users == 0) {
+            // Bigger than the whole cache.
+            entries.remove(name);
+            remove(e);
+        }
+        return e;
+    }
+
+    private void remove(Entry e) throws IOException {
+        assert Thread.holdsLock(this);
+        size -= e.length;
+        e.evicted = true;
+        if (e.users == 0) {
+            Files.deleteIfExists(e.file.toPath());
+        }
+    }
+
+    /** The size of all files in the cache. */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Access to a cached file, which will not be deleted until this is closed.
+     */
+    final class Lease implements Closeable {
+        private final Entry entry;
+        private boolean closed;
+
+        Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        File getFile() {
+            return entry.file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (StashCache.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                entry.users--;
+                if (entry.users == 0) {
+                    if (entry.evicted) {
+                        Files.deleteIfExists(entry.file.toPath());
+                    } else if (size > capacity) {
+                        entries.remove(entry.name);
+                        remove(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies what is written to another stream into a file, as long as it fits into the cache.
+     */
+    static final class Capture extends FilterOutputStream {
+        private final File file;
+        private final long limit;
+        private OutputStream copy;
+        private long count;
+
+        Capture(OutputStream out, File file, long limit) throws IOException {
+            super(out);
+            this.file = file;
+            this.limit = limit;
+            copy = new FileOutputStream(file);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                count += len;
+                if (count > limit) {
+                    discard();
+                } else {
+                    try {
+                        copy.write(b, off, len);
+                    } catch (IOException x) {
+                        // e.g. disk full; the cache is not worth failing the stash for
+                        LOGGER.log(Level.FINE, "could not copy to " + file, x);
+                        try {
+                            discard();
+                        } catch (IOException x2) {
+                            x.addSuppressed(x2);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (copy != null) {
+                    copy.close();
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * @return the copy, or null if it did not fit
+         */
+        @CheckForNull
+        File getFile() {
+            return copy != null ? file : null;
+        }
+
+        /** Deletes the copy. */
+        void discard() throws IOException {
+            if (copy != null) {
+                try {
+                    copy.close();
+                } finally {
+                    copy = null;
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+    }
+
+}
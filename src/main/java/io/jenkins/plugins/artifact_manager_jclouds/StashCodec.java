@@ -0,0 +1,156 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import hudson.FilePath;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+
+/**
+ * How the tarball of a stash is compressed.
+ * Recorded as the content type of the stash so that it can be decoded accordingly.
+ */
+enum StashCodec {
+
+    GZIP("application/gzip", ".gz") {
+        @Override
+        InputStream decode(InputStream is) throws IOException {
+            return FilePath.TarCompression.GZIP.extract(is);
+        }
+
+        @Override
+        OutputStream encode(OutputStream os, int threads, int level) throws IOException {
+            if (threads > 1) {
+                return new ParallelGZIPOutputStream(os, threads, level);
+            }
+            return new GZIPOutputStream(os, 64 * 1024) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+    },
+
+    /**
+     * LZ4 frames, much cheaper than gzip on both ends at some cost in size.
+     * Implemented in Java by Commons Compress, so that it works on any agent; threads and level do not apply.
+     */
+    LZ4("application/x-lz4", ".lz4") {
+        @Override
+        InputStream decode(InputStream is) throws IOException {
+            return new FramedLZ4CompressorInputStream(is);
+        }
+
+        @Override
+        OutputStream encode(OutputStream os, int threads, int level) throws IOException {
+            return new FramedLZ4CompressorOutputStream(os, new FramedLZ4CompressorOutputStream.Parameters(
+                FramedLZ4CompressorOutputStream.BlockSize.M4, true, false, false,
+                BlockLZ4CompressorOutputStream.createParameterBuilder().tunedForSpeed().build()));
+        }
+    },
+
+    /** Plain tar, for content which is already compressed. */
+    NONE("application/x-tar", "") {
+        @Override
+        InputStream decode(InputStream is) {
+            return is;
+        }
+
+        @Override
+        OutputStream encode(OutputStream os, int threads, int level) {
+            return os;
+        }
+    };
+
+    private static final Logger LOGGER = Logger.getLogger(StashCodec.class.getName());
+
+    /** Extensions of file formats which are already compressed. */
+    private static final Set<String> COMPRESSED = Set.of(
+        "jar", "war", "ear", "hpi", "jpi", "zip", "aar", "apk", "nupkg", "whl",
+        "gz", "tgz", "bz2", "xz", "zst", "lz4", "7z", "deb", "rpm",
+        "png", "jpg", "jpeg", "gif", "webp", "mp4", "mp3");
+
+    final String contentType;
+    /** Appended to the names of chunks compressed this way. */
+    final String extension;
+
+    StashCodec(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    /**
+     * Wraps a stream so that a tarball compressed this way can be read from it.
+     */
+    abstract InputStream decode(InputStream is) throws IOException;
+
+    /**
+     * Wraps a stream so that a tarball written to it is compressed.
+     * @param threads how many threads to compress with
+     * @param level compression level, as for {@link java.util.zip.Deflater#setLevel}
+     */
+    abstract OutputStream encode(OutputStream os, int threads, int level) throws IOException;
+
+    /**
+     * Determines how a stash was compressed.
+     * Stashes stored before this was recorded are gzipped.
+     */
+    @NonNull
+    static StashCodec forContentType(@CheckForNull String contentType) {
+        for (StashCodec codec : values()) {
+            if (codec.contentType.equals(contentType)) {
+                return codec;
+            }
+        }
+        return GZIP;
+    }
+
+    /**
+     * Looks up a codec by name, falling back to {@link #GZIP}.
+     */
+    @NonNull
+    static StashCodec forName(@NonNull String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException x) {
+            LOGGER.warning(() -> "Unknown stash codec " + name + "; using gzip");
+            return GZIP;
+        }
+    }
+
+    /**
+     * Picks a codec based on the files to be stashed:
+     * if most of their bytes are in formats which are already compressed, compressing again would be wasted effort.
+     */
+    @NonNull
+    static StashCodec choose(@NonNull File base, @NonNull DirScanner scanner) throws IOException {
+        long[] sizes = new long[2]; // total, compressed
+        scanner.scan(base, new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) {
+                long length = f.length();
+                sizes[0] += length;
+                int dot = relativePath.lastIndexOf('.');
+                if (dot != -1 && COMPRESSED.contains(relativePath.substring(dot + 1).toLowerCase(Locale.ENGLISH))) {
+                    sizes[1] += length;
+                }
+            }
+        });
+        return sizes[1] * 2 > sizes[0] ? NONE : GZIP;
+    }
+
+}
@@ -0,0 +1,139 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Lists the chunks of a stash stored in chunked mode.
+ * The stash is an uncompressed tarball cut into chunks by {@link ChunkingOutputStream};
+ * each chunk is compressed separately and stored once per digest of its compressed form in the area shared by all builds,
+ * so that chunks identical to ones stashed before with the same codec and compression level need not be uploaded again.
+ */
+final class StashIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Appended to the stash name, in place of {@code .tgz}, to get the key of the index. */
+    static final String SUFFIX = ".chunks";
+
+    /** A chunk in the index. */
+    static final class Chunk implements Serializable {
+        private static final long serialVersionUID = 1L;
+        /** SHA-256 of the chunk as stored, compressed with {@link StashIndex#codec}, in hex; the store checks it on upload. */
+        final String digest;
+        /** Length before compression. */
+        final int length;
+        Chunk(String digest, int length) {
+            this.digest = digest;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Supplies upload URLs for chunks, skipping those already stored.
+     * Implemented on the controller and exported to an agent.
+     */
+    public interface ChunkUrls {
+        /**
+         * @param digest as in {@link Chunk#digest}
+         * @return a URL to {@code PUT} the compressed chunk to, sending {@link BlobStoreProvider#CHECKSUM_HEADER}, or null if it need not be uploaded
+         */
+        @CheckForNull
+        URL chunkUrl(@NonNull String digest) throws IOException;
+    }
+
+    final StashCodec codec;
+    final List<Chunk> chunks = new ArrayList<>();
+    /** Number of files in the stash. */
+    int count;
+
+    StashIndex(@NonNull StashCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Name of a chunk in the shared area, relative to the directory of {@link ArtifactManifest#CAS_KEY}.
+     */
+    static String chunkName(@NonNull String digest, @NonNull StashCodec codec) {
+        return "chunks/" + chunkFile(digest, codec);
+    }
+
+    /**
+     * Name of a chunk within the {@code chunks} directory.
+     */
+    static String chunkFile(@NonNull String digest, @NonNull StashCodec codec) {
+        return digest + codec.extension;
+    }
+
+    /**
+     * Loads an index.
+     * @return null if it does not exist
+     */
+    @CheckForNull
+    static StashIndex read(@NonNull BlobStore blobStore, @NonNull String container, @NonNull String key) throws IOException {
+        Blob blob;
+        try {
+            blob = blobStore.getBlob(container, key);
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+        if (blob == null) {
+            return null;
+        }
+        try (InputStream is = blob.getPayload().openStream();
+             BufferedReader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            // codec, file count; then digest, length
+            String[] header = String.valueOf(r.readLine()).split("\t");
+            if (header.length != 2) {
+                throw new IOException("Malformed header in " + key);
+            }
+            StashIndex index = new StashIndex(StashCodec.forName(header[0]));
+            String line;
+            try {
+                index.count = Integer.parseInt(header[1]);
+                while ((line = r.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length != 2) {
+                        throw new IOException("Malformed line in " + key + ": " + line);
+                    }
+                    index.chunks.add(new Chunk(fields[0], Integer.parseInt(fields[1])));
+                }
+            } catch (NumberFormatException x) {
+                throw new IOException("Malformed index " + key, x);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Stores this index, replacing any previous version.
+     */
+    void write(@NonNull BlobStore blobStore, @NonNull String container, @NonNull String key) throws IOException {
+        StringBuilder b = new StringBuilder();
+        b.append(codec.name().toLowerCase(Locale.ENGLISH)).append('\t').append(count).append('\n');
+        for (Chunk chunk : chunks) {
+            b.append(chunk.digest).append('\t').append(chunk.length).append('\n');
+        }
+        Blob blob = blobStore.blobBuilder(key).payload(b.toString().getBytes(StandardCharsets.UTF_8)).contentType("text/plain; charset=UTF-8").build();
+        try {
+            blobStore.putBlob(container, blob);
+        } catch (RuntimeException x) {
+            throw new IOException(x);
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package io.jenkins.plugins.artifact_manager_jclouds.s3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jclouds.blobstore.BlobStoreContext;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import jenkins.util.SystemProperties;
+
+/**
+ * Shares jclouds contexts among callers of {@link S3BlobStore#getContext}.
+ * Building a context bootstraps a Guice injector with its own thread pools,
+ * so rather than doing that for every archive, stash or page view we keep one context per effective configuration.
+ * Callers get a lease on the shared context; {@link BlobStoreContext#close} on the lease merely releases it.
+ * A context is retired when its credentials are about to expire or the configuration is saved,
+ * and actually closed once its last lease has been released.
+ */
+final class BlobStoreContextPool {
+
+    private static final Logger LOGGER = Logger.getLogger(BlobStoreContextPool.class.getName());
+
+    /** How long before its credentials expire we stop handing out a context, or other handle carrying those credentials. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static long REFRESH_MARGIN_SECONDS = SystemProperties.getLong(BlobStoreContextPool.class.getName() + ".refreshMarginSeconds", 300L);
+
+    static final BlobStoreContextPool INSTANCE = new BlobStoreContextPool(Clock.systemUTC());
+
+    /** A freshly built context along with the time after which it should not be used for new work. */
+    static final class Built {
+        final BlobStoreContext context;
+        final Instant expiration;
+        Built(@NonNull BlobStoreContext context, @NonNull Instant expiration) {
+            this.context = context;
+            this.expiration = expiration;
+        }
+    }
+
+    @FunctionalInterface
+    interface Factory {
+        Built build() throws IOException;
+    }
+
+    private static final class Entry {
+        final Object key;
+        /** Completed once the context has been built, outside the pool lock. */
+        final CompletableFuture<Built> built = new CompletableFuture<>();
+        /** Includes callers still waiting for {@link #built}. */
+        int leases;
+        boolean retired;
+        Entry(Object key) {
+            this.key = key;
+        }
+        /** The context, if it has been built successfully. */
+        @CheckForNull
+        Built builtNow() {
+            return built.isDone() && !built.isCompletedExceptionally() ? built.join() : null;
+        }
+    }
+
+    private final Clock clock;
+    private final Map<Object, Entry> entries = new HashMap<>();
+
+    BlobStoreContextPool(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Obtains a lease on the context for a given configuration, building one if necessary.
+     * The context is built without holding the pool lock, so that other callers are not held up;
+     * concurrent callers for the same key wait for that one build.
+     * @param key identifies everything which went into building the context
+     * @param factory builds a new context when none is available
+     * @return a lease which the caller should close when done
+     */
+    @NonNull
+    BlobStoreContext acquire(@NonNull Object key, @NonNull Factory factory) throws IOException {
+        Entry entry;
+        boolean build;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null) {
+                Built built = entry.builtNow();
+                if (built != null && clock.instant().plusSeconds(REFRESH_MARGIN_SECONDS).isAfter(built.expiration)) {
+                    LOGGER.log(Level.FINE, "Retiring context for {0} due to credentials expiring at {1}", new Object[] {key, built.expiration});
+                    retire(entry);
+                    entry = null;
+                }
+            }
+            build = entry == null;
+            if (build) {
+                entry = new Entry(key);
+                entries.put(key, entry);
+            }
+            entry.leases++;
+        }
+        Built built;
+        if (build) {
+            LOGGER.log(Level.FINE, "Building context for {0}", key);
+            try {
+                built = factory.build();
+            } catch (IOException | RuntimeException | Error x) {
+                synchronized (this) {
+                    entries.remove(key, entry);
+                }
+                entry.built.completeExceptionally(x);
+                release(entry);
+                throw x;
+            }
+            entry.built.complete(built);
+        } else {
+            try {
+                built = entry.built.get();
+            } catch (InterruptedException x) {
+                release(entry);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for context for " + key);
+            } catch (ExecutionException x) {
+                release(entry);
+                throw new IOException("Failed to build context for " + key, x.getCause());
+            }
+        }
+        return lease(entry, built);
+    }
+
+    /**
+     * Retires all contexts, for example because the configuration has changed.
+     * Contexts still in use will be closed when released.
+     */
+    synchronized void invalidate() {
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            retire(entry);
+        }
+    }
+
+    /** For testing: number of contexts currently handed out for new work. */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void retire(Entry entry) {
+        entries.remove(entry.key, entry);
+        entry.retired = true;
+        if (entry.leases == 0) {
+            close(entry);
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.leases--;
+        assert entry.leases >= 0 : entry.key;
+        if (entry.leases == 0 && entry.retired) {
+            close(entry);
+        }
+    }
+
+    private static void close(Entry entry) {
+        Built built = entry.builtNow();
+        if (built == null) {
+            // never built, or failed to build
+            return;
+        }
+        LOGGER.log(Level.FINE, "Closing context for {0}", entry.key);
+        try {
+            built.context.close();
+        } catch (RuntimeException x) {
+            LOGGER.log(Level.WARNING, "Failed to close context for " + entry.key, x);
+        }
+    }
+
+    private BlobStoreContext lease(Entry entry, Built built) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (BlobStoreContext) Proxy.newProxyInstance(BlobStoreContext.class.getClassLoader(), new Class<?>[] {BlobStoreContext.class}, (proxy, method, args) -> {
+            if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                if (released.compareAndSet(false, true)) {
+                    release(entry);
+                }
+                return null;
+            }
+            try {
+                return method.invoke(built.context, args);
+            } catch (InvocationTargetException x) {
+                throw x.getCause();
+            }
+        });
+    }
+
+}
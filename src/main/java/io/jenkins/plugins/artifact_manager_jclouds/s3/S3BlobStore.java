@@ -25,17 +25,30 @@
 package io.jenkins.plugins.artifact_manager_jclouds.s3;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 
 import jenkins.security.FIPS140;
@@ -58,21 +71,45 @@ import com.google.common.base.Supplier;
 
 import hudson.Extension;
 import hudson.Util;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import io.jenkins.plugins.artifact_manager_jclouds.BlobStoreProvider;
 import io.jenkins.plugins.artifact_manager_jclouds.BlobStoreProviderDescriptor;
+import io.jenkins.plugins.artifact_manager_jclouds.MultipartUpload;
 import io.jenkins.plugins.aws.global_configuration.CredentialsAwsGlobalConfiguration;
+import jenkins.util.SystemProperties;
 import org.jenkinsci.Symbol;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetUrlRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
 
 /**
  * Extension that customizes JCloudsBlobStore for AWS S3. Credentials are fetched from the environment, env vars, aws
@@ -84,6 +121,26 @@ public class S3BlobStore extends BlobStoreProvider {
     private static final Logger LOGGER = Logger.getLogger(S3BlobStore.class.getName());
 
     private static final long serialVersionUID = -8864075675579867370L;
+
+    /**
+     * Blobs at least this large are copied with {@code UploadPartCopy} rather than a single {@code CopyObject},
+     * which cannot copy more than 5 GiB.
+     */
+    @SuppressWarnings("FieldMayBeFinal")
+    static long MULTIPART_COPY_THRESHOLD = SystemProperties.getLong(S3BlobStore.class.getName() + ".multipartCopyThreshold", 1024L * 1024 * 1024);
+
+    /** Size of each part of a multipart copy. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static long MULTIPART_COPY_PART_SIZE = SystemProperties.getLong(S3BlobStore.class.getName() + ".multipartCopyPartSize", 256L * 1024 * 1024);
+
+    /** How many parts to copy at once, across all multipart copies. */
+    @SuppressWarnings("FieldMayBeFinal")
+    static int MULTIPART_COPY_CONCURRENCY = SystemProperties.getInteger(S3BlobStore.class.getName() + ".multipartCopyConcurrency", 8);
+
+    private static ExecutorService copyExecutor;
+
+    /** Maximum number of parts in an upload. */
+    private static final long MAX_PARTS = 10_000;
     
     @DataBoundConstructor
     public S3BlobStore() {
@@ -91,22 +148,29 @@ public class S3BlobStore extends BlobStoreProvider {
 
     @Override
     public String getPrefix() {
-        return Util.fixNull(getConfiguration().getPrefix());
+        return getSnapshot().getPrefix();
     }
 
     @Override
     public String getContainer() {
-        return getConfiguration().getContainer();
+        return getSnapshot().getContainer();
     }
 
     public String getRegion() {
-        return getConfiguration().getRegion().id();
+        return getSnapshot().getRegion().id();
     }
 
     public S3BlobStoreConfig getConfiguration(){
         return S3BlobStoreConfig.get();
     }
 
+    /**
+     * @return the resolved configuration; callers doing more than one lookup should hold on to this
+     */
+    S3BlobStoreConfig.Snapshot getSnapshot() {
+        return getConfiguration().getSnapshot();
+    }
+
     @Override
     public boolean isDeleteArtifacts() {
         return getConfiguration().isDeleteArtifacts();
@@ -117,73 +181,122 @@ public class S3BlobStore extends BlobStoreProvider {
         return getConfiguration().isDeleteStashes();
     }
 
+    /**
+     * Obtains a lease on a shared context; callers should close it when done.
+     */
     @Override
     public BlobStoreContext getContext() throws IOException {
+        return BlobStoreContextPool.INSTANCE.acquire(getContextKey(), this::buildContext);
+    }
+
+    /**
+     * Everything which goes into {@link #buildContext}, so that contexts can be shared among equivalent configurations.
+     */
+    private Object getContextKey() {
+        return Arrays.asList(getSnapshot(), BREAK_CREDS);
+    }
+
+    private BlobStoreContextPool.Built buildContext() throws IOException {
         LOGGER.log(Level.FINEST, "Building context");
         ProviderRegistry.registerProvider(AWSS3ProviderMetadata.builder().build());
         try {
+            S3BlobStoreConfig.Snapshot snapshot = getSnapshot();
             Properties props = new Properties();
-            String resolvedCustomEndpoint = getConfiguration().getResolvedCustomEndpoint();
+            String resolvedCustomEndpoint = snapshot.getResolvedCustomEndpoint();
             boolean hasCustomEndpoint = resolvedCustomEndpoint != null && !resolvedCustomEndpoint.isBlank();
 
-            if(!getRegion().isBlank()) {
-                props.setProperty(LocationConstants.PROPERTY_REGIONS, getRegion());
+            String region = snapshot.getRegion().id();
+            if(!region.isBlank()) {
+                props.setProperty(LocationConstants.PROPERTY_REGIONS, region);
             }
             if (hasCustomEndpoint) {
                 // We need to set the endpoint here and in the builder or listing
                 // will still use s3.amazonaws.com
                 props.setProperty(LocationConstants.ENDPOINT, resolvedCustomEndpoint);
             }
-            props.setProperty(S3Constants.PROPERTY_S3_VIRTUAL_HOST_BUCKETS, Boolean.toString(!getConfiguration().getUsePathStyleUrl()));
-
+            props.setProperty(S3Constants.PROPERTY_S3_VIRTUAL_HOST_BUCKETS, Boolean.toString(!snapshot.getUsePathStyleUrl()));
+
+            // fail early if there are no credentials
+            AwsCredentials awsCredentials = resolveCredentials(snapshot);
+            Supplier<Credentials> credentialsSupplier;
+            Instant expiration;
+            if (snapshot.getDisableSessionToken()) {
+                credentialsSupplier = getCredentialsSupplier(snapshot, awsCredentials);
+                expiration = awsCredentials.expirationTime().orElseGet(() -> Instant.now().plus(S3CredentialsCache.SESSION_DURATION));
+            } else {
+                // looked up for each request from the cache, so the context outlives any particular session
+                credentialsSupplier = () -> {
+                    try {
+                        return getCredentialsSupplier(snapshot, resolveCredentials(snapshot)).get();
+                    } catch (IOException x) {
+                        throw new UncheckedIOException(x);
+                    }
+                };
+                expiration = Instant.MAX;
+            }
             ContextBuilder builder = ContextBuilder.newBuilder("aws-s3")
-                    .credentialsSupplier(getCredentialsSupplier())
+                    .credentialsSupplier(credentialsSupplier)
                     .overrides(props);
 
             if (hasCustomEndpoint) {
                 builder = builder.endpoint(resolvedCustomEndpoint);
             }
 
-            return builder.buildView(BlobStoreContext.class);
+            return new BlobStoreContextPool.Built(builder.buildView(BlobStoreContext.class), expiration);
         } catch (NoSuchElementException x) {
             throw new IOException(x);
         }
     }
 
+    /**
+     * Closes any pooled contexts and clients, for example because the configuration changed.
+     */
+    static void invalidateCaches() {
+        BlobStoreContextPool.INSTANCE.invalidate();
+        S3ClientCache.INSTANCE.invalidate();
+        S3CredentialsCache.INSTANCE.invalidate();
+    }
+
+    @Terminator
+    public static void closeCaches() {
+        invalidateCaches();
+    }
+
     /**
      * field only for tests.
      */
     static boolean BREAK_CREDS;
 
+    /** How long presigned URLs are valid. */
+    private static final Duration URL_EXPIRATION = Duration.ofHours(1);
+
     /**
-     *
-     * @return the proper credential supplier using the configuration settings.
+     * Looks up user credentials from env vars, profiles,...
+     * @return static or session credentials according to the configuration settings.
      * @throws IOException in case of error.
      */
-    private Supplier<Credentials> getCredentialsSupplier() throws IOException {
-        // get user credentials from env vars, profiles,...
-        String accessKeyId;
-        String secretKey;
-        String sessionToken;
-        if (getConfiguration().getDisableSessionToken()) {
+    private AwsCredentials resolveCredentials(S3BlobStoreConfig.Snapshot snapshot) throws IOException {
+        if (snapshot.getDisableSessionToken()) {
             AmazonWebServicesCredentials amazonWebServicesCredentials = CredentialsAwsGlobalConfiguration.get().getCredentials();
             if (amazonWebServicesCredentials == null) {
                 throw new IOException("No static AWS credentials found");
             }
-            AwsCredentials awsCredentials = amazonWebServicesCredentials.resolveCredentials();
-            accessKeyId = awsCredentials.accessKeyId();
-            secretKey = awsCredentials.secretAccessKey();
-            sessionToken = "";
+            return amazonWebServicesCredentials.resolveCredentials();
         } else {
-            AwsSessionCredentials awsSessionCredentials = CredentialsAwsGlobalConfiguration.get()
-                    .sessionCredentials(getRegion(), CredentialsAwsGlobalConfiguration.get().getCredentialsId());
-            if(awsSessionCredentials != null ) {
-                accessKeyId = awsSessionCredentials.accessKeyId();
-                secretKey = awsSessionCredentials.secretAccessKey();
-                sessionToken = awsSessionCredentials.sessionToken();
-            } else {
-                throw new IOException("No session AWS credentials found");
-            }
+            return S3CredentialsCache.INSTANCE.sessionCredentials(snapshot.getRegion().id(), snapshot.getCredentialsId());
+        }
+    }
+
+    /**
+     *
+     * @return the proper credential supplier using the configuration settings.
+     */
+    private Supplier<Credentials> getCredentialsSupplier(S3BlobStoreConfig.Snapshot snapshot, AwsCredentials awsCredentials) {
+        String sessionToken;
+        if (!snapshot.getDisableSessionToken() && awsCredentials instanceof AwsSessionCredentials) {
+            sessionToken = ((AwsSessionCredentials) awsCredentials).sessionToken();
+        } else {
+            sessionToken = "";
         }
 
         if (BREAK_CREDS) {
@@ -191,55 +304,94 @@ public class S3BlobStore extends BlobStoreProvider {
         }
 
         SessionCredentials sessionCredentials = SessionCredentials.builder()
-                .accessKeyId(accessKeyId)
-                .secretAccessKey(secretKey)
+                .accessKeyId(awsCredentials.accessKeyId())
+                .secretAccessKey(awsCredentials.secretAccessKey())
                 .sessionToken(sessionToken)
                 .build();
 
         return () -> sessionCredentials;
     }
 
+    /**
+     * Everything which goes into the SDK clients, so that they can be shared among equivalent configurations.
+     */
+    private Object getClientKey() {
+        return Arrays.asList(getSnapshot(), FIPS140.useCompliantAlgorithms());
+    }
+
+    private S3Client buildPlainClient() throws IOException {
+        try {
+            return getConfiguration().getAmazonS3ClientBuilder().build();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private S3ClientCache.Signing buildSigning() throws IOException {
+        S3Client s3Client = getConfiguration().getAmazonS3ClientBuilderWithCredentials().build();
+        try {
+            // session credentials come from S3CredentialsCache as needed
+            return new S3ClientCache.Signing(s3Client, getS3Presigner(s3Client), Instant.MAX);
+        } catch (RuntimeException x) {
+            s3Client.close();
+            throw x;
+        }
+    }
+
+    /**
+     * @return a shared client and presigner; do not close them
+     */
+    S3ClientCache.Signing getSigning() throws IOException {
+        return S3ClientCache.INSTANCE.signing(getClientKey(), this::buildSigning);
+    }
+
     @NonNull
     @Override
     public URI toURI(@NonNull String container, @NonNull String key) {
-        try (S3Client s3Client = getConfiguration().getAmazonS3ClientBuilder().build()) {
+        try {
             GetUrlRequest getUrlRequest = GetUrlRequest.builder().key(key).bucket(container).build();
-            URI uri = s3Client.utilities().getUrl(getUrlRequest).toURI();
+            URI uri = S3ClientCache.INSTANCE.utilities(getClientKey(), this::buildPlainClient).getUrl(getUrlRequest).toURI();
             LOGGER.fine(() -> container + " / " + key + " → " + uri);
             return uri;
-        } catch (URISyntaxException e) {
+        } catch (URISyntaxException | IOException e) {
             throw new IllegalStateException(e);
         }
     }
 
     public S3Presigner getS3Presigner(S3Client s3Client) {
-        String customEndpoint = getConfiguration().getResolvedCustomEndpoint();
+        S3BlobStoreConfig.Snapshot snapshot = getSnapshot();
+        String customEndpoint = snapshot.getResolvedCustomEndpoint();
         S3Presigner.Builder presignerBuilder = S3Presigner.builder()
                 .fipsEnabled(FIPS140.useCompliantAlgorithms())
-                .credentialsProvider(CredentialsAwsGlobalConfiguration.get().getCredentials())
+                .credentialsProvider(presignerCredentials())
                 .s3Client(s3Client);
         if (customEndpoint != null && !customEndpoint.isBlank()) {
             presignerBuilder.endpointOverride(URI.create(customEndpoint));
         }
 
-        String customRegion = getConfiguration().getCustomSigningRegion();
-        if(customRegion == null || customRegion.isBlank()) {
-            customRegion = getRegion();
-        }
-        if(!customRegion.isBlank()) {
-            presignerBuilder.region(Region.of(customRegion));
+        Region signingRegion = snapshot.getSigningRegion();
+        if(!signingRegion.id().isBlank()) {
+            presignerBuilder.region(signingRegion);
         }
 
         S3Configuration s3Configuration = S3Configuration.builder()
-                .pathStyleAccessEnabled(getConfiguration().getUsePathStyleUrl())
-                .accelerateModeEnabled(getConfiguration().getUseTransferAcceleration())
+                .pathStyleAccessEnabled(snapshot.getUsePathStyleUrl())
+                .accelerateModeEnabled(snapshot.getUseTransferAcceleration())
                 .build();
         presignerBuilder.serviceConfiguration(s3Configuration);
         return presignerBuilder.build();
     }
 
+    /**
+     * The credentials used by {@link #getS3Presigner}: those configured globally, else the shared default chain.
+     */
+    private static AwsCredentialsProvider presignerCredentials() {
+        AwsCredentialsProvider provider = CredentialsAwsGlobalConfiguration.get().getCredentials();
+        return provider != null ? provider : S3ClientCache.INSTANCE.defaultCredentials();
+    }
+
     private URL toExternalURL(@NonNull Blob blob, @NonNull HttpMethod httpMethod, S3Presigner presigner) throws IOException {
-        Duration expiration = Duration.ofHours(1);
+        Duration expiration = URL_EXPIRATION;
         String container = blob.getMetadata().getContainer();
         String name = blob.getMetadata().getName();
         LOGGER.log(Level.FINE, "Generating presigned URL for {0} / {1} for method {2}",
@@ -274,28 +426,293 @@ public class S3BlobStore extends BlobStoreProvider {
      */
     @Override
     public URL toExternalURL(@NonNull Blob blob, @NonNull HttpMethod httpMethod) throws IOException {
-        try (S3Client s3Client = getConfiguration().getAmazonS3ClientBuilderWithCredentials().build();
-             S3Presigner presigner = getS3Presigner(s3Client)) {
-            return toExternalURL(blob, httpMethod, presigner);
-        }
+        return toExternalURL(blob, httpMethod, getSigning().presigner);
     }
 
     @Override
     public Map<String, URL> artifactUrls(Map<String, String> artifacts, Map<String, String> contentTypes, BlobStore blobStore, String key) throws IOException {
-        Map<String, URL> artifactUrls = new HashMap<>();
-        try (S3Client s3Client = this.getConfiguration().getAmazonS3ClientBuilderWithCredentials().build();
-             S3Presigner s3Presigner = this.getS3Presigner(s3Client)) {
-            // Map artifacts to urls for upload
-            for (Map.Entry<String, String> entry : artifacts.entrySet()) {
-                String path = "artifacts/" + entry.getKey();
-                String blobPath = getBlobPath(key, path);
-                Blob blob = blobStore.blobBuilder(blobPath).build();
-                blob.getMetadata().setContainer(this.getContainer());
-                blob.getMetadata().getContentMetadata().setContentType(contentTypes.get(entry.getValue()));
-                artifactUrls.put(entry.getValue(), this.toExternalURL(blob, HttpMethod.PUT, s3Presigner));
+        S3BlobStoreConfig.Snapshot snapshot = getSnapshot();
+        // same as getBlobPath, without looking up the configuration for each file
+        String base = snapshot.getPrefix() + key + "/artifacts/";
+        Map<String, String> blobPaths = new HashMap<>();
+        for (Map.Entry<String, String> entry : artifacts.entrySet()) {
+            blobPaths.put(entry.getValue(), base + entry.getKey());
+        }
+        return new S3BulkPresigner(getSigning().presigner, presignerCredentials().resolveCredentials(), URL_EXPIRATION).presignPuts(snapshot.getContainer(), blobPaths, contentTypes);
+    }
+
+    @Override
+    public Map<String, URL> artifactUrls(Map<String, String> artifacts, Map<String, String> contentTypes, Map<String, String> digests, BlobStore blobStore, String key) throws IOException {
+        S3BlobStoreConfig.Snapshot snapshot = getSnapshot();
+        String base = snapshot.getPrefix() + key + "/artifacts/";
+        Map<String, String> blobPaths = new HashMap<>();
+        Map<String, String> checksums = new HashMap<>();
+        for (Map.Entry<String, String> entry : artifacts.entrySet()) {
+            blobPaths.put(entry.getValue(), base + entry.getKey());
+            checksums.put(entry.getValue(), checksumHeaderValue(digests.get(entry.getValue())));
+        }
+        return new S3BulkPresigner(getSigning().presigner, presignerCredentials().resolveCredentials(), URL_EXPIRATION).presignPuts(snapshot.getContainer(), blobPaths, contentTypes, checksums);
+    }
+
+    @Override
+    public boolean isChecksumSupported() {
+        return true;
+    }
+
+    @Override
+    public URL toExternalURL(@NonNull Blob blob, @NonNull HttpMethod httpMethod, @NonNull String sha256) throws IOException {
+        if (httpMethod != HttpMethod.PUT) {
+            throw new IOException("HTTP Method " + httpMethod + " not supported with a checksum");
+        }
+        String name = blob.getMetadata().getName();
+        Map<String, String> contentTypes = new HashMap<>();
+        contentTypes.put(name, blob.getMetadata().getContentMetadata().getContentType());
+        return new S3BulkPresigner(getSigning().presigner, presignerCredentials().resolveCredentials(), URL_EXPIRATION)
+                .presignPuts(blob.getMetadata().getContainer(), Map.of(name, name), contentTypes, Map.of(name, checksumHeaderValue(sha256))).get(name);
+    }
+
+    /**
+     * Reads the checksum S3 stored with the object, with a {@code HEAD} request.
+     */
+    @CheckForNull
+    @Override
+    public String getSha256(@NonNull BlobStore blobStore, @NonNull String path) throws IOException {
+        HeadObjectResponse head;
+        try {
+            head = getSigning().client.headObject(HeadObjectRequest.builder().bucket(getContainer()).key(path).checksumMode(ChecksumMode.ENABLED).build());
+        } catch (NoSuchKeyException x) {
+            return null;
+        } catch (SdkException x) {
+            throw new IOException(x);
+        }
+        String checksum = head.checksumSHA256();
+        // for multipart uploads this is a checksum of the checksums of the parts, followed by -N
+        if (checksum == null || checksum.contains("-")) {
+            return null;
+        }
+        return Util.toHexString(Base64.getDecoder().decode(checksum));
+    }
+
+    @Override
+    public boolean isMultipartUploadSupported() {
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public MultipartUpload initiateMultipartUpload(@NonNull Blob blob, long size, long partSize) throws IOException {
+        String container = blob.getMetadata().getContainer();
+        String name = blob.getMetadata().getName();
+        int partCount = size < 0 ? 0 : (int) Math.max(1, (size + partSize - 1) / partSize);
+        LOGGER.log(Level.FINE, "Starting multipart upload of {0} / {1} in {2} parts", new Object[] {container, name, partCount});
+        S3ClientCache.Signing signing = getSigning();
+        String uploadId;
+        try {
+            uploadId = signing.client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(container)
+                    .key(name)
+                    .contentType(blob.getMetadata().getContentMetadata().getContentType())
+                    .build()).uploadId();
+        } catch (SdkException x) {
+            throw new IOException(x);
+        }
+        MultipartUpload upload = new MultipartUpload(container, name, uploadId, partSize, List.of());
+        if (size < 0) {
+            return upload;
+        }
+        try {
+            List<URL> partUrls = new ArrayList<>(partCount);
+            for (int part = 1; part <= partCount; part++) {
+                partUrls.add(presignUploadPart(signing.presigner, upload, part));
+            }
+            return new MultipartUpload(container, name, uploadId, partSize, partUrls);
+        } catch (RuntimeException x) {
+            try {
+                abortMultipartUpload(upload);
+            } catch (IOException x2) {
+                x.addSuppressed(x2);
+            }
+            throw new IOException(x);
+        }
+    }
+
+    @NonNull
+    @Override
+    public URL presignMultipartUploadPart(@NonNull MultipartUpload upload, int partNumber) throws IOException {
+        try {
+            return presignUploadPart(getSigning().presigner, upload, partNumber);
+        } catch (SdkException x) {
+            throw new IOException(x);
+        }
+    }
+
+    private static URL presignUploadPart(S3Presigner presigner, MultipartUpload upload, int partNumber) {
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                .bucket(upload.getContainer())
+                .key(upload.getKey())
+                .uploadId(upload.getUploadId())
+                .partNumber(partNumber)
+                .build();
+        return presigner.presignUploadPart(UploadPartPresignRequest.builder()
+                .signatureDuration(URL_EXPIRATION)
+                .uploadPartRequest(uploadPartRequest).build()).url();
+    }
+
+    @Override
+    public void completeMultipartUpload(@NonNull MultipartUpload upload, @NonNull List<String> etags) throws IOException {
+        LOGGER.log(Level.FINE, "Completing multipart upload {0}", upload);
+        List<CompletedPart> parts = new ArrayList<>(etags.size());
+        for (int i = 0; i < etags.size(); i++) {
+            parts.add(CompletedPart.builder().partNumber(i + 1).eTag(etags.get(i)).build());
+        }
+        try {
+            getSigning().client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(upload.getContainer())
+                    .key(upload.getKey())
+                    .uploadId(upload.getUploadId())
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build());
+        } catch (SdkException x) {
+            throw new IOException(x);
+        }
+    }
+
+    /**
+     * Uses {@code DeleteObjects} directly, to learn which keys could not be deleted.
+     */
+    @Override
+    public Map<String, String> deleteBlobs(@NonNull BlobStore blobStore, @NonNull List<String> paths) throws IOException {
+        List<ObjectIdentifier> objects = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            objects.add(ObjectIdentifier.builder().key(path).build());
+        }
+        DeleteObjectsResponse response;
+        try {
+            response = getSigning().client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(getContainer())
+                    .delete(Delete.builder().objects(objects).quiet(true).build())
+                    .build());
+        } catch (SdkException x) {
+            throw new IOException(x);
+        }
+        Map<String, String> failures = new HashMap<>();
+        for (S3Error error : response.errors()) {
+            failures.put(error.key(), error.code() + ": " + error.message());
+        }
+        return failures;
+    }
+
+    /**
+     * Copies large blobs in parts, in parallel; smaller ones with a single {@code CopyObject}.
+     */
+    @Override
+    public void copyBlob(@NonNull BlobStore blobStore, @NonNull String from, @NonNull String to, long size) throws IOException, InterruptedException {
+        if (size >= 0 && size < MULTIPART_COPY_THRESHOLD) {
+            super.copyBlob(blobStore, from, to, size);
+            return;
+        }
+        String container = getContainer();
+        S3Client client = getSigning().client;
+        HeadObjectResponse head;
+        try {
+            head = client.headObject(HeadObjectRequest.builder().bucket(container).key(from).build());
+        } catch (SdkException x) {
+            throw new IOException(x);
+        }
+        long length = head.contentLength();
+        if (length < MULTIPART_COPY_THRESHOLD) {
+            super.copyBlob(blobStore, from, to, length);
+            return;
+        }
+        long partSize = Math.max(MULTIPART_COPY_PART_SIZE, (length + MAX_PARTS - 1) / MAX_PARTS);
+        int partCount = (int) ((length + partSize - 1) / partSize);
+        LOGGER.log(Level.FINE, "Copying {0} to {1} in {2} parts", new Object[] {from, to, partCount});
+        String uploadId;
+        try {
+            // unlike CopyObject, the upload does not take metadata from the source
+            uploadId = client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(container)
+                    .key(to)
+                    .contentType(head.contentType())
+                    .contentEncoding(head.contentEncoding())
+                    .contentDisposition(head.contentDisposition())
+                    .cacheControl(head.cacheControl())
+                    .metadata(head.metadata())
+                    .build()).uploadId();
+        } catch (SdkException x) {
+            throw new IOException(x);
+        }
+        MultipartUpload upload = new MultipartUpload(container, to, uploadId, partSize, List.of());
+        ExecutorService executor = copyExecutor();
+        List<Future<String>> etags = new ArrayList<>(partCount);
+        boolean completed = false;
+        try {
+            for (int i = 0; i < partCount; i++) {
+                int partNumber = i + 1;
+                long start = i * partSize;
+                long end = Math.min(start + partSize, length) - 1;
+                etags.add(executor.submit(() -> client.uploadPartCopy(UploadPartCopyRequest.builder()
+                        .sourceBucket(container)
+                        .sourceKey(from)
+                        // guard against the source changing in between
+                        .copySourceIfMatch(head.eTag())
+                        .destinationBucket(container)
+                        .destinationKey(to)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .copySourceRange("bytes=" + start + "-" + end)
+                        .build()).copyPartResult().eTag()));
+            }
+            List<String> results = new ArrayList<>(partCount);
+            for (Future<String> etag : etags) {
+                try {
+                    results.add(etag.get());
+                } catch (ExecutionException x) {
+                    throw new IOException(x.getCause());
+                }
             }
+            completeMultipartUpload(upload, results);
+            completed = true;
+        } finally {
+            if (!completed) {
+                for (Future<String> etag : etags) {
+                    etag.cancel(true);
+                }
+                try {
+                    abortMultipartUpload(upload);
+                } catch (IOException x) {
+                    LOGGER.log(Level.WARNING, null, x);
+                }
+            }
+        }
+    }
+
+    /**
+     * Threads shared by all multipart copies, which may themselves be running several at a time.
+     */
+    private static synchronized ExecutorService copyExecutor() {
+        if (copyExecutor == null) {
+            int threads = Math.max(1, MULTIPART_COPY_CONCURRENCY);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "S3BlobStore.copyBlob"));
+            executor.allowCoreThreadTimeOut(true);
+            copyExecutor = executor;
+        }
+        return copyExecutor;
+    }
+
+    @Override
+    public void abortMultipartUpload(@NonNull MultipartUpload upload) throws IOException {
+        LOGGER.log(Level.FINE, "Aborting multipart upload {0}", upload);
+        try {
+            getSigning().client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(upload.getContainer())
+                    .key(upload.getKey())
+                    .uploadId(upload.getUploadId())
+                    .build());
+        } catch (SdkException x) {
+            throw new IOException(x);
         }
-        return artifactUrls;
     }
 
     @Symbol("s3")
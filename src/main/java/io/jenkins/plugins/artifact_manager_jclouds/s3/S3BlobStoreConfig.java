@@ -27,10 +27,14 @@ package io.jenkins.plugins.artifact_manager_jclouds.s3;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Objects;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.interceptor.RequirePOST;
@@ -44,7 +48,10 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.Util;
+import hudson.XmlFile;
 import hudson.model.Failure;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
 import hudson.util.FormValidation;
 
 import io.jenkins.plugins.artifact_manager_jclouds.JCloudsVirtualFile;
@@ -54,8 +61,6 @@ import io.jenkins.plugins.aws.global_configuration.CredentialsAwsGlobalConfigura
 import jenkins.model.Jenkins;
 import jenkins.security.FIPS140;
 import org.jenkinsci.Symbol;
-import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.SdkSystemSetting;
 import software.amazon.awssdk.regions.Region;
@@ -120,6 +125,121 @@ public final class S3BlobStoreConfig extends AbstractAwsGlobalConfiguration {
     
     private final boolean deleteStashes;
 
+    /**
+     * Resolved settings, or null if they need to be recomputed.
+     */
+    private transient volatile Snapshot snapshot;
+
+    /**
+     * Settings as used by {@link S3BlobStore}, resolved once when the configuration is loaded or saved.
+     * In particular the region may otherwise require consulting the environment, profile files or instance metadata.
+     * Snapshots with equal settings are equal, so they may serve as cache keys.
+     */
+    public static final class Snapshot {
+
+        private final String container;
+        private final String prefix;
+        private final Region region;
+        private final String resolvedCustomEndpoint;
+        private final String customSigningRegion;
+        private final boolean usePathStyleUrl;
+        private final boolean useTransferAcceleration;
+        private final boolean disableSessionToken;
+        private final String credentialsId;
+
+        Snapshot(S3BlobStoreConfig config) {
+            container = config.container;
+            prefix = Util.fixNull(config.prefix);
+            region = config.resolveRegion();
+            resolvedCustomEndpoint = config.getResolvedCustomEndpoint();
+            customSigningRegion = Util.fixEmptyAndTrim(config.customSigningRegion);
+            usePathStyleUrl = config.usePathStyleUrl;
+            useTransferAcceleration = config.useTransferAcceleration;
+            disableSessionToken = config.disableSessionToken;
+            credentialsId = CredentialsAwsGlobalConfiguration.get().getCredentialsId();
+        }
+
+        public String getContainer() {
+            return container;
+        }
+
+        /**
+         * @return the prefix, or empty
+         */
+        @NonNull
+        public String getPrefix() {
+            return prefix;
+        }
+
+        @NonNull
+        public Region getRegion() {
+            return region;
+        }
+
+        @CheckForNull
+        public String getResolvedCustomEndpoint() {
+            return resolvedCustomEndpoint;
+        }
+
+        /**
+         * @return the custom signing region, or null
+         */
+        @CheckForNull
+        public String getCustomSigningRegion() {
+            return customSigningRegion;
+        }
+
+        /**
+         * @return the custom signing region if set, else the region
+         */
+        @NonNull
+        public Region getSigningRegion() {
+            return customSigningRegion != null ? Region.of(customSigningRegion) : region;
+        }
+
+        public boolean getUsePathStyleUrl() {
+            return usePathStyleUrl;
+        }
+
+        public boolean getUseTransferAcceleration() {
+            return useTransferAcceleration;
+        }
+
+        public boolean getDisableSessionToken() {
+            return disableSessionToken;
+        }
+
+        @CheckForNull
+        public String getCredentialsId() {
+            return credentialsId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot other = (Snapshot) o;
+            return Objects.equals(container, other.container) && prefix.equals(other.prefix) && region.equals(other.region)
+                    && Objects.equals(resolvedCustomEndpoint, other.resolvedCustomEndpoint) && Objects.equals(customSigningRegion, other.customSigningRegion)
+                    && usePathStyleUrl == other.usePathStyleUrl && useTransferAcceleration == other.useTransferAcceleration
+                    && disableSessionToken == other.disableSessionToken && Objects.equals(credentialsId, other.credentialsId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(container, prefix, region, resolvedCustomEndpoint, customSigningRegion, usePathStyleUrl, useTransferAcceleration, disableSessionToken, credentialsId);
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{container=" + container + ", prefix=" + prefix + ", region=" + region + ", resolvedCustomEndpoint=" + resolvedCustomEndpoint
+                    + ", customSigningRegion=" + customSigningRegion + ", usePathStyleUrl=" + usePathStyleUrl + ", useTransferAcceleration=" + useTransferAcceleration
+                    + ", disableSessionToken=" + disableSessionToken + ", credentialsId=" + credentialsId + "}";
+        }
+
+    }
+
     /**
      * class to test configuration against Amazon S3 Bucket.
      */
@@ -282,6 +402,60 @@ public final class S3BlobStoreConfig extends AbstractAwsGlobalConfiguration {
         return "Artifact Manager Amazon S3 Bucket";
     }
 
+    @Override
+    public synchronized void load() {
+        super.load();
+        snapshot = null;
+    }
+
+    @Override
+    public synchronized void save() {
+        super.save();
+        settingsChanged();
+    }
+
+    private synchronized void settingsChanged() {
+        snapshot = null;
+        // contexts and clients built from the old settings must not be handed out any more
+        S3BlobStore.invalidateCaches();
+    }
+
+    /**
+     * @return the current settings, resolved
+     */
+    @NonNull
+    public Snapshot getSnapshot() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                s = snapshot;
+                if (s == null) {
+                    s = new Snapshot(this);
+                    LOGGER.log(Level.FINE, "Resolved {0}", s);
+                    snapshot = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * The region and credentials are taken from {@link CredentialsAwsGlobalConfiguration}, so we need to notice when that changes too.
+     */
+    @Restricted(NoExternalUse.class)
+    @Extension
+    public static final class CredentialsConfigurationListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof CredentialsAwsGlobalConfiguration) {
+                S3BlobStoreConfig config = ExtensionList.lookup(S3BlobStoreConfig.class).get(S3BlobStoreConfig.class);
+                if (config != null) {
+                    config.settingsChanged();
+                }
+            }
+        }
+    }
+
     @NonNull
     public static S3BlobStoreConfig get() {
         return ExtensionList.lookupSingleton(S3BlobStoreConfig.class);
@@ -326,6 +500,10 @@ public final class S3BlobStoreConfig extends AbstractAwsGlobalConfiguration {
     }
 
     public Region getRegion() {
+        return getSnapshot().getRegion();
+    }
+
+    private Region resolveRegion() {
         // Short-circuit for custom endpoints (e.g., MinIO, LocalStack).
         // AWS region auto-detection is expensive and irrelevant for non-AWS services.
         if (customEndpoint != null && !customEndpoint.isEmpty()) {
@@ -352,13 +530,11 @@ public final class S3BlobStoreConfig extends AbstractAwsGlobalConfiguration {
         if (disableSessionToken) {
             builder = builder.credentialsProvider(CredentialsAwsGlobalConfiguration.get().getCredentials());
         } else {
-            AwsSessionCredentials awsSessionCredentials = CredentialsAwsGlobalConfiguration.get()
-                    .sessionCredentials(getRegion().id(), CredentialsAwsGlobalConfiguration.get().getCredentialsId());
-            if(awsSessionCredentials != null ) {
-                builder.credentialsProvider(StaticCredentialsProvider.create(awsSessionCredentials));
-            } else {
-                throw new IOException("No session AWS credentials found");
-            }
+            String region = getRegion().id();
+            String credentialsId = CredentialsAwsGlobalConfiguration.get().getCredentialsId();
+            // fail early if there are none
+            S3CredentialsCache.INSTANCE.sessionCredentials(region, credentialsId);
+            builder.credentialsProvider(S3CredentialsCache.INSTANCE.sessionCredentialsProvider(region, credentialsId));
         }
         return builder;
     }
@@ -0,0 +1,337 @@
+package io.jenkins.plugins.artifact_manager_jclouds.s3;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import jenkins.util.SystemProperties;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+/**
+ * Presigns large numbers of upload URLs for {@link S3BlobStore#artifactUrls}.
+ * Going through {@link S3Presigner} costs a full request marshalling, endpoint resolution and signing pass per file,
+ * which adds up to seconds of controller CPU for builds archiving tens of thousands of files.
+ * Instead we let the SDK presign the first file, take that URL as a template,
+ * and compute the SigV4 signature for the remaining files ourselves:
+ * everything but the path, content type, checksum and signature is shared, and the derived signing key is cached per day and region.
+ * The template is only used if re-signing its own file locally reproduces the SDK URL byte for byte;
+ * otherwise (an unfamiliar SDK behavior or configuration) every file goes through the SDK as before.
+ */
+final class S3BulkPresigner {
+
+    private static final Logger LOGGER = Logger.getLogger(S3BulkPresigner.class.getName());
+
+    /** Batches smaller than this are signed on the calling thread. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static int PARALLEL_THRESHOLD = SystemProperties.getInteger(S3BulkPresigner.class.getName() + ".parallelThreshold", 256);
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String SIGNATURE_PARAM = "X-Amz-Signature=";
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final String CHECKSUM_HEADER = "x-amz-checksum-sha256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Derived signing keys by access key ID, digest of the secret key, date, region and service.
+     * The secret key itself is not kept, so that it does not outlive rotation or show up in heap dumps.
+     */
+    private static final Map<List<String>, byte[]> SIGNING_KEYS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, byte[]> eldest) {
+            return size() > 16;
+        }
+    };
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException x) {
+            throw new IllegalStateException(x);
+        }
+    });
+
+    private final S3Presigner presigner;
+    private final AwsCredentials credentials;
+    private final Duration expiration;
+
+    /**
+     * @param presigner used for the template and as a fallback
+     * @param credentials used for the template as well as local signing, so both sign with the same key
+     * @param expiration how long URLs should be valid
+     */
+    S3BulkPresigner(@NonNull S3Presigner presigner, @NonNull AwsCredentials credentials, @NonNull Duration expiration) {
+        this.presigner = presigner;
+        this.credentials = credentials;
+        this.expiration = expiration;
+    }
+
+    /**
+     * Presigns {@code PUT} requests.
+     * @param bucket the bucket
+     * @param keys object keys, by some identifier
+     * @param contentTypes content types for the same identifiers; a missing or null entry means none
+     * @return URLs for the same identifiers
+     */
+    @NonNull
+    Map<String, URL> presignPuts(@NonNull String bucket, @NonNull Map<String, String> keys, @NonNull Map<String, String> contentTypes) throws IOException {
+        return presignPuts(bucket, keys, contentTypes, Map.of());
+    }
+
+    /**
+     * Presigns {@code PUT} requests which S3 rejects unless the contents have the given SHA-256 checksum.
+     * The uploader must send the checksum in an {@code x-amz-checksum-sha256} header.
+     * @param checksums checksums for the same identifiers, in Base64; a missing entry means none
+     */
+    @NonNull
+    Map<String, URL> presignPuts(@NonNull String bucket, @NonNull Map<String, String> keys, @NonNull Map<String, String> contentTypes, @NonNull Map<String, String> checksums) throws IOException {
+        if (keys.isEmpty()) {
+            return new HashMap<>();
+        }
+        Map.Entry<String, String> first = keys.entrySet().iterator().next();
+        URL templateURL = presignWithSdk(bucket, first.getValue(), contentTypes.get(first.getKey()), checksums.get(first.getKey()));
+        Template template = Template.parse(templateURL, first.getValue(), contentTypes.get(first.getKey()), checksums.get(first.getKey()), credentials);
+        Map<String, URL> urls = new ConcurrentHashMap<>();
+        urls.put(first.getKey(), templateURL);
+        Stream<Map.Entry<String, String>> entries = keys.entrySet().stream().skip(1);
+        if (keys.size() >= PARALLEL_THRESHOLD) {
+            entries = entries.parallel();
+        }
+        try {
+            entries.forEach(entry -> {
+                String contentType = contentTypes.get(entry.getKey());
+                String checksum = checksums.get(entry.getKey());
+                try {
+                    URL url = template != null && template.accepts(contentType, checksum) ? template.sign(entry.getValue(), contentType, checksum) : presignWithSdk(bucket, entry.getValue(), contentType, checksum);
+                    urls.put(entry.getKey(), url);
+                } catch (IOException x) {
+                    throw new UncheckedIOException(x);
+                }
+            });
+        } catch (UncheckedIOException x) {
+            throw x.getCause();
+        }
+        return urls;
+    }
+
+    private URL presignWithSdk(String bucket, String key, @CheckForNull String contentType, @CheckForNull String checksum) throws IOException {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder().bucket(bucket)
+                .contentType(contentType)
+                .checksumSHA256(checksum)
+                .key(key)
+                .overrideConfiguration(o -> o.credentialsProvider(StaticCredentialsProvider.create(credentials)))
+                .build();
+        PutObjectPresignRequest putObjectPresignRequest = PutObjectPresignRequest.builder()
+                .signatureDuration(expiration)
+                .putObjectRequest(putObjectRequest).build();
+        PresignedPutObjectRequest presigned = presigner.presignPutObject(putObjectPresignRequest);
+        if (checksum != null) {
+            // the uploader sends only these, so a URL signed with anything else would be rejected
+            for (String header : presigned.signedHeaders().keySet()) {
+                if (!isExpectedHeader(header.toLowerCase(Locale.ENGLISH), contentType, checksum)) {
+                    throw new IOException("Unexpected signed header " + header + " in presigned upload URL for " + key);
+                }
+            }
+        }
+        return presigned.url();
+    }
+
+    private static boolean isExpectedHeader(String header, @CheckForNull String contentType, @CheckForNull String checksum) {
+        return header.equals("host") || header.equals("content-type") && contentType != null || header.equals(CHECKSUM_HEADER) && checksum != null;
+    }
+
+    /**
+     * Everything about a presigned URL which does not depend on the object key, content type or checksum.
+     */
+    static final class Template {
+
+        private final String urlPrefix;
+        private final String pathPrefix;
+        private final String queryBeforeSignature;
+        private final String queryAfterSignature;
+        private final String canonicalQuery;
+        private final String host;
+        private final List<String> signedHeaders;
+        private final String signedHeadersList;
+        private final String amzDate;
+        private final String scope;
+        private final ThreadLocal<Mac> mac;
+
+        private Template(String urlPrefix, String pathPrefix, String queryBeforeSignature, String queryAfterSignature, String canonicalQuery,
+                         String host, List<String> signedHeaders, String amzDate, String scope, byte[] signingKey) {
+            this.urlPrefix = urlPrefix;
+            this.pathPrefix = pathPrefix;
+            this.queryBeforeSignature = queryBeforeSignature;
+            this.queryAfterSignature = queryAfterSignature;
+            this.canonicalQuery = canonicalQuery;
+            this.host = host;
+            this.signedHeaders = signedHeaders;
+            this.signedHeadersList = String.join(";", signedHeaders);
+            this.amzDate = amzDate;
+            this.scope = scope;
+            this.mac = ThreadLocal.withInitial(() -> hmac(signingKey));
+        }
+
+        /**
+         * Derives a template from an SDK-presigned {@code PUT} URL.
+         * @return null if the URL is not in a form we can reproduce
+         */
+        @CheckForNull
+        static Template parse(@NonNull URL url, @NonNull String key, @CheckForNull String contentType, @CheckForNull String checksum, @NonNull AwsCredentials credentials) {
+            try {
+                URI uri = url.toURI();
+                String rawPath = uri.getRawPath();
+                String rawQuery = uri.getRawQuery();
+                String encodedKey = SdkHttpUtils.urlEncodeIgnoreSlashes(key);
+                if (rawPath == null || rawQuery == null || uri.getRawFragment() != null || !rawPath.endsWith(encodedKey)) {
+                    LOGGER.log(Level.FINE, "Unexpected form of presigned URL for {0}", key);
+                    return null;
+                }
+                String pathPrefix = rawPath.substring(0, rawPath.length() - encodedKey.length());
+                Map<String, String> params = new HashMap<>();
+                List<String> canonicalParams = new ArrayList<>();
+                for (String param : rawQuery.split("&")) {
+                    int eq = param.indexOf('=');
+                    if (eq == -1) {
+                        return null;
+                    }
+                    params.put(param.substring(0, eq), URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+                    if (!param.startsWith(SIGNATURE_PARAM)) {
+                        canonicalParams.add(param);
+                    }
+                }
+                String[] credential = params.getOrDefault("X-Amz-Credential", "").split("/");
+                String amzDate = params.get("X-Amz-Date");
+                String signedHeadersList = params.get("X-Amz-SignedHeaders");
+                int signatureStart = rawQuery.startsWith(SIGNATURE_PARAM) ? 0 : rawQuery.indexOf("&" + SIGNATURE_PARAM) + 1;
+                if (!ALGORITHM.equals(params.get("X-Amz-Algorithm")) || credential.length != 5 || !credential[0].equals(credentials.accessKeyId())
+                        || amzDate == null || signedHeadersList == null || signatureStart == 0 && !rawQuery.startsWith(SIGNATURE_PARAM)) {
+                    LOGGER.log(Level.FINE, "Unexpected query in presigned URL for {0}", key);
+                    return null;
+                }
+                List<String> signedHeaders = Arrays.asList(signedHeadersList.split(";"));
+                if (!signedHeaders.contains("host") || signedHeaders.contains("content-type") != (contentType != null)
+                        || signedHeaders.contains(CHECKSUM_HEADER) != (checksum != null)
+                        || signedHeaders.size() != 1 + (contentType != null ? 1 : 0) + (checksum != null ? 1 : 0)) {
+                    LOGGER.log(Level.FINE, "Unexpected signed headers {0} in presigned URL for {1}", new Object[] {signedHeadersList, key});
+                    return null;
+                }
+                int signatureEnd = rawQuery.indexOf('&', signatureStart);
+                String queryBeforeSignature = rawQuery.substring(0, signatureStart) + SIGNATURE_PARAM;
+                String queryAfterSignature = signatureEnd == -1 ? "" : rawQuery.substring(signatureEnd);
+                canonicalParams.sort(null);
+                String canonicalQuery = String.join("&", canonicalParams);
+                String urlPrefix = uri.getScheme() + "://" + uri.getRawAuthority();
+                byte[] signingKey = signingKey(credentials, credential[1], credential[2], credential[3]);
+                Template template = new Template(urlPrefix, pathPrefix, queryBeforeSignature, queryAfterSignature, canonicalQuery,
+                        uri.getRawAuthority(), signedHeaders, amzDate, String.join("/", Arrays.asList(credential).subList(1, 5)), signingKey);
+                URL resigned = template.sign(key, contentType, checksum);
+                if (!resigned.toString().equals(url.toString())) {
+                    LOGGER.log(Level.FINE, "Could not reproduce presigned URL for {0}", key);
+                    return null;
+                }
+                return template;
+            } catch (URISyntaxException | MalformedURLException | RuntimeException x) {
+                LOGGER.log(Level.FINE, "Could not parse presigned URL for " + key, x);
+                return null;
+            }
+        }
+
+        /**
+         * Whether URLs for this content type and checksum have the same signed headers as the template.
+         */
+        boolean accepts(@CheckForNull String contentType, @CheckForNull String checksum) {
+            return signedHeaders.contains("content-type") == (contentType != null) && signedHeaders.contains(CHECKSUM_HEADER) == (checksum != null);
+        }
+
+        @NonNull
+        URL sign(@NonNull String key, @CheckForNull String contentType, @CheckForNull String checksum) throws MalformedURLException {
+            String path = pathPrefix + SdkHttpUtils.urlEncodeIgnoreSlashes(key);
+            StringBuilder canonicalRequest = new StringBuilder(256).append("PUT\n").append(path).append('\n').append(canonicalQuery).append('\n');
+            for (String header : signedHeaders) {
+                String value = header.equals("host") ? host : header.equals(CHECKSUM_HEADER) ? checksum : canonicalHeaderValue(contentType);
+                canonicalRequest.append(header).append(':').append(value).append('\n');
+            }
+            canonicalRequest.append('\n').append(signedHeadersList).append('\n').append(UNSIGNED_PAYLOAD);
+            String stringToSign = ALGORITHM + '\n' + amzDate + '\n' + scope + '\n'
+                    + hex(SHA256.get().digest(canonicalRequest.toString().getBytes(StandardCharsets.UTF_8)));
+            String signature = hex(mac.get().doFinal(stringToSign.getBytes(StandardCharsets.UTF_8)));
+            return new URL(urlPrefix + path + '?' + queryBeforeSignature + signature + queryAfterSignature);
+        }
+
+    }
+
+    /**
+     * Trims and collapses internal whitespace, as SigV4 requires.
+     */
+    private static String canonicalHeaderValue(String value) {
+        return value.trim().replaceAll("\\s+", " ");
+    }
+
+    private static byte[] signingKey(AwsCredentials credentials, String date, String region, String service) {
+        String secretKey = credentials.secretAccessKey();
+        List<String> cacheKey = List.of(credentials.accessKeyId(), hex(SHA256.get().digest(secretKey.getBytes(StandardCharsets.UTF_8))), date, region, service);
+        synchronized (SIGNING_KEYS) {
+            byte[] signingKey = SIGNING_KEYS.get(cacheKey);
+            if (signingKey == null) {
+                byte[] k = ("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8);
+                for (String part : new String[] {date, region, service, "aws4_request"}) {
+                    k = hmac(k).doFinal(part.getBytes(StandardCharsets.UTF_8));
+                }
+                signingKey = k;
+                SIGNING_KEYS.put(cacheKey, signingKey);
+            }
+            return signingKey;
+        }
+    }
+
+    private static Mac hmac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+}
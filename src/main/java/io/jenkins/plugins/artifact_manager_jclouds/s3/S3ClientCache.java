@@ -0,0 +1,148 @@
+package io.jenkins.plugins.artifact_manager_jclouds.s3;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import jenkins.util.Timer;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Utilities;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+/**
+ * Keeps AWS SDK clients around between calls to {@link S3BlobStore#toURI} and {@link S3BlobStore#toExternalURL}.
+ * Constructing an {@link S3Client} sets up an HTTP client and resolves credentials,
+ * which is far too expensive to do for every artifact link or presigned URL.
+ * Clients are discarded when the configuration is saved or, if they carry session credentials, shortly before those expire.
+ * Discarded clients are closed after a grace period since other threads may still be using them.
+ */
+final class S3ClientCache {
+
+    private static final Logger LOGGER = Logger.getLogger(S3ClientCache.class.getName());
+
+    /** How long to wait before closing a client which is no longer handed out. */
+    private static final long CLOSE_DELAY_SECONDS = 60;
+
+    static final S3ClientCache INSTANCE = new S3ClientCache(Clock.systemUTC());
+
+    /** A client bound to credentials, with a presigner using the same settings. */
+    static final class Signing {
+        final S3Client client;
+        final S3Presigner presigner;
+        final Instant expiration;
+        Signing(@NonNull S3Client client, @NonNull S3Presigner presigner, @NonNull Instant expiration) {
+            this.client = client;
+            this.presigner = presigner;
+            this.expiration = expiration;
+        }
+        void close() {
+            presigner.close();
+            client.close();
+        }
+    }
+
+    @FunctionalInterface
+    interface Factory<T> {
+        T create() throws IOException;
+    }
+
+    private final Clock clock;
+    private final Map<Object, S3Client> plainClients = new HashMap<>();
+    private final Map<Object, Signing> signings = new HashMap<>();
+    private DefaultCredentialsProvider defaultCredentials;
+
+    S3ClientCache(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Utilities from a client without credentials, suitable for computing URIs.
+     */
+    @NonNull
+    synchronized S3Utilities utilities(@NonNull Object key, @NonNull Factory<S3Client> factory) throws IOException {
+        S3Client client = plainClients.get(key);
+        if (client == null) {
+            LOGGER.log(Level.FINE, "Building client for {0}", key);
+            client = factory.create();
+            plainClients.put(key, client);
+        }
+        return client.utilities();
+    }
+
+    /**
+     * A client and presigner with credentials, rebuilt when those credentials are about to expire.
+     */
+    @NonNull
+    synchronized Signing signing(@NonNull Object key, @NonNull Factory<Signing> factory) throws IOException {
+        Signing signing = signings.get(key);
+        if (signing != null && clock.instant().plusSeconds(BlobStoreContextPool.REFRESH_MARGIN_SECONDS).isAfter(signing.expiration)) {
+            LOGGER.log(Level.FINE, "Discarding presigner for {0} due to credentials expiring at {1}", new Object[] {key, signing.expiration});
+            signings.remove(key);
+            closeLater(signing::close);
+            signing = null;
+        }
+        if (signing == null) {
+            LOGGER.log(Level.FINE, "Building presigner for {0}", key);
+            signing = factory.create();
+            signings.put(key, signing);
+        }
+        return signing;
+    }
+
+    /**
+     * The SDK default credentials chain, for when no credentials are configured.
+     * A single provider is shared so that whatever it resolves (from profiles, instance metadata, etc.) is cached between calls.
+     * The returned handle does not close the provider, so that closing a presigner or client built with it leaves it usable.
+     */
+    @NonNull
+    synchronized AwsCredentialsProvider defaultCredentials() {
+        if (defaultCredentials == null) {
+            LOGGER.fine("Building default credentials provider");
+            defaultCredentials = DefaultCredentialsProvider.builder().build();
+        }
+        DefaultCredentialsProvider provider = defaultCredentials;
+        return provider::resolveCredentials;
+    }
+
+    /**
+     * Discards all clients, for example because the configuration has changed.
+     */
+    synchronized void invalidate() {
+        List<Runnable> closers = new ArrayList<>();
+        for (S3Client client : plainClients.values()) {
+            closers.add(client::close);
+        }
+        for (Signing signing : signings.values()) {
+            closers.add(signing::close);
+        }
+        if (defaultCredentials != null) {
+            closers.add(defaultCredentials::close);
+            defaultCredentials = null;
+        }
+        plainClients.clear();
+        signings.clear();
+        closers.forEach(this::closeLater);
+    }
+
+    private void closeLater(Runnable closer) {
+        Timer.get().schedule(() -> {
+            try {
+                closer.run();
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.WARNING, "Failed to close S3 client", x);
+            }
+        }, CLOSE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+}
@@ -0,0 +1,169 @@
+package io.jenkins.plugins.artifact_manager_jclouds.s3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import io.jenkins.plugins.aws.global_configuration.CredentialsAwsGlobalConfiguration;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+/**
+ * Reuses STS session credentials from {@link CredentialsAwsGlobalConfiguration#sessionCredentials}
+ * rather than making a round trip to STS for every context, client or presigned URL.
+ * Credentials are refreshed in the background some time before they expire;
+ * only if that did not happen in time does a caller wait for fresh credentials,
+ * and concurrent callers then share a single request.
+ */
+final class S3CredentialsCache {
+
+    private static final Logger LOGGER = Logger.getLogger(S3CredentialsCache.class.getName());
+
+    /** How long before expiry to start fetching fresh credentials in the background. */
+    @SuppressWarnings("FieldMayBeFinal")
+    private static long REFRESH_AHEAD_SECONDS = SystemProperties.getLong(S3CredentialsCache.class.getName() + ".refreshAheadSeconds", 600L);
+
+    /**
+     * How long session credentials are assumed to be valid when they do not say.
+     * Matches the default of {@code CredentialsAwsGlobalConfiguration}.
+     */
+    static final Duration SESSION_DURATION = Duration.ofSeconds(SystemProperties.getInteger(CredentialsAwsGlobalConfiguration.class.getName() + ".sessionDuration", 3600));
+
+    static final S3CredentialsCache INSTANCE = new S3CredentialsCache(Clock.systemUTC(), r -> Timer.get().execute(r));
+
+    @FunctionalInterface
+    interface Loader {
+        @CheckForNull
+        AwsSessionCredentials load() throws IOException;
+    }
+
+    private static final class Entry {
+        AwsSessionCredentials credentials;
+        Instant expiration;
+        /** non-null while credentials are being fetched */
+        CompletableFuture<AwsSessionCredentials> refresh;
+    }
+
+    private final Clock clock;
+    private final Executor executor;
+    private final Map<Object, Entry> entries = new HashMap<>();
+
+    S3CredentialsCache(Clock clock, Executor executor) {
+        this.clock = clock;
+        this.executor = executor;
+    }
+
+    /**
+     * Session credentials as configured globally.
+     * @param region the region to use for STS
+     * @param credentialsId the configured credentials, or null for the default chain
+     */
+    @NonNull
+    AwsSessionCredentials sessionCredentials(@NonNull String region, @CheckForNull String credentialsId) throws IOException {
+        return get(Arrays.asList(region, credentialsId), () -> CredentialsAwsGlobalConfiguration.get().sessionCredentials(region, credentialsId));
+    }
+
+    /**
+     * Like {@link #sessionCredentials(String, String)} but for use by long-lived SDK clients.
+     */
+    @NonNull
+    AwsCredentialsProvider sessionCredentialsProvider(@NonNull String region, @CheckForNull String credentialsId) {
+        return () -> {
+            try {
+                return sessionCredentials(region, credentialsId);
+            } catch (IOException x) {
+                throw SdkClientException.create("Could not obtain session credentials", x);
+            }
+        };
+    }
+
+    @NonNull
+    AwsSessionCredentials get(@NonNull Object key, @NonNull Loader loader) throws IOException {
+        Entry entry;
+        CompletableFuture<AwsSessionCredentials> refresh;
+        boolean load = false;
+        synchronized (this) {
+            entry = entries.computeIfAbsent(key, k -> new Entry());
+            Instant now = clock.instant();
+            if (entry.credentials != null && now.plusSeconds(BlobStoreContextPool.REFRESH_MARGIN_SECONDS).isBefore(entry.expiration)) {
+                if (entry.refresh == null && now.plusSeconds(REFRESH_AHEAD_SECONDS).isAfter(entry.expiration)) {
+                    LOGGER.log(Level.FINE, "Refreshing credentials for {0} expiring at {1}", new Object[] {key, entry.expiration});
+                    CompletableFuture<AwsSessionCredentials> background = entry.refresh = new CompletableFuture<>();
+                    Entry _entry = entry;
+                    executor.execute(() -> load(key, _entry, loader, background));
+                }
+                return entry.credentials;
+            }
+            refresh = entry.refresh;
+            if (refresh == null) {
+                LOGGER.log(Level.FINE, "Fetching credentials for {0}", key);
+                refresh = entry.refresh = new CompletableFuture<>();
+                load = true;
+            }
+        }
+        if (load) {
+            load(key, entry, loader, refresh);
+        }
+        try {
+            return refresh.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException().initCause(x);
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private void load(Object key, Entry entry, Loader loader, CompletableFuture<AwsSessionCredentials> refresh) {
+        try {
+            AwsSessionCredentials credentials = loader.load();
+            if (credentials == null) {
+                throw new IOException("No session AWS credentials found");
+            }
+            Instant expiration = credentials.expirationTime().orElseGet(() -> clock.instant().plus(SESSION_DURATION));
+            synchronized (this) {
+                entry.credentials = credentials;
+                entry.expiration = expiration;
+                entry.refresh = null;
+            }
+            refresh.complete(credentials);
+        } catch (IOException | RuntimeException x) {
+            synchronized (this) {
+                entry.refresh = null;
+            }
+            LOGGER.log(Level.FINE, "Could not fetch credentials for " + key, x);
+            refresh.completeExceptionally(x);
+        }
+    }
+
+    /**
+     * Forgets all credentials, for example because the configuration has changed.
+     */
+    synchronized void invalidate() {
+        entries.clear();
+    }
+
+}
@@ -0,0 +1,64 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArtifactManifestTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void directories() {
+        ArtifactManifest manifest = new ArtifactManifest();
+        manifest.put("a.txt", new ArtifactManifest.Entry("d1", 1, 0));
+        manifest.put("sub/b.txt", new ArtifactManifest.Entry("d2", 2, 0));
+        manifest.put("sub/deeper/c.txt", new ArtifactManifest.Entry("d3", 3, 0));
+        manifest.put("sub0/d.txt", new ArtifactManifest.Entry("d4", 4, 0));
+        assertTrue(manifest.isDirectory(""));
+        assertTrue(manifest.isDirectory("sub"));
+        assertTrue(manifest.isDirectory("sub/deeper"));
+        assertFalse(manifest.isDirectory("a.txt"));
+        assertFalse(manifest.isDirectory("su"));
+        assertThat(manifest.children(""), containsInAnyOrder("a.txt", "sub", "sub0"));
+        assertThat(manifest.children("sub"), containsInAnyOrder("b.txt", "deeper"));
+        assertThat(manifest.children("nonexistent"), empty());
+        assertEquals(3, manifest.get("sub/deeper/c.txt").length);
+    }
+
+    @Test
+    public void casName() {
+        assertEquals("abc/x.jar", ArtifactManifest.casName("abc", "target/x.jar"));
+        assertEquals("abc/x.jar", ArtifactManifest.casName("abc", "x.jar"));
+    }
+
+    @Test
+    public void digest() throws Exception {
+        File f = tmp.newFile();
+        Files.write(f.toPath(), "test".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08", ArtifactManifest.digest(f));
+    }
+
+    @Test
+    public void isDigest() {
+        assertTrue(ArtifactManifest.isDigest("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08"));
+        assertFalse(ArtifactManifest.isDigest(null));
+        assertFalse(ArtifactManifest.isDigest("9F86D081884C7D659A2FEAA0C55AD015A3BF4F1B2B0B822CD15D6C15B0F00A08"));
+        assertFalse(ArtifactManifest.isDigest("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a0"));
+        assertFalse(ArtifactManifest.isDigest("../../../job/other/artifacts/x.jar/9f86d081884c7d659a2feaa0c55ad0"));
+        assertFalse(ArtifactManifest.isDigest("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08\n"));
+    }
+
+}
@@ -0,0 +1,74 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BlobByteChannelTest {
+
+    private final byte[] data = new byte[200_000];
+    private final List<String> requests = new ArrayList<>();
+
+    {
+        new Random(0).nextBytes(data);
+    }
+
+    private InputStream open(long offset, long length) {
+        requests.add(offset + "+" + length);
+        return new ByteArrayInputStream(data, (int) offset, (int) length);
+    }
+
+    @Test
+    public void readsOnlyWhatIsAsked() throws Exception {
+        int window = BlobByteChannel.WINDOW;
+        BlobByteChannel.WINDOW = 1000;
+        try (BlobByteChannel channel = new BlobByteChannel(this::open, data.length)) {
+            ByteBuffer buf = ByteBuffer.allocate(100);
+            channel.position(199_950);
+            assertEquals(50, channel.read(buf));
+            assertEquals(-1, channel.read(buf));
+            assertArrayEquals(Arrays.copyOfRange(data, 199_950, 200_000), Arrays.copyOf(buf.array(), 50));
+            buf.clear();
+            channel.position(2_000);
+            channel.read(buf);
+            buf.clear();
+            // forward within the same response
+            channel.position(2_500);
+            channel.read(buf);
+            assertArrayEquals(Arrays.copyOfRange(data, 2_500, 2_600), buf.array());
+            buf.clear();
+            // beyond it
+            channel.position(2_990);
+            assertEquals(10, channel.read(buf));
+            assertEquals(90, channel.read(buf));
+            assertArrayEquals(Arrays.copyOfRange(data, 2_990, 3_090), buf.array());
+        } finally {
+            BlobByteChannel.WINDOW = window;
+        }
+        assertEquals(List.of("199950+50", "2000+1000", "3000+1000"), requests);
+    }
+
+    @Test
+    public void skippingFetchesOnlyTheRest() throws Exception {
+        try (InputStream is = Channels.newInputStream(new BlobByteChannel(this::open, data.length, new ByteArrayInputStream(data)))) {
+            assertEquals(data[0], (byte) is.read());
+            // a short skip reads through
+            assertEquals(999, is.skip(999));
+            assertEquals(data[1_000], (byte) is.read());
+            assertEquals(148_999, is.skip(148_999));
+            assertArrayEquals(Arrays.copyOfRange(data, 150_000, 200_000), is.readAllBytes());
+        }
+        assertEquals(List.of("150000+50000"), requests);
+    }
+
+}
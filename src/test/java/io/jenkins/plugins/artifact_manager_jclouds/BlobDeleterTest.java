@@ -0,0 +1,95 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlobDeleterTest {
+
+    private BlobStoreContext context;
+    private BlobStore blobStore;
+    private BlobStoreProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        context = ContextBuilder.newBuilder("transient").buildView(BlobStoreContext.class);
+        blobStore = context.getBlobStore();
+        blobStore.createContainerInLocation(null, "container");
+        provider = mock(BlobStoreProvider.class);
+        when(provider.getContainer()).thenReturn("container");
+        when(provider.deleteBlobs(any(), anyList())).thenAnswer(invocation -> {
+            List<String> paths = invocation.getArgument(1);
+            Map<String, String> failures = new TreeMap<>();
+            for (String path : paths) {
+                if (path.endsWith("/locked")) {
+                    failures.put(path, "AccessDenied");
+                } else {
+                    blobStore.removeBlob("container", path);
+                }
+            }
+            return failures;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    private void put(String path) {
+        blobStore.putBlob("container", blobStore.blobBuilder(path).payload("x").build());
+    }
+
+    @Test
+    public void deletesInBatches() throws Exception {
+        for (int i = 0; i < 2500; i++) {
+            put("job/1/artifacts/f" + i);
+        }
+        put("job/10/artifacts/other");
+        assertEquals(2500, new BlobDeleter(provider, blobStore).deleteAll("job/1/"));
+        verify(provider, atLeast(3)).deleteBlobs(any(), anyList());
+        assertFalse(blobStore.blobExists("container", "job/1/artifacts/f0"));
+        assertTrue(blobStore.blobExists("container", "job/10/artifacts/other"));
+        assertEquals(0, new BlobDeleter(provider, blobStore).deleteAll("job/1/"));
+    }
+
+    @Test
+    public void reportsPartialFailures() throws Exception {
+        put("job/1/artifacts/a");
+        put("job/1/artifacts/locked");
+        put("job/1/stashes/locked");
+        put("job/1/stashes/b");
+        try {
+            new BlobDeleter(provider, blobStore).deleteAll("job/1/");
+            fail();
+        } catch (IOException x) {
+            assertThat(x.getMessage(), containsString("Failed to delete 2 of 4 blob(s) under job/1/"));
+            assertThat(x.getMessage(), containsString("job/1/stashes/locked: AccessDenied"));
+        }
+        assertFalse(blobStore.blobExists("container", "job/1/artifacts/a"));
+        assertFalse(blobStore.blobExists("container", "job/1/stashes/b"));
+        assertTrue(blobStore.blobExists("container", "job/1/artifacts/locked"));
+    }
+
+}
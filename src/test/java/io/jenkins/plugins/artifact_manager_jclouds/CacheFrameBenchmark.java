@@ -0,0 +1,149 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.jenkins.plugins.artifact_manager_jclouds.JCloudsVirtualFile.CachedMetadata;
+import jenkins.benchmark.jmh.JmhBenchmark;
+
+/**
+ * Walks a whole tree of artifacts as the build page or a zip download does inside {@link JCloudsVirtualFile#run},
+ * comparing {@link CacheFrame} with scanning every path for each directory, as it used to.
+ * {@link #build} also reports the heap retained per cached file,
+ * by {@link CacheFrame} and by a {@link TreeMap} of {@link CachedMetadata} as it used to be kept.
+ */
+@JmhBenchmark
+public class CacheFrameBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+
+        @Param({"1000", "200000"})
+        public int size;
+
+        public Map<String, CachedMetadata> unsorted;
+        public CacheFrame frame;
+
+        @Setup
+        public void setUp() {
+            unsorted = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                unsorted.put("dir" + (i % 50) + "/sub" + (i % 500) + "/file" + i + ".class", new CachedMetadata(i, i));
+            }
+            frame = build(unsorted);
+        }
+
+    }
+
+    static CacheFrame build(Map<String, CachedMetadata> children) {
+        CacheFrame.Builder builder = new CacheFrame.Builder("job/1/artifacts/");
+        children.forEach((path, metadata) -> builder.add(path, metadata.length, metadata.lastModified));
+        return builder.build();
+    }
+
+    /** Bytes of heap retained per cached file; reported alongside {@link #build}. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        public long compactBytesPerEntry;
+        public long treeMapBytesPerEntry;
+
+        @Setup(Level.Iteration)
+        public void measure(Tree tree) {
+            compactBytesPerEntry = retained(() -> build(tree.unsorted)) / tree.size;
+            treeMapBytesPerEntry = retained(() -> {
+                TreeMap<String, CachedMetadata> children = new TreeMap<>();
+                // copy the paths too, as those read from a listing are not shared with anything else
+                tree.unsorted.forEach((path, metadata) -> children.put(new String(path), new CachedMetadata(metadata.length, metadata.lastModified)));
+                return children;
+            }) / tree.size;
+        }
+
+        private static long retained(Supplier<?> factory) {
+            gc();
+            long before = used();
+            Object o = factory.get();
+            gc();
+            long after = used();
+            Reference.reachabilityFence(o);
+            return after - before;
+        }
+
+        private static void gc() {
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+        }
+
+        private static long used() {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+    }
+
+    @Benchmark
+    public CacheFrame build(Tree tree, Footprint footprint) {
+        return build(tree.unsorted);
+    }
+
+    @Benchmark
+    public int sorted(Tree tree) {
+        return walk(tree.frame, "");
+    }
+
+    private static int walk(CacheFrame frame, String relSlash) {
+        if (!frame.hasDescendants(relSlash)) {
+            return 0;
+        }
+        int files = 0;
+        for (String name : frame.childNames(relSlash)) {
+            if (frame.get(relSlash + name) != null) {
+                files++;
+            } else {
+                files += walk(frame, relSlash + name + "/");
+            }
+        }
+        return files;
+    }
+
+    @Benchmark
+    public int linear(Tree tree) {
+        return walkLinear(tree.unsorted, "");
+    }
+
+    private static int walkLinear(Map<String, CachedMetadata> children, String relSlash) {
+        if (children.keySet().stream().noneMatch(f -> f.startsWith(relSlash))) {
+            return 0;
+        }
+        List<String> names = children.keySet().stream().
+            filter(f -> f.startsWith(relSlash)).
+            map(f -> f.substring(relSlash.length()).replaceFirst("/.+", "")).
+            distinct().
+            collect(Collectors.toList());
+        int files = 0;
+        for (String name : names) {
+            if (children.get(relSlash + name) != null) {
+                files++;
+            } else {
+                files += walkLinear(children, relSlash + name + "/");
+            }
+        }
+        return files;
+    }
+
+}
@@ -0,0 +1,72 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class CacheFrameTest {
+
+    @Test
+    public void queries() {
+        CacheFrame.Builder builder = new CacheFrame.Builder("job/1/artifacts/");
+        for (String path : List.of("a", "a-b", "a/x", "a/y/z", "a/y/w", "a.txt", "b/c", "c")) {
+            builder.add(path, path.length(), 0);
+        }
+        CacheFrame frame = builder.build();
+        assertEquals(8, frame.size());
+        assertEquals(List.of("a", "a-b", "a.txt", "b", "c"), frame.childNames(""));
+        assertEquals(List.of("x", "y"), frame.childNames("a/"));
+        assertEquals(List.of("w", "z"), frame.childNames("a/y/"));
+        assertEquals(List.of(), frame.childNames("a/x/"));
+        assertTrue(frame.hasDescendants(""));
+        assertTrue(frame.hasDescendants("a/y/"));
+        assertFalse(frame.hasDescendants("a/x/"));
+        assertFalse(frame.hasDescendants("a-b/"));
+        assertEquals(3, frame.get("a/x").length);
+        assertNull(frame.get("a/y"));
+        assertFalse(new CacheFrame.Builder("x/").build().hasDescendants(""));
+    }
+
+    @Test
+    public void largeTree() {
+        Random random = new Random(0);
+        TreeMap<String, Long> expected = new TreeMap<>();
+        CacheFrame.Builder builder = new CacheFrame.Builder("job/1/artifacts/");
+        for (int i = 0; i < 5000; i++) {
+            String path = "d" + random.nextInt(5) + "/\u00e9" + random.nextInt(30) + "/f" + random.nextInt(1000);
+            expected.put(path, (long) i);
+            builder.add(path, i, -i);
+        }
+        CacheFrame frame = builder.build();
+        assertEquals(expected.size(), frame.size());
+        expected.forEach((path, length) -> {
+            assertEquals(path, length.longValue(), frame.get(path).length);
+            assertEquals(path, -length, frame.get(path).lastModified);
+        });
+        assertNull(frame.get("d0/\u00e90"));
+        assertNull(frame.get("d9/x"));
+        for (String dir : List.of("", "d0/", "d4/", "d2/\u00e917/", "d3/\u00e929/")) {
+            Set<String> names = new LinkedHashSet<>();
+            for (String path : expected.tailMap(dir).keySet()) {
+                if (!path.startsWith(dir)) {
+                    break;
+                }
+                names.add(path.substring(dir.length()).replaceFirst("/.+", ""));
+            }
+            assertEquals(dir, new ArrayList<>(names), frame.childNames(dir));
+            assertTrue(dir, frame.hasDescendants(dir));
+        }
+        assertFalse(frame.hasDescendants("d5/"));
+    }
+
+}
@@ -0,0 +1,80 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ChunkingOutputStreamTest {
+
+    private static List<byte[]> chunk(byte[] data) throws Exception {
+        List<byte[]> chunks = new ArrayList<>();
+        try (OutputStream os = new ChunkingOutputStream((b, length) -> {
+            byte[] chunk = new byte[length];
+            System.arraycopy(b, 0, chunk, 0, length);
+            chunks.add(chunk);
+        }, 64, 8, 1024)) {
+            // uneven writes
+            int off = 0;
+            int n = 1;
+            while (off < data.length) {
+                int len = Math.min(n, data.length - off);
+                os.write(data, off, len);
+                off += len;
+                n = n * 2 + 1;
+            }
+        }
+        return chunks;
+    }
+
+    @Test
+    public void reassembles() throws Exception {
+        byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+        List<byte[]> chunks = chunk(data);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            assertThat(chunk.length, lessThanOrEqualTo(1024));
+            if (i < chunks.size() - 1) {
+                assertThat(chunk.length, greaterThan(64));
+            }
+            joined.write(chunk);
+        }
+        assertArrayEquals(data, joined.toByteArray());
+        assertArrayEquals(new byte[0][], chunk(new byte[0]).toArray(new byte[0][]));
+    }
+
+    @Test
+    public void insertionOnlyChangesNearbyChunks() throws Exception {
+        byte[] data = new byte[100_000];
+        new Random(2).nextBytes(data);
+        byte[] edited = new byte[data.length + 10];
+        System.arraycopy(data, 0, edited, 0, 50_000);
+        System.arraycopy(data, 50_000, edited, 50_010, 50_000);
+        Set<String> before = new HashSet<>();
+        for (byte[] chunk : chunk(data)) {
+            before.add(JCloudsArtifactManager.digest(chunk, chunk.length));
+        }
+        List<byte[]> after = chunk(edited);
+        int changed = 0;
+        for (byte[] chunk : after) {
+            if (!before.contains(JCloudsArtifactManager.digest(chunk, chunk.length))) {
+                changed++;
+            }
+        }
+        assertThat(after.size(), greaterThan(50));
+        assertThat(changed, lessThanOrEqualTo(3));
+    }
+
+}
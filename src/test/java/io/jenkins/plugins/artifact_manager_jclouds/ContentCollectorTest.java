@@ -0,0 +1,52 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jclouds.blobstore.BlobStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class ContentCollectorTest {
+
+    private static final String D1 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    private static final String D2 = "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void deletesUnreferencedContents() throws Exception {
+        MockBlobStore provider = new MockBlobStore();
+        BlobStore blobStore = provider.getContext().getBlobStore();
+        blobStore.createContainerInLocation(null, provider.getContainer());
+        ArtifactManifest manifest = new ArtifactManifest();
+        manifest.put("target/a.txt", new ArtifactManifest.Entry(D1, 4, 0));
+        manifest.write(blobStore, provider.getContainer(), "job/1/artifacts" + ArtifactManifest.SUFFIX);
+        blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder("!cas/artifacts/" + D1 + "/a.txt").payload("test").build());
+        blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder("!cas/artifacts/" + D2 + "/b.txt").payload("test2").build());
+        assertEquals("too recent", 0, ContentCollector.collect(provider, 0));
+        assertEquals(1, ContentCollector.collect(provider, Long.MAX_VALUE));
+        assertTrue(blobStore.blobExists(provider.getContainer(), "!cas/artifacts/" + D1 + "/a.txt"));
+        assertFalse(blobStore.blobExists(provider.getContainer(), "!cas/artifacts/" + D2 + "/b.txt"));
+        assertTrue(blobStore.blobExists(provider.getContainer(), "job/1/artifacts" + ArtifactManifest.SUFFIX));
+    }
+
+    @Test
+    public void deletesUnreferencedChunks() throws Exception {
+        MockBlobStore provider = new MockBlobStore();
+        BlobStore blobStore = provider.getContext().getBlobStore();
+        blobStore.createContainerInLocation(null, provider.getContainer());
+        StashIndex index = new StashIndex(StashCodec.GZIP);
+        index.chunks.add(new StashIndex.Chunk(D1, 4));
+        index.write(blobStore, provider.getContainer(), "job/1/stashes/s" + StashIndex.SUFFIX);
+        blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder("!cas/" + StashIndex.chunkName(D1, StashCodec.GZIP)).payload("x").build());
+        blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder("!cas/" + StashIndex.chunkName(D2, StashCodec.GZIP)).payload("y").build());
+        assertEquals(1, ContentCollector.collect(provider, Long.MAX_VALUE));
+        assertTrue(blobStore.blobExists(provider.getContainer(), "!cas/chunks/" + D1 + ".gz"));
+        assertFalse(blobStore.blobExists(provider.getContainer(), "!cas/chunks/" + D2 + ".gz"));
+    }
+
+}
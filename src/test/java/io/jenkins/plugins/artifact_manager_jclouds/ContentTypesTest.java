@@ -0,0 +1,40 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentTypesTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void byName() {
+        assertEquals("application/java-archive", ContentTypes.byName("target/x.jar"));
+        assertEquals("application/gzip", ContentTypes.byName("dist/x.tar.GZ"));
+        assertEquals("text/plain", ContentTypes.byName("build.log"));
+        assertNull(ContentTypes.byName("some.dir/README"));
+        assertNull(ContentTypes.byName("x.unknown-extension"));
+    }
+
+    @Test
+    public void detect() throws Exception {
+        File f = tmp.newFile("f");
+        Files.write(f.toPath(), new byte[] {0});
+        assertNull(ContentTypes.detect(f, false));
+        assertThat(ContentTypes.detect(f, true), containsString("/octet-stream"));
+        // now memoized
+        assertThat(ContentTypes.detect(f, false), containsString("/octet-stream"));
+        assertEquals("application/json", ContentTypes.detect(tmp.newFile("f.json"), false));
+    }
+
+}
@@ -0,0 +1,80 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.jclouds.blobstore.BlobStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class DeletionQueueTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void deletesInBackground() throws Exception {
+        MockBlobStore provider = new MockBlobStore();
+        BlobStore blobStore = provider.getContext().getBlobStore();
+        blobStore.createContainerInLocation(null, provider.getContainer());
+        for (int i = 0; i < 2500; i++) {
+            blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder("job/1/artifacts/f" + i).payload("x").build());
+        }
+        blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder("job/10/artifacts/other").payload("x").build());
+        DeletionQueue queue = DeletionQueue.get();
+        queue.enqueue(provider, "job/", "job/1/");
+        File saved = new File(j.jenkins.getRootDir(), DeletionQueue.class.getName() + ".xml");
+        assertTrue(saved.isFile());
+        while (!queue.getTasks().isEmpty()) {
+            Thread.sleep(100);
+        }
+        assertEquals(2500, queue.getDeletedTotal());
+        assertEquals(0, queue.getFailedTotal());
+        assertFalse(blobStore.blobExists(provider.getContainer(), "job/1/artifacts/f0"));
+        assertTrue(blobStore.blobExists(provider.getContainer(), "job/10/artifacts/other"));
+        assertThat(j.createWebClient().goTo(queue.getUrlName()).asNormalizedText(), containsString("2500"));
+    }
+
+    @Test
+    public void coalescesBuildsOfOneJob() throws Exception {
+        MockBlobStore provider = new MockBlobStore();
+        BlobStore blobStore = provider.getContext().getBlobStore();
+        blobStore.createContainerInLocation(null, provider.getContainer());
+        for (int n = 1; n <= 120; n++) {
+            blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder("folder/job/" + n + "/artifacts/a").payload("x").build());
+            blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder("folder/job/" + n + "/stashes/s.tgz").payload("x").build());
+        }
+        blobStore.putBlob(provider.getContainer(), blobStore.blobBuilder("folder/job2/1/artifacts/a").payload("x").build());
+        DeletionQueue queue = DeletionQueue.get();
+        long delay = DeletionQueue.COALESCE_DELAY_MILLIS;
+        DeletionQueue.COALESCE_DELAY_MILLIS = 60_000;
+        try {
+            for (int n = 1; n <= 100; n++) {
+                queue.enqueue(provider, "folder/job/", "folder/job/" + n + "/");
+            }
+            assertEquals(1, queue.getTasks().size());
+            assertEquals(100, queue.getTasks().get(0).getBuildCount());
+        } finally {
+            DeletionQueue.COALESCE_DELAY_MILLIS = delay;
+        }
+        queue.enqueue(provider, "folder/job/", "folder/job/101/");
+        while (!queue.getTasks().isEmpty()) {
+            Thread.sleep(100);
+        }
+        assertEquals(202, queue.getDeletedTotal());
+        for (int n = 1; n <= 101; n++) {
+            assertFalse(blobStore.blobExists(provider.getContainer(), "folder/job/" + n + "/artifacts/a"));
+        }
+        for (int n = 102; n <= 120; n++) {
+            assertTrue(blobStore.blobExists(provider.getContainer(), "folder/job/" + n + "/stashes/s.tgz"));
+        }
+        assertTrue(blobStore.blobExists(provider.getContainer(), "folder/job2/1/artifacts/a"));
+    }
+
+}
@@ -0,0 +1,112 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jenkins.util.VirtualFile;
+
+public class JCloudsVirtualFileRequestsTest {
+
+    private BlobStoreContext context;
+    private BlobStore blobStore;
+    private BlobStoreProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        context = ContextBuilder.newBuilder("transient").buildView(BlobStoreContext.class);
+        BlobStore real = context.getBlobStore();
+        real.createContainerInLocation(null, "container");
+        real.putBlob("container", real.blobBuilder("build/artifacts/a.txt").payload("hello").build());
+        real.putBlob("container", real.blobBuilder("build/artifacts/dir/b.txt").payload("world").build());
+        blobStore = spy(real);
+        BlobStoreContext wrapper = mock(BlobStoreContext.class);
+        when(wrapper.getBlobStore()).thenReturn(blobStore);
+        provider = mock(BlobStoreProvider.class);
+        when(provider.getContext()).thenReturn(wrapper);
+        when(provider.getPrefix()).thenReturn("");
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void listedChildrenNeedNoLookups() throws Exception {
+        VirtualFile[] children = new JCloudsVirtualFile(provider, "container", "build/artifacts").list();
+        assertEquals(2, children.length);
+        for (VirtualFile child : children) {
+            if (child.getName().equals("a.txt")) {
+                assertTrue(child.isFile());
+                assertEquals(5, child.length());
+            } else {
+                assertTrue(child.isDirectory());
+            }
+        }
+        verify(blobStore, never()).blobMetadata(anyString(), anyString());
+        verify(blobStore, never()).getBlob(anyString(), anyString());
+    }
+
+    @Test
+    public void metadataUsesHead() throws Exception {
+        VirtualFile f = new JCloudsVirtualFile(provider, "container", "build/artifacts/a.txt");
+        assertTrue(f.isFile());
+        assertEquals(5, f.length());
+        assertFalse(new JCloudsVirtualFile(provider, "container", "build/artifacts/missing").isFile());
+        // the transient store implements blobMetadata with getBlob, so that cannot be checked here
+        verify(blobStore, times(2)).blobMetadata(anyString(), anyString());
+    }
+
+    @Test
+    public void openIsOneGet() throws Exception {
+        try (InputStream is = new JCloudsVirtualFile(provider, "container", "build/artifacts/a.txt").open()) {
+            assertEquals("hello", new String(is.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        verify(blobStore, times(1)).getBlob(anyString(), anyString());
+        verify(blobStore, never()).blobMetadata(anyString(), anyString());
+        try {
+            new JCloudsVirtualFile(provider, "container", "build/artifacts/dir").open();
+            fail();
+        } catch (FileNotFoundException x) {
+            assertTrue(x.getMessage(), x.getMessage().contains("Is a directory"));
+        }
+    }
+
+    @Test
+    public void rangedReads() throws Exception {
+        JCloudsVirtualFile f = new JCloudsVirtualFile(provider, "container", "build/artifacts/a.txt");
+        try (InputStream is = f.open(1, 3)) {
+            assertEquals("ell", new String(is.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        try (SeekableByteChannel channel = f.openChannel()) {
+            assertEquals(5, channel.size());
+            channel.position(3);
+            ByteBuffer buf = ByteBuffer.allocate(10);
+            assertEquals(2, channel.read(buf));
+            assertEquals("lo", new String(buf.array(), 0, 2, StandardCharsets.UTF_8));
+        }
+    }
+
+}
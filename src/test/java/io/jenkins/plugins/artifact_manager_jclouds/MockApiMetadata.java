@@ -28,7 +28,6 @@ import com.google.inject.AbstractModule;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -135,10 +134,10 @@ public final class MockApiMetadata extends BaseApiMetadata {
         removeBlobHandlers.put(container + '/' + key, handler);
     }
 
-    /** Like {@link TransientStorageStrategy}. */
+    /** Like {@link TransientStorageStrategy}. Thread-safe since uploads may be concurrent. */
     public static final class MockStrategy implements LocalStorageStrategy {
 
-        private final Map<String, Map<String, Blob>> blobsByContainer = new HashMap<>();
+        private final Map<String, Map<String, Blob>> blobsByContainer = new ConcurrentHashMap<>();
 
         @Override
         public boolean containerExists(String container) {
@@ -152,7 +151,7 @@ public final class MockApiMetadata extends BaseApiMetadata {
 
         @Override
         public boolean createContainerInLocation(String container, Location location, CreateContainerOptions options) {
-            return blobsByContainer.putIfAbsent(container, new HashMap<>()) == null;
+            return blobsByContainer.putIfAbsent(container, new ConcurrentHashMap<>()) == null;
         }
 
         @Override
@@ -24,10 +24,17 @@
 
 package io.jenkins.plugins.artifact_manager_jclouds;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,6 +42,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.ConnectionClosedException;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpRequest;
@@ -48,11 +56,12 @@ import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
 import org.jclouds.blobstore.domain.StorageMetadata;
 
 /**
  * A mock storage provider which keeps all blobs in memory.
- * Presigned “external” URLs are supported.
+ * Presigned “external” URLs are supported, as are multipart uploads and uploads bound to a checksum.
  * Allows tests to inject failures such as HTTP errors or hangs.
  */
 public final class MockBlobStore extends BlobStoreProvider {
@@ -73,8 +82,14 @@ public final class MockBlobStore extends BlobStoreProvider {
         return "container";
     }
 
+    /** User metadata recording the checksum verified on upload. */
+    private static final String SHA256 = "sha256";
+
     private static final Map<String, HttpRequestHandler> specialHandlers = new ConcurrentHashMap<>();
 
+    /** Parts uploaded so far by upload ID and part number. */
+    private static final Map<String, Map<Integer, byte[]>> multipartUploads = new ConcurrentHashMap<>();
+
     /**
      * Requests that the <em>next</em> HTTP access to a particular presigned URL should behave specially.
      * @param method upload or download
@@ -92,7 +107,7 @@ public final class MockBlobStore extends BlobStoreProvider {
             HttpServer server = ServerBootstrap.bootstrap().
                 registerHandler("*", (HttpRequest request, HttpResponse response, HttpContext _context) -> {
                     String method = request.getRequestLine().getMethod();
-                    Matcher m = Pattern.compile("/([^/]+)/(.+)[?]method=" + method).matcher(request.getRequestLine().getUri());
+                    Matcher m = Pattern.compile("/([^/]+)/(.+)[?]method=" + method + "(?:&checksum=([0-9a-f]{64}))?(?:&uploadId=([^&]+)&partNumber=([0-9]+))?").matcher(request.getRequestLine().getUri());
                     if (!m.matches()) {
                         throw new IllegalStateException();
                     }
@@ -112,6 +127,19 @@ public final class MockBlobStore extends BlobStoreProvider {
                                 return;
                             }
                             byte[] data = IOUtils.toByteArray(blob.getPayload().openStream());
+                            Header range = request.getFirstHeader("Range");
+                            if (range != null) {
+                                Matcher r = Pattern.compile("bytes=([0-9]+)-([0-9]+)").matcher(range.getValue());
+                                if (!r.matches()) {
+                                    throw new IllegalStateException(range.getValue());
+                                }
+                                int start = Integer.parseInt(r.group(1));
+                                int end = Math.min(Integer.parseInt(r.group(2)), data.length - 1);
+                                response.setStatusCode(206);
+                                response.setEntity(new ByteArrayEntity(Arrays.copyOfRange(data, start, end + 1)));
+                                LOGGER.log(Level.INFO, "Serving bytes {0}-{1} from {2}:{3}", new Object[] {start, end, container, key});
+                                return;
+                            }
                             response.setStatusCode(200);
                             response.setEntity(new ByteArrayEntity(data));
                             LOGGER.log(Level.INFO, "Serving {0} bytes from {1}:{2}", new Object[] {data.length, container, key});
@@ -119,7 +147,35 @@ public final class MockBlobStore extends BlobStoreProvider {
                         } case "PUT": {
                             HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
                             byte[] data = IOUtils.toByteArray(entity.getContent());
-                            Blob blob = blobStore.blobBuilder(key).payload(data).build();
+                            if (m.group(4) != null) {
+                                Map<Integer, byte[]> parts = multipartUploads.get(m.group(4));
+                                if (parts == null) {
+                                    response.setStatusCode(404);
+                                    return;
+                                }
+                                int partNumber = Integer.parseInt(m.group(5));
+                                parts.put(partNumber, data);
+                                response.setStatusCode(200);
+                                response.setHeader("ETag", "\"" + m.group(4) + "-" + partNumber + "\"");
+                                LOGGER.log(Level.INFO, "Uploaded {0} bytes to part {1} of {2}:{3}", new Object[] {data.length, partNumber, container, key});
+                                return;
+                            }
+                            String checksum = m.group(3);
+                            if (checksum != null) {
+                                // as in S3, the header is signed and the contents must match it
+                                Header header = request.getFirstHeader(CHECKSUM_HEADER);
+                                if (header == null || !header.getValue().equals(checksumHeaderValue(checksum))) {
+                                    response.setStatusCode(403);
+                                    return;
+                                }
+                                if (!JCloudsArtifactManager.digest(data, data.length).equals(checksum)) {
+                                    response.setStatusCode(400);
+                                    return;
+                                }
+                            }
+                            Header contentType = request.getFirstHeader("Content-Type");
+                            Blob blob = blobStore.blobBuilder(key).payload(data).contentType(contentType != null ? contentType.getValue() : null).
+                                userMetadata(checksum != null ? Map.of(SHA256, checksum) : Map.of()).build();
                             if (!blobStore.containerExists(container)) {
                                 blobStore.createContainerInLocation(null, container);
                             }
@@ -144,7 +200,17 @@ public final class MockBlobStore extends BlobStoreProvider {
             baseURL = new URL("http", server.getInetAddress().getHostName(), server.getLocalPort(), "/");
             LOGGER.log(Level.INFO, "Mock server running at {0}", baseURL);
         }
-        return context;
+        // Callers close what they get, but the blobs live in this context, so hand out a view which ignores that.
+        return (BlobStoreContext) Proxy.newProxyInstance(BlobStoreContext.class.getClassLoader(), new Class<?>[] {BlobStoreContext.class}, (proxy, method, args) -> {
+            if (method.getName().equals("close")) {
+                return null;
+            }
+            try {
+                return method.invoke(context, args);
+            } catch (InvocationTargetException x) {
+                throw x.getCause();
+            }
+        });
     }
 
     @Override
@@ -157,6 +223,73 @@ public final class MockBlobStore extends BlobStoreProvider {
         return new URL(baseURL, blob.getMetadata().getContainer() + "/" + blob.getMetadata().getName() + "?method=" + httpMethod);
     }
 
+    @Override
+    public boolean isChecksumSupported() {
+        return true;
+    }
+
+    @Override
+    public URL toExternalURL(Blob blob, HttpMethod httpMethod, String sha256) throws IOException {
+        return new URL(toExternalURL(blob, httpMethod) + "&checksum=" + sha256);
+    }
+
+    @Override
+    public String getSha256(BlobStore blobStore, String path) throws IOException {
+        BlobMetadata metadata = blobStore.blobMetadata(getContainer(), path);
+        return metadata != null ? metadata.getUserMetadata().get(SHA256) : null;
+    }
+
+    @Override
+    public boolean isMultipartUploadSupported() {
+        return true;
+    }
+
+    @Override
+    public MultipartUpload initiateMultipartUpload(Blob blob, long size, long partSize) throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        multipartUploads.put(uploadId, new ConcurrentHashMap<>());
+        List<URL> partUrls = new ArrayList<>();
+        for (int part = 1; (part - 1) * partSize < size; part++) {
+            partUrls.add(new URL(toExternalURL(blob, HttpMethod.PUT) + "&uploadId=" + uploadId + "&partNumber=" + part));
+        }
+        return new MultipartUpload(blob.getMetadata().getContainer(), blob.getMetadata().getName(), uploadId, partSize, partUrls);
+    }
+
+    @Override
+    public URL presignMultipartUploadPart(MultipartUpload upload, int partNumber) throws IOException {
+        return new URL(baseURL, upload.getContainer() + "/" + upload.getKey() + "?method=" + HttpMethod.PUT + "&uploadId=" + upload.getUploadId() + "&partNumber=" + partNumber);
+    }
+
+    @Override
+    public void completeMultipartUpload(MultipartUpload upload, List<String> etags) throws IOException {
+        Map<Integer, byte[]> parts = multipartUploads.remove(upload.getUploadId());
+        if (parts == null || parts.size() != etags.size()) {
+            throw new IOException("Missing parts in " + upload);
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < etags.size(); i++) {
+            if (!etags.get(i).equals("\"" + upload.getUploadId() + "-" + (i + 1) + "\"")) {
+                throw new IOException("Wrong ETag " + etags.get(i) + " for part " + (i + 1) + " of " + upload);
+            }
+            data.write(parts.get(i + 1));
+        }
+        BlobStore blobStore = getContext().getBlobStore();
+        if (!blobStore.containerExists(upload.getContainer())) {
+            blobStore.createContainerInLocation(null, upload.getContainer());
+        }
+        blobStore.putBlob(upload.getContainer(), blobStore.blobBuilder(upload.getKey()).payload(data.toByteArray()).build());
+    }
+
+    @Override
+    public void abortMultipartUpload(MultipartUpload upload) throws IOException {
+        multipartUploads.remove(upload.getUploadId());
+    }
+
+    /** For tests: number of multipart uploads neither completed nor aborted. */
+    static int pendingMultipartUploads() {
+        return multipartUploads.size();
+    }
+
     @Override
     public boolean isDeleteArtifacts() {
         return true;
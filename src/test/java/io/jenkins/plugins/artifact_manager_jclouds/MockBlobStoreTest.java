@@ -24,7 +24,28 @@
 
 package io.jenkins.plugins.artifact_manager_jclouds;
 
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import jenkins.model.ArtifactManagerConfiguration;
+import jenkins.util.VirtualFile;
+import org.apache.commons.io.IOUtils;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.options.ListContainerOptions;
 import org.jenkinsci.plugins.workflow.ArtifactManagerTest;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.flow.StashManager;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assume.assumeFalse;
 import org.junit.ClassRule;
 import org.junit.Rule;
@@ -48,4 +69,175 @@ public class MockBlobStoreTest {
         ArtifactManagerTest.artifactStashAndDelete(j, new JCloudsArtifactManagerFactory(new MockBlobStore()), false);
     }
 
+    @Test
+    public void parallelUploads() throws Exception {
+        assumeFalse("Does not work when Dockerized since the mock server is inaccessible from the container", DockerClientFactory.instance().isDockerAvailable());
+        int concurrency = JCloudsArtifactManager.UPLOAD_CONCURRENCY;
+        JCloudsArtifactManager.UPLOAD_CONCURRENCY = 4;
+        try {
+            ArtifactManagerTest.artifactArchiveAndDelete(j, new JCloudsArtifactManagerFactory(new MockBlobStore()), false);
+        } finally {
+            JCloudsArtifactManager.UPLOAD_CONCURRENCY = concurrency;
+        }
+    }
+
+    @Test
+    public void batchedUploads() throws Exception {
+        assumeFalse("Does not work when Dockerized since the mock server is inaccessible from the container", DockerClientFactory.instance().isDockerAvailable());
+        int batchSize = JCloudsArtifactManager.UPLOAD_BATCH_SIZE;
+        JCloudsArtifactManager.UPLOAD_BATCH_SIZE = 1;
+        try {
+            ArtifactManagerTest.artifactArchiveAndDelete(j, new JCloudsArtifactManagerFactory(new MockBlobStore()), false);
+        } finally {
+            JCloudsArtifactManager.UPLOAD_BATCH_SIZE = batchSize;
+        }
+    }
+
+    @Test
+    public void contentAddressable() throws Exception {
+        assumeFalse("Does not work when Dockerized since the mock server is inaccessible from the container", DockerClientFactory.instance().isDockerAvailable());
+        JCloudsArtifactManager.CONTENT_ADDRESSABLE = true;
+        try {
+            ArtifactManagerTest.artifactArchiveAndDelete(j, new JCloudsArtifactManagerFactory(new MockBlobStore()), false);
+        } finally {
+            JCloudsArtifactManager.CONTENT_ADDRESSABLE = false;
+        }
+    }
+
+    @Test
+    public void mixedContentAddressing() throws Exception {
+        assumeFalse("Does not work when Dockerized since the mock server is inaccessible from the container", DockerClientFactory.instance().isDockerAvailable());
+        ArtifactManagerConfiguration.get().getArtifactManagerFactories().add(new JCloudsArtifactManagerFactory(new MockBlobStore()));
+        WorkflowJob p = j.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("", true));
+        BuildListener listener = new StreamBuildListener(System.err, StandardCharsets.UTF_8);
+        Launcher launcher = j.jenkins.createLauncher(listener);
+        FilePath ws = j.jenkins.getRootPath().child("ws");
+        ws.child("a").write("one", null);
+        ws.child("b").write("two", null);
+        for (boolean casFirst : new boolean[] {true, false}) {
+            WorkflowRun b = j.buildAndAssertSuccess(p);
+            try {
+                JCloudsArtifactManager.CONTENT_ADDRESSABLE = casFirst;
+                b.getArtifactManager().archive(ws, launcher, listener, Map.of("a", "a"));
+                JCloudsArtifactManager.CONTENT_ADDRESSABLE = !casFirst;
+                b.getArtifactManager().archive(ws, launcher, listener, Map.of("b", "b"));
+            } finally {
+                JCloudsArtifactManager.CONTENT_ADDRESSABLE = false;
+            }
+            VirtualFile root = b.getArtifactManager().root();
+            assertEquals(2, root.list().length);
+            try (InputStream is = root.child("a").open()) {
+                assertEquals("one", IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+            try (InputStream is = root.child("b").open()) {
+                assertEquals("two", IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+            assertEquals(3, root.child("b").length());
+        }
+    }
+
+    @Test
+    public void multipartUploads() throws Exception {
+        assumeFalse("Does not work when Dockerized since the mock server is inaccessible from the container", DockerClientFactory.instance().isDockerAvailable());
+        long threshold = JCloudsArtifactManager.MULTIPART_THRESHOLD;
+        long partSize = JCloudsArtifactManager.MULTIPART_PART_SIZE;
+        JCloudsArtifactManager.MULTIPART_THRESHOLD = 1;
+        JCloudsArtifactManager.MULTIPART_PART_SIZE = 3;
+        try {
+            ArtifactManagerTest.artifactArchiveAndDelete(j, new JCloudsArtifactManagerFactory(new MockBlobStore()), false);
+            ArtifactManagerTest.artifactStashAndDelete(j, new JCloudsArtifactManagerFactory(new MockBlobStore()), false);
+            assertEquals(0, MockBlobStore.pendingMultipartUploads());
+        } finally {
+            JCloudsArtifactManager.MULTIPART_THRESHOLD = threshold;
+            JCloudsArtifactManager.MULTIPART_PART_SIZE = partSize;
+        }
+    }
+
+    @Test
+    public void rangedUnstash() throws Exception {
+        assumeFalse("Does not work when Dockerized since the mock server is inaccessible from the container", DockerClientFactory.instance().isDockerAvailable());
+        int chunkSize = JCloudsArtifactManager.UNSTASH_CHUNK_SIZE;
+        JCloudsArtifactManager.UNSTASH_CHUNK_SIZE = 7;
+        try {
+            ArtifactManagerTest.artifactStashAndDelete(j, new JCloudsArtifactManagerFactory(new MockBlobStore()), false);
+        } finally {
+            JCloudsArtifactManager.UNSTASH_CHUNK_SIZE = chunkSize;
+        }
+    }
+
+    @Test
+    public void chunkedStashes() throws Exception {
+        assumeFalse("Does not work when Dockerized since the mock server is inaccessible from the container", DockerClientFactory.instance().isDockerAvailable());
+        JCloudsArtifactManager.STASH_CHUNKING = true;
+        try {
+            ArtifactManagerTest.artifactStashAndDelete(j, new JCloudsArtifactManagerFactory(new MockBlobStore()), false);
+        } finally {
+            JCloudsArtifactManager.STASH_CHUNKING = false;
+        }
+    }
+
+    @Test
+    public void referenceCopies() throws Exception {
+        assumeFalse("Does not work when Dockerized since the mock server is inaccessible from the container", DockerClientFactory.instance().isDockerAvailable());
+        JCloudsArtifactManager.REFERENCE_COPIES = true;
+        try {
+            MockBlobStore provider = new MockBlobStore();
+            ArtifactManagerConfiguration.get().getArtifactManagerFactories().add(new JCloudsArtifactManagerFactory(provider));
+            WorkflowJob p = j.createProject(WorkflowJob.class, "p");
+            p.setDefinition(new CpsFlowDefinition("node {writeFile file: 'f', text: 'content'; archiveArtifacts 'f'}", true));
+            WorkflowRun b1 = j.buildAndAssertSuccess(p);
+            TaskListener listener = StreamTaskListener.fromStderr();
+            Launcher launcher = j.jenkins.createLauncher(listener);
+            FilePath ws = j.jenkins.getRootPath().child("ws");
+            ws.child("s").write("stashed", null);
+            StashManager.stash(b1, "s", ws, launcher, new EnvVars(), listener, "s", null, false, false);
+            p.setDefinition(new CpsFlowDefinition("", true));
+            WorkflowRun b2 = j.buildAndAssertSuccess(p);
+            StashManager.copyAll(b1, b2);
+            b1.delete();
+            try (InputStream is = b2.getArtifactManager().root().child("f").open()) {
+                assertEquals("content", IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+            ws.child("s").delete();
+            StashManager.unstash(b2, "s", ws, launcher, new EnvVars(), listener);
+            assertEquals("stashed", ws.child("s").readToString());
+            b2.delete();
+            BlobStore blobStore = provider.getContext().getBlobStore();
+            assertEquals(0, blobStore.list(provider.getContainer(), ListContainerOptions.Builder.prefix("p/").recursive()).size());
+        } finally {
+            JCloudsArtifactManager.REFERENCE_COPIES = false;
+        }
+    }
+
+    @Test
+    public void referencedStashesCleared() throws Exception {
+        assumeFalse("Does not work when Dockerized since the mock server is inaccessible from the container", DockerClientFactory.instance().isDockerAvailable());
+        JCloudsArtifactManager.REFERENCE_COPIES = true;
+        try {
+            MockBlobStore provider = new MockBlobStore();
+            ArtifactManagerConfiguration.get().getArtifactManagerFactories().add(new JCloudsArtifactManagerFactory(provider));
+            WorkflowJob p = j.createProject(WorkflowJob.class, "p");
+            p.setDefinition(new CpsFlowDefinition("", true));
+            WorkflowRun b1 = j.buildAndAssertSuccess(p);
+            TaskListener listener = StreamTaskListener.fromStderr();
+            Launcher launcher = j.jenkins.createLauncher(listener);
+            FilePath ws = j.jenkins.getRootPath().child("ws");
+            ws.child("s").write("stashed", null);
+            StashManager.stash(b1, "s", ws, launcher, new EnvVars(), listener, "s", null, false, false);
+            WorkflowRun b2 = j.buildAndAssertSuccess(p);
+            StashManager.copyAll(b1, b2);
+            StashManager.clearAll(b1, listener);
+            ws.child("s").delete();
+            StashManager.unstash(b2, "s", ws, launcher, new EnvVars(), listener);
+            assertEquals("stashed", ws.child("s").readToString());
+            StashManager.clearAll(b2, listener);
+            BlobStore blobStore = provider.getContext().getBlobStore();
+            assertEquals(0, blobStore.list(provider.getContainer(), ListContainerOptions.Builder.prefix("p/1/stashes/").recursive()).size());
+            assertFalse(blobStore.blobExists(provider.getContainer(), "p/1/stashes-deleted"));
+        } finally {
+            JCloudsArtifactManager.REFERENCE_COPIES = false;
+        }
+    }
+
 }
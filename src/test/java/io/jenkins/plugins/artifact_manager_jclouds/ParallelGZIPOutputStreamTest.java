@@ -0,0 +1,61 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class ParallelGZIPOutputStreamTest {
+
+    private static byte[] roundTrip(byte[] data, int threads, int blockSize) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream os = new ParallelGZIPOutputStream(compressed, threads, Deflater.DEFAULT_COMPRESSION, blockSize)) {
+            // uneven writes, to cross block boundaries
+            int off = 0;
+            int chunk = 1;
+            while (off < data.length) {
+                int n = Math.min(chunk, data.length - off);
+                if (n == 1) {
+                    os.write(data[off]);
+                } else {
+                    os.write(data, off, n);
+                }
+                off += n;
+                chunk = chunk * 3 + 1;
+            }
+        }
+        try (GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            return is.readAllBytes();
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertArrayEquals(new byte[0], roundTrip(new byte[0], 4, 1024));
+    }
+
+    @Test
+    public void compressible() throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            b.append("line ").append(i % 100).append('\n');
+        }
+        byte[] data = b.toString().getBytes();
+        assertArrayEquals(data, roundTrip(data, 4, 40_000));
+    }
+
+    @Test
+    public void random() throws Exception {
+        byte[] data = new byte[1_000_000];
+        new Random(42).nextBytes(data);
+        assertArrayEquals(data, roundTrip(data, 3, 64 * 1024));
+        assertArrayEquals(data, roundTrip(data, 1, 100_000));
+    }
+
+}
@@ -0,0 +1,141 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StashCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static StashCache.Download writing(byte[] data, AtomicInteger downloads) {
+        return file -> {
+            downloads.incrementAndGet();
+            Files.write(file.toPath(), data);
+        };
+    }
+
+    @Test
+    public void hitsAndMisses() throws Exception {
+        StashCache cache = new StashCache(tmp.newFolder(), 100);
+        AtomicInteger downloads = new AtomicInteger();
+        File old;
+        try (StashCache.Lease lease = cache.acquire("s1", "e1", writing(new byte[] {1, 2, 3}, downloads))) {
+            assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(lease.getFile().toPath()));
+            old = lease.getFile();
+        }
+        try (StashCache.Lease lease = cache.acquire("s1", "e1", writing(new byte[] {1, 2, 3}, downloads))) {
+            assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(lease.getFile().toPath()));
+        }
+        assertEquals(1, downloads.get());
+        // stash replaced
+        try (StashCache.Lease lease = cache.acquire("s1", "e2", writing(new byte[] {4, 5}, downloads))) {
+            assertArrayEquals(new byte[] {4, 5}, Files.readAllBytes(lease.getFile().toPath()));
+        }
+        assertEquals(2, downloads.get());
+        assertEquals(2, cache.size());
+        assertFalse(old.exists());
+    }
+
+    @Test
+    public void eviction() throws Exception {
+        StashCache cache = new StashCache(tmp.newFolder(), 10);
+        AtomicInteger downloads = new AtomicInteger();
+        File first;
+        try (StashCache.Lease lease = cache.acquire("s1", "e", writing(new byte[6], downloads))) {
+            first = lease.getFile();
+        }
+        try (StashCache.Lease lease = cache.acquire("s2", "e", writing(new byte[6], downloads))) {
+            assertFalse("least recently used entry deleted", first.exists());
+        }
+        assertEquals(6, cache.size());
+        File big;
+        try (StashCache.Lease lease = cache.acquire("s3", "e", writing(new byte[20], downloads))) {
+            big = lease.getFile();
+            assertTrue("not deleted while in use", big.isFile());
+        }
+        assertFalse(big.exists());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void sharedDownload() throws Exception {
+        StashCache cache = new StashCache(tmp.newFolder(), 100);
+        AtomicInteger downloads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        StashCache.Download slow = file -> {
+            downloads.incrementAndGet();
+            started.countDown();
+            proceed.await();
+            Files.write(file.toPath(), new byte[] {7});
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> a = executor.submit(() -> {
+                try (StashCache.Lease lease = cache.acquire("s", "e", slow)) {
+                    return Files.readAllBytes(lease.getFile().toPath());
+                }
+            });
+            started.await();
+            Future<byte[]> b = executor.submit(() -> {
+                try (StashCache.Lease lease = cache.acquire("s", "e", slow)) {
+                    return Files.readAllBytes(lease.getFile().toPath());
+                }
+            });
+            Thread.sleep(100);
+            proceed.countDown();
+            assertArrayEquals(new byte[] {7}, a.get());
+            assertArrayEquals(new byte[] {7}, b.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    public void capture() throws Exception {
+        StashCache cache = new StashCache(tmp.newFolder(), 5);
+        ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+        StashCache.Capture capture = cache.capture(uploaded);
+        try (OutputStream os = capture) {
+            os.write(new byte[] {1, 2, 3});
+        }
+        assertEquals(3, uploaded.size());
+        File file = capture.getFile();
+        assertNotNull(file);
+        cache.adopt("s", "e", file);
+        AtomicInteger downloads = new AtomicInteger();
+        try (StashCache.Lease lease = cache.acquire("s", "e", writing(new byte[0], downloads))) {
+            assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(lease.getFile().toPath()));
+        }
+        assertEquals(0, downloads.get());
+        // too big to cache
+        capture = cache.capture(uploaded);
+        try (OutputStream os = capture) {
+            os.write(new byte[] {1, 2, 3});
+            os.write(new byte[] {4, 5, 6});
+        }
+        assertEquals(9, uploaded.size());
+        assertNull(capture.getFile());
+    }
+
+}
@@ -0,0 +1,85 @@
+package io.jenkins.plugins.artifact_manager_jclouds;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.util.DirScanner;
+
+public class StashCodecTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void forContentType() {
+        assertEquals(StashCodec.GZIP, StashCodec.forContentType("application/gzip"));
+        assertEquals(StashCodec.NONE, StashCodec.forContentType("application/x-tar"));
+        assertEquals(StashCodec.LZ4, StashCodec.forContentType("application/x-lz4"));
+        // stashes from older versions
+        assertEquals(StashCodec.GZIP, StashCodec.forContentType(null));
+        assertEquals(StashCodec.GZIP, StashCodec.forContentType("application/octet-stream"));
+    }
+
+    @Test
+    public void forName() {
+        assertEquals(StashCodec.NONE, StashCodec.forName("none"));
+        assertEquals(StashCodec.GZIP, StashCodec.forName("gzip"));
+        assertEquals(StashCodec.LZ4, StashCodec.forName("lz4"));
+        assertEquals(StashCodec.GZIP, StashCodec.forName("zstd"));
+    }
+
+    @Test
+    public void choose() throws Exception {
+        File dir = tmp.newFolder();
+        Files.write(new File(dir, "big.jar").toPath(), new byte[10_000]);
+        Files.write(new File(dir, "small.txt").toPath(), new byte[100]);
+        assertEquals(StashCodec.NONE, StashCodec.choose(dir, new DirScanner.Glob("**", null)));
+        assertEquals(StashCodec.GZIP, StashCodec.choose(dir, new DirScanner.Glob("*.txt", null)));
+        Files.write(new File(dir, "huge.log").toPath(), new byte[20_000]);
+        assertEquals(StashCodec.GZIP, StashCodec.choose(dir, new DirScanner.Glob("**", null)));
+    }
+
+    @Test
+    public void gzipLevels() throws Exception {
+        byte[] data = "some text to compress ".repeat(1000).getBytes();
+        for (int threads : new int[] {1, 2}) {
+            for (int level : new int[] {Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION}) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (OutputStream os = StashCodec.GZIP.encode(compressed, threads, level)) {
+                    os.write(data);
+                }
+                try (GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+                    assertArrayEquals(data, is.readAllBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] data = "some text to compress ".repeat(100_000).getBytes();
+        for (StashCodec codec : StashCodec.values()) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream os = codec.encode(compressed, 1, Deflater.DEFAULT_COMPRESSION)) {
+                os.write(data);
+            }
+            try (InputStream is = codec.decode(new ByteArrayInputStream(compressed.toByteArray()))) {
+                assertArrayEquals(codec.name(), data, is.readAllBytes());
+            }
+        }
+    }
+
+}
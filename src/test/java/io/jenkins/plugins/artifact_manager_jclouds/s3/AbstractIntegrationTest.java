@@ -2,7 +2,12 @@ package io.jenkins.plugins.artifact_manager_jclouds.s3;
 
 import io.jenkins.plugins.artifact_manager_jclouds.JCloudsArtifactManagerFactory;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
 import jenkins.model.ArtifactManagerFactory;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
 import org.jenkinsci.plugins.workflow.ArtifactManagerTest;
 import org.junit.Rule;
 import org.junit.Test;
@@ -18,6 +23,7 @@ import java.util.logging.Level;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import org.junit.Assume;
 import org.junit.BeforeClass;
@@ -87,6 +93,31 @@ public abstract class AbstractIntegrationTest {
         ArtifactManagerTest.artifactStash(jenkinsRule, getArtifactManagerFactory(null, null), true);
     }
 
+    protected static void _multipartCopy(JenkinsRule jenkinsRule) throws Throwable {
+        createBucketWithAwsClient("multipart-copy");
+        S3BlobStore provider = new S3BlobStore();
+        byte[] data = new byte[12 * 1024 * 1024];
+        new Random(0).nextBytes(data);
+        long threshold = S3BlobStore.MULTIPART_COPY_THRESHOLD;
+        long partSize = S3BlobStore.MULTIPART_COPY_PART_SIZE;
+        S3BlobStore.MULTIPART_COPY_THRESHOLD = 1;
+        // the minimum for all but the last part
+        S3BlobStore.MULTIPART_COPY_PART_SIZE = 5 * 1024 * 1024;
+        try (BlobStoreContext context = provider.getContext()) {
+            BlobStore blobStore = context.getBlobStore();
+            blobStore.putBlob("multipart-copy", blobStore.blobBuilder("from").payload(data).contentType("application/octet-stream").build());
+            provider.copyBlob(blobStore, "from", "to", data.length);
+            Blob copy = blobStore.getBlob("multipart-copy", "to");
+            assertEquals("application/octet-stream", copy.getMetadata().getContentMetadata().getContentType());
+            try (InputStream is = copy.getPayload().openStream()) {
+                assertArrayEquals(data, is.readAllBytes());
+            }
+        } finally {
+            S3BlobStore.MULTIPART_COPY_THRESHOLD = threshold;
+            S3BlobStore.MULTIPART_COPY_PART_SIZE = partSize;
+        }
+    }
+
     @Test
     public void canCreateBucket() throws Throwable {
         rr.runRemotely(AbstractIntegrationTest::_canCreateBucket);
@@ -112,4 +143,9 @@ public abstract class AbstractIntegrationTest {
         rr.runRemotely(AbstractIntegrationTest::_artifactStashAndDelete);
     }
 
+    @Test
+    public void multipartCopy() throws Throwable {
+        rr.runRemotely(AbstractIntegrationTest::_multipartCopy);
+    }
+
 }
@@ -0,0 +1,234 @@
+package io.jenkins.plugins.artifact_manager_jclouds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+import org.junit.Test;
+
+import io.jenkins.plugins.artifact_manager_jclouds.BlobStoreProvider;
+import io.jenkins.plugins.artifact_manager_jclouds.JCloudsVirtualFile;
+
+public class BlobStoreContextPoolTest {
+
+    private Instant now = Instant.parse("2018-05-01T00:00:00Z");
+
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    };
+
+    private final BlobStoreContextPool pool = new BlobStoreContextPool(clock);
+
+    private final List<BlobStoreContext> built = new ArrayList<>();
+
+    private BlobStoreContextPool.Built build() {
+        BlobStoreContext context = mock(BlobStoreContext.class);
+        when(context.getBlobStore()).thenReturn(mock(BlobStore.class));
+        built.add(context);
+        return new BlobStoreContextPool.Built(context, now.plus(Duration.ofHours(1)));
+    }
+
+    @Test
+    public void reusedUntilInvalidated() throws Exception {
+        BlobStoreContext lease1 = pool.acquire("k", this::build);
+        BlobStoreContext lease2 = pool.acquire("k", this::build);
+        assertEquals(1, built.size());
+        assertEquals(built.get(0).getBlobStore(), lease2.getBlobStore());
+        lease1.close();
+        lease1.close(); // idempotent
+        pool.invalidate();
+        verify(built.get(0), never()).close();
+        lease2.close();
+        verify(built.get(0)).close();
+        try (BlobStoreContext lease3 = pool.acquire("k", this::build)) {
+            assertEquals(2, built.size());
+        }
+        verify(built.get(1), never()).close();
+    }
+
+    @Test
+    public void distinctKeys() throws Exception {
+        try (BlobStoreContext lease1 = pool.acquire("k1", this::build); BlobStoreContext lease2 = pool.acquire("k2", this::build)) {
+            assertEquals(2, built.size());
+            assertEquals(2, pool.size());
+        }
+        pool.invalidate();
+        assertEquals(0, pool.size());
+        verify(built.get(0)).close();
+        verify(built.get(1)).close();
+    }
+
+    @Test
+    public void refreshedBeforeExpiry() throws Exception {
+        BlobStoreContext lease1 = pool.acquire("k", this::build);
+        now = now.plus(Duration.ofMinutes(58));
+        BlobStoreContext lease2 = pool.acquire("k", this::build);
+        assertEquals("within the refresh margin, so rebuilt", 2, built.size());
+        verify(built.get(0), never()).close();
+        lease1.close();
+        verify(built.get(0)).close();
+        lease2.close();
+        verify(built.get(1), never()).close();
+    }
+
+    @Test
+    public void buildsOutsideTheLock() throws Exception {
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            BlobStoreContextPool.Factory slow = () -> {
+                building.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException x) {
+                    throw new IOException(x);
+                }
+                return build();
+            };
+            Future<BlobStoreContext> first = executor.submit(() -> pool.acquire("slow", slow));
+            building.await();
+            Future<BlobStoreContext> second = executor.submit(() -> pool.acquire("slow", slow));
+            // neither another key nor releasing a lease waits for that build
+            pool.acquire("fast", this::build).close();
+            assertEquals(1, built.size());
+            proceed.countDown();
+            try (BlobStoreContext lease1 = first.get(); BlobStoreContext lease2 = second.get()) {
+                assertEquals("built once", 2, built.size());
+                assertEquals(built.get(1).getBlobStore(), lease1.getBlobStore());
+                assertEquals(built.get(1).getBlobStore(), lease2.getBlobStore());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedBuildIsNotKept() throws Exception {
+        try {
+            pool.acquire("k", () -> {
+                throw new IOException("no credentials");
+            });
+            fail();
+        } catch (IOException x) {
+            assertEquals("no credentials", x.getMessage());
+        }
+        assertEquals(0, pool.size());
+        try (BlobStoreContext lease = pool.acquire("k", this::build)) {
+            assertEquals(1, built.size());
+        }
+    }
+
+    @Test
+    public void openStreamHoldsLease() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        BlobStoreContext context = mock(BlobStoreContext.class);
+        BlobStore blobStore = mock(BlobStore.class);
+        when(context.getBlobStore()).thenReturn(blobStore);
+        doAnswer(invocation -> {
+            closed.set(true);
+            return null;
+        }).when(context).close();
+        Blob blob = mock(Blob.class, RETURNS_DEEP_STUBS);
+        // like a response read over a connection of the context
+        when(blob.getPayload().openStream()).thenReturn(new FilterInputStream(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.US_ASCII))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (closed.get()) {
+                    throw new IOException("Connection pool shut down");
+                }
+                return super.read(b, off, len);
+            }
+        });
+        when(blob.getMetadata().getContentMetadata().getContentLength()).thenReturn(10L);
+        when(blobStore.getBlob("container", "dir/file")).thenReturn(blob);
+        BlobStoreProvider provider = new PooledProvider(pool, () -> new BlobStoreContextPool.Built(context, now.plus(Duration.ofHours(1))));
+        try (InputStream is = new JCloudsVirtualFile(provider, "container", "dir/file").open()) {
+            assertEquals("01234", new String(is.readNBytes(5), StandardCharsets.US_ASCII));
+            pool.invalidate();
+            assertFalse("still being read", closed.get());
+            assertEquals("56789", new String(is.readAllBytes(), StandardCharsets.US_ASCII));
+        }
+        assertTrue(closed.get());
+    }
+
+    private static final class PooledProvider extends BlobStoreProvider {
+        private static final long serialVersionUID = 1L;
+        private final transient BlobStoreContextPool pool;
+        private final transient BlobStoreContextPool.Factory factory;
+        PooledProvider(BlobStoreContextPool pool, BlobStoreContextPool.Factory factory) {
+            this.pool = pool;
+            this.factory = factory;
+        }
+        @Override
+        public String getPrefix() {
+            return "";
+        }
+        @Override
+        public String getContainer() {
+            return "container";
+        }
+        @Override
+        public boolean isDeleteArtifacts() {
+            return false;
+        }
+        @Override
+        public boolean isDeleteStashes() {
+            return false;
+        }
+        @Override
+        public BlobStoreContext getContext() throws IOException {
+            return pool.acquire("k", factory);
+        }
+        @Override
+        public URI toURI(String container, String key) {
+            return URI.create("test://" + container + "/" + key);
+        }
+        @Override
+        public URL toExternalURL(Blob blob, BlobStoreProvider.HttpMethod httpMethod) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -8,6 +8,7 @@ import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import io.jenkins.plugins.artifact_manager_jclouds.BlobStoreProvider;
 import io.jenkins.plugins.artifact_manager_jclouds.JCloudsArtifactManagerFactory;
+import io.jenkins.plugins.aws.global_configuration.CredentialsAwsGlobalConfiguration;
 
 import hudson.model.Failure;
 import hudson.util.FormValidation;
@@ -18,6 +19,8 @@ import software.amazon.awssdk.regions.Region;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -155,6 +158,26 @@ public class S3BlobStoreConfigTest {
         assertEquals(Region.US_EAST_1, config.getRegion());
     }
 
+    @Test
+    public void snapshotFollowsConfiguration() {
+        S3BlobStoreConfig config = S3BlobStoreConfig.get();
+        config.setCustomEndpoint("minio.example.com:9000");
+        config.setCustomSigningRegion("eu-west-1");
+        config.setPrefix(CONTAINER_PREFIX);
+        S3BlobStoreConfig.Snapshot snapshot = config.getSnapshot();
+        assertSame(snapshot, config.getSnapshot());
+        assertEquals(CONTAINER_PREFIX, snapshot.getPrefix());
+        assertEquals("https://minio.example.com:9000", snapshot.getResolvedCustomEndpoint());
+        assertEquals(Region.of("eu-west-1"), snapshot.getSigningRegion());
+        config.setPrefix("");
+        assertNotEquals(snapshot, config.getSnapshot());
+        assertEquals("", config.getSnapshot().getPrefix());
+        snapshot = config.getSnapshot();
+        CredentialsAwsGlobalConfiguration.get().setCredentialsId("other");
+        assertEquals("other", config.getSnapshot().getCredentialsId());
+        assertNotEquals(snapshot, config.getSnapshot());
+    }
+
     @Test
     @Ignore("because we rely on aws sdk autodetection of region, and for some people the auto detect can return somehting different")
     public void getRegionWithoutCustomEndpoint() {
@@ -0,0 +1,78 @@
+package io.jenkins.plugins.artifact_manager_jclouds.s3;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+
+/**
+ * Compares {@link S3BulkPresigner} with presigning each file through the SDK, as {@link S3BlobStore#artifactUrls} used to.
+ */
+@JmhBenchmark
+public class S3BulkPresignerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Batch {
+
+        @Param({"1000", "50000"})
+        public int size;
+
+        public AwsCredentials credentials;
+        public S3Presigner presigner;
+        public Map<String, String> keys;
+        public Map<String, String> contentTypes;
+
+        @Setup
+        public void setUp() {
+            credentials = AwsSessionCredentials.create("ASIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY", "FQoGZXIvYXdzEXAMPLE");
+            presigner = S3BulkPresignerTest.presigner(false, credentials);
+            keys = new HashMap<>();
+            contentTypes = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                keys.put("dir" + (i % 100) + "/file" + i + ".class", "prefix/job/1/artifacts/dir" + (i % 100) + "/file" + i + ".class");
+                contentTypes.put("dir" + (i % 100) + "/file" + i + ".class", "application/java-vm");
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            presigner.close();
+        }
+
+    }
+
+    @Benchmark
+    public Map<String, URL> sdk(Batch batch) {
+        Map<String, URL> urls = new HashMap<>();
+        for (Map.Entry<String, String> entry : batch.keys.entrySet()) {
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder().bucket("my-bucket")
+                    .contentType(batch.contentTypes.get(entry.getKey()))
+                    .key(entry.getValue())
+                    .build();
+            urls.put(entry.getKey(), batch.presigner.presignPutObject(PutObjectPresignRequest.builder()
+                    .signatureDuration(Duration.ofHours(1))
+                    .putObjectRequest(putObjectRequest).build()).url());
+        }
+        return urls;
+    }
+
+    @Benchmark
+    public Map<String, URL> bulk(Batch batch) throws Exception {
+        return new S3BulkPresigner(batch.presigner, batch.credentials, Duration.ofHours(1)).presignPuts("my-bucket", batch.keys, batch.contentTypes);
+    }
+
+}
@@ -0,0 +1,130 @@
+package io.jenkins.plugins.artifact_manager_jclouds.s3;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+
+public class S3BulkPresignerTest {
+
+    private static final AwsCredentials BASIC = AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+    private static final AwsCredentials SESSION = AwsSessionCredentials.create("ASIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY", "FQoGZXIvYXdzE//session+token=");
+
+    /** SHA-256 of {@code test}, in Base64. */
+    private static final String CHECKSUM = "n4bQgYhMfWWaL+qgxVrQFaO/TxsrC4Is0V1sFbDwCgg=";
+
+    private static final List<String> KEYS = Arrays.asList("prefix/job/1/artifacts/file.txt", "with space/ünïcødé+~!*'()&=;,$@.txt", "a//b/./c/../d", "x%y#z?q");
+
+    static S3Presigner presigner(boolean pathStyle, AwsCredentials credentials) {
+        return S3Presigner.builder()
+                .region(Region.EU_WEST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(credentials))
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(pathStyle).build())
+                .build();
+    }
+
+    private static URL presignWithSdk(S3Presigner presigner, String key, String contentType, String checksum) {
+        return presigner.presignPutObject(PutObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofHours(1))
+                .putObjectRequest(PutObjectRequest.builder().bucket("my-bucket").key(key).contentType(contentType).checksumSHA256(checksum).build())
+                .build()).url();
+    }
+
+    @Test
+    public void localSignatureMatchesSdk() {
+        for (boolean pathStyle : new boolean[] {false, true}) {
+            for (AwsCredentials credentials : Arrays.asList(BASIC, SESSION)) {
+                try (S3Presigner presigner = presigner(pathStyle, credentials)) {
+                    for (String key : KEYS) {
+                        for (String contentType : Arrays.asList(null, "text/plain", "application/json;  charset=UTF-8 ")) {
+                            for (String checksum : Arrays.asList(null, CHECKSUM)) {
+                                URL url = presignWithSdk(presigner, key, contentType, checksum);
+                                assertNotNull(url.toString(), S3BulkPresigner.Template.parse(url, key, contentType, checksum, credentials));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void presignPuts() throws Exception {
+        Map<String, String> keys = new HashMap<>();
+        Map<String, String> contentTypes = new HashMap<>();
+        Map<String, String> checksums = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            keys.put("f" + i, "prefix/job/1/artifacts/dir" + (i % 7) + "/file " + i + ".bin");
+            contentTypes.put("f" + i, i % 3 == 0 ? null : "application/x-" + (i % 5));
+            if (i % 4 == 0) {
+                checksums.put("f" + i, CHECKSUM);
+            }
+        }
+        for (int i = 0; i < KEYS.size(); i++) {
+            keys.put("k" + i, KEYS.get(i));
+            contentTypes.put("k" + i, i % 2 == 0 ? null : "application/json;  charset=UTF-8 ");
+        }
+        for (boolean pathStyle : new boolean[] {false, true}) {
+            for (AwsCredentials credentials : Arrays.asList(BASIC, SESSION)) {
+                try (S3Presigner presigner = presigner(pathStyle, credentials)) {
+                    S3BulkPresigner bulk = new S3BulkPresigner(presigner, credentials, Duration.ofHours(1));
+                    // the SDK signs with the current time, so compare only batches presigned within one second
+                    for (int attempt = 0; ; attempt++) {
+                        Map<String, URL> urls = bulk.presignPuts("my-bucket", keys, contentTypes, checksums);
+                        assertEquals(keys.keySet(), urls.keySet());
+                        Map<String, String> expected = new HashMap<>();
+                        Map<String, String> actual = new HashMap<>();
+                        Set<String> dates = new HashSet<>();
+                        for (Map.Entry<String, String> entry : keys.entrySet()) {
+                            URL sdk = presignWithSdk(presigner, entry.getValue(), contentTypes.get(entry.getKey()), checksums.get(entry.getKey()));
+                            expected.put(entry.getKey(), sdk.toString());
+                            actual.put(entry.getKey(), urls.get(entry.getKey()).toString());
+                            dates.add(amzDate(sdk));
+                            dates.add(amzDate(urls.get(entry.getKey())));
+                        }
+                        if (dates.size() == 1) {
+                            assertEquals(expected, actual);
+                            if (credentials == SESSION) {
+                                assertThat(actual.get("f1"), containsString("X-Amz-Security-Token="));
+                            }
+                            break;
+                        }
+                        assertThat("signing time kept changing", attempt, lessThan(10));
+                    }
+                }
+            }
+        }
+    }
+
+    private static String amzDate(URL url) {
+        Matcher m = Pattern.compile("[?&]X-Amz-Date=([^&]+)").matcher(url.getQuery() == null ? "" : "?" + url.getQuery());
+        assertTrue(url.toString(), m.find());
+        return m.group(1);
+    }
+
+}
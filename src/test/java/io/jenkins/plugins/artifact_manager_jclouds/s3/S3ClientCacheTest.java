@@ -0,0 +1,49 @@
+package io.jenkins.plugins.artifact_manager_jclouds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+public class S3ClientCacheTest {
+
+    private static final Instant NOW = Instant.parse("2018-05-01T00:00:00Z");
+
+    private final AtomicInteger built = new AtomicInteger();
+
+    private S3ClientCache.Signing build() {
+        built.incrementAndGet();
+        return new S3ClientCache.Signing(mock(S3Client.class), mock(S3Presigner.class), NOW.plus(Duration.ofHours(1)));
+    }
+
+    @Test
+    public void signingReused() throws Exception {
+        S3ClientCache cache = new S3ClientCache(Clock.fixed(NOW, ZoneOffset.UTC));
+        S3ClientCache.Signing signing = cache.signing("k", this::build);
+        assertSame(signing, cache.signing("k", this::build));
+        assertEquals(1, built.get());
+        assertNotSame(signing, cache.signing("k2", this::build));
+        assertEquals(2, built.get());
+    }
+
+    @Test
+    public void signingRefreshedBeforeExpiry() throws Exception {
+        S3ClientCache.Signing signing = new S3ClientCache(Clock.fixed(NOW, ZoneOffset.UTC)).signing("k", this::build);
+        S3ClientCache later = new S3ClientCache(Clock.fixed(NOW.plus(Duration.ofMinutes(58)), ZoneOffset.UTC));
+        S3ClientCache.Signing first = later.signing("k", () -> signing);
+        assertSame(signing, first);
+        assertNotSame("within the refresh margin, so rebuilt", first, later.signing("k", this::build));
+    }
+
+}
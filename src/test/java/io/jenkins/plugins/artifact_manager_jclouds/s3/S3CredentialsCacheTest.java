@@ -0,0 +1,121 @@
+package io.jenkins.plugins.artifact_manager_jclouds.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+public class S3CredentialsCacheTest {
+
+    private Instant now = Instant.parse("2018-05-01T00:00:00Z");
+
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    };
+
+    private final List<Runnable> background = new ArrayList<>();
+
+    private final S3CredentialsCache cache = new S3CredentialsCache(clock, background::add);
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private AwsSessionCredentials load() {
+        return AwsSessionCredentials.builder()
+                .accessKeyId("ASID" + loads.incrementAndGet())
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expirationTime(now.plus(Duration.ofHours(1)))
+                .build();
+    }
+
+    @Test
+    public void reusedAndRefreshedAhead() throws Exception {
+        AwsSessionCredentials first = cache.get("k", this::load);
+        now = now.plus(Duration.ofMinutes(30));
+        assertSame(first, cache.get("k", this::load));
+        assertEquals(1, loads.get());
+        assertTrue(background.isEmpty());
+        now = now.plus(Duration.ofMinutes(22));
+        assertSame("still valid, but refreshing in the background", first, cache.get("k", this::load));
+        assertSame(first, cache.get("k", this::load));
+        assertEquals("refresh only scheduled once", 1, background.size());
+        background.remove(0).run();
+        assertEquals("ASID2", cache.get("k", this::load).accessKeyId());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void expiredCredentialsFetchedSynchronously() throws Exception {
+        cache.get("k", this::load);
+        now = now.plus(Duration.ofMinutes(57));
+        assertEquals("ASID2", cache.get("k", this::load).accessKeyId());
+        assertTrue(background.isEmpty());
+    }
+
+    @Test
+    public void concurrentFetchesCoalesced() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        S3CredentialsCache.Loader slow = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException x) {
+                throw new IOException(x);
+            }
+            return load();
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<AwsSessionCredentials>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("k", slow)));
+            started.await();
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> cache.get("k", slow)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<AwsSessionCredentials> result : results) {
+                assertEquals("ASID1", result.get(10, TimeUnit.SECONDS).accessKeyId());
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missingCredentials() throws Exception {
+        cache.get("k", () -> null);
+    }
+
+}